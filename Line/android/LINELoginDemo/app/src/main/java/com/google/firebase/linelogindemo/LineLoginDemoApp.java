@@ -17,20 +17,79 @@
 package com.google.firebase.linelogindemo;
 
 import android.app.Application;
+import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 
+import com.google.firebase.customauth.client.LogcatLoginMetricsListener;
+import com.google.firebase.customauth.client.MemoryTrimmer;
+import com.google.firebase.customauth.metrics.LoginMetrics;
+import com.google.firebase.linelogindemo.startup.StartupScheduler;
+import com.google.firebase.linelogindemo.startup.StartupTask;
+import com.google.firebase.linelogindemo.util.ImageCacheTrimmer;
+import com.google.firebase.linelogindemo.util.NetworkSingleton;
+
 import jp.line.android.sdk.LineSdkContextManager;
 
 public class LineLoginDemoApp extends Application {
 
+    // Startup task names, see initStartupTasks()
+    public static final String TASK_VERIFY_CONFIGURATION = "verifyConfiguration";
+    public static final String TASK_NETWORK = "network";
+    public static final String TASK_LINE_SDK = "lineSdk";
+
+    private StartupScheduler mStartupScheduler;
+
     @Override
     public void onCreate() {
         super.onCreate();
 
-        verifyConfiguration();
-        LineSdkContextManager.initialize(this);
+        LoginMetrics.getInstance().addListener(new LogcatLoginMetricsListener());
+
+        MemoryTrimmer memoryTrimmer = new ImageCacheTrimmer();
+        registerComponentCallbacks(memoryTrimmer);
+        registerActivityLifecycleCallbacks(memoryTrimmer);
+
+        mStartupScheduler = new StartupScheduler(this);
+        initStartupTasks(mStartupScheduler);
+        mStartupScheduler.start();
+    }
+
+    /**
+     * Nothing here is needed to draw the first frame: configuration checks and the network stack
+     * are set up in the background, LINE SDK only once login or logout needs it.
+     */
+    private void initStartupTasks(StartupScheduler scheduler) {
+        scheduler
+                .add(new StartupTask(TASK_VERIFY_CONFIGURATION, false) {
+                    @Override
+                    public void run(Context context) {
+                        verifyConfiguration();
+                    }
+                })
+                .add(new StartupTask(TASK_NETWORK, false) {
+                    @Override
+                    public void run(Context context) {
+                        NetworkSingleton.getInstance(context);
+                    }
+                })
+                .add(new StartupTask(TASK_LINE_SDK, true, TASK_VERIFY_CONFIGURATION) {
+                    @Override
+                    public boolean runsOnMainThread() {
+                        // LINE SDK doesn't document its threading, initialize it where it always was
+                        return true;
+                    }
+
+                    @Override
+                    public void run(Context context) {
+                        LineSdkContextManager.initialize(context);
+                    }
+                });
+    }
+
+    public static StartupScheduler getStartupScheduler(Context context) {
+        return ((LineLoginDemoApp) context.getApplicationContext()).mStartupScheduler;
     }
 
     private void verifyConfiguration() {
@@ -17,10 +17,14 @@
 package com.google.firebase.linelogindemo.activity;
 
 import android.app.ProgressDialog;
+import android.databinding.DataBindingUtil;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -29,13 +33,28 @@ import android.widget.TextView;
 import com.android.volley.toolbox.ImageLoader;
 import com.android.volley.toolbox.NetworkImageView;
 import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.AuthResult;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.customauth.client.AuthNetwork;
+import com.google.firebase.customauth.client.LoginSingleFlight;
+import com.google.firebase.customauth.client.ProfileSnapshotStore;
+import com.google.firebase.customauth.client.TokenExchangeClient;
+import com.google.firebase.customauth.exchange.VerifyTokenResponse;
+import com.google.firebase.customauth.metrics.RequestTrace;
+import com.google.firebase.customauth.profile.ProfileSnapshot;
+import com.google.firebase.linelogindemo.LineLoginDemoApp;
 import com.google.firebase.linelogindemo.R;
+import com.google.firebase.linelogindemo.databinding.ActivityMainBinding;
 import com.google.firebase.linelogindemo.util.LineLoginHelper;
 import com.google.firebase.linelogindemo.util.NetworkSingleton;
+import com.google.firebase.linelogindemo.util.ProfilePhotoLoader;
+import com.google.firebase.linelogindemo.util.SessionRefresher;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -49,26 +68,84 @@ public class MainActivity extends AppCompatActivity {
     private ImageLoader mImageLoader;
     private LineLoginHelper mLineLoginHelper;
     private ProgressDialog mLoadingDialog;
+    private Task<AuthResult> mObservedLogin;
+    private ProfileSnapshot mSnapshot;
+    private String mPhotoUrl;
 
     private static final String TAG = MainActivity.class.getSimpleName();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long onCreateStart = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
         bindUIElements();
 
         mImageLoader = NetworkSingleton.getInstance(this).getImageLoader();
         mLineLoginHelper = new LineLoginHelper(this);
+
+        mSnapshot = ProfileSnapshotStore.load(this);
+        if (mSnapshot != null) {
+            // Signed in last time: show that profile right away and check it against Firebase
+            // once the first frame is drawn
+            showSnapshot(mSnapshot);
+            final boolean coldStart = savedInstanceState == null;
+            Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                @Override
+                public boolean queueIdle() {
+                    if (!isFinishing()) {
+                        verifySnapshot(coldStart);
+                    }
+                    return false;
+                }
+            });
+        } else {
+            updateUI();
+            prepareLogin(savedInstanceState == null);
+        }
+
+        LineLoginDemoApp.getStartupScheduler(this)
+                .recordFirstFrame(getWindow().getDecorView(), "mainActivity.firstFrame", onCreateStart);
+    }
+
+    private void prepareLogin(boolean coldStart) {
+        if (FirebaseAuth.getInstance().getCurrentUser() == null) {
+            // A login is likely, get a connection to the validation server ready
+            TokenExchangeClient.getInstance(this).prewarm();
+            if (coldStart) {
+                // Returning users still logged in to LINE are signed in again without any UI,
+                // onStart() picks the login up
+                SessionRefresher.signInSilently(this);
+            }
+        }
+    }
+
+    private void showSnapshot(ProfileSnapshot snapshot) {
+        ProfilePhotoLoader.primeImageCache(this, snapshot);
+        mLineLoginButton.setVisibility(View.INVISIBLE);
+        mLoggedInView.setVisibility(View.VISIBLE);
+        bindProfile(snapshot.getDisplayName(), snapshot.getPhotoUrl());
+    }
+
+    /**
+     * Replace the snapshot shown by {@link #showSnapshot(ProfileSnapshot)} with the real state.
+     */
+    private void verifySnapshot(boolean coldStart) {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null || !user.getUid().equals(mSnapshot.getUid())) {
+            ProfileSnapshotStore.clear(this);
+            mSnapshot = null;
+        }
         updateUI();
+        prepareLogin(coldStart);
     }
 
     private void bindUIElements() {
-        // Bind views
-        mLineLoginButton = (Button) findViewById(R.id.line_login_button);
-        mLoggedInView = (View) findViewById(R.id.logged_in_view);
-        mDisplayNameText = (TextView) findViewById(R.id.display_name_text);
-        mProfileImageView = (NetworkImageView) findViewById(R.id.profile_image_view);
+        // Inflate once, the generated binding holds every view with an id
+        ActivityMainBinding binding = DataBindingUtil.setContentView(this, R.layout.activity_main);
+        mLineLoginButton = binding.lineLoginButton;
+        mLoggedInView = binding.loggedInView;
+        mDisplayNameText = binding.displayNameText;
+        mProfileImageView = binding.profileImageView;
 
         // Bind buttons' OnClickListener
         mLineLoginButton.setOnClickListener(new View.OnClickListener() {
@@ -77,8 +154,7 @@ public class MainActivity extends AppCompatActivity {
                 onTapLineLogin();
             }
         });
-        Button logoutButton = (Button) findViewById(R.id.logout_button);
-        logoutButton.setOnClickListener(new View.OnClickListener() {
+        binding.logoutButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
                 onTapLogout();
@@ -86,35 +162,93 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        // Resume the photo load cancelled in onStop()
+        if (mPhotoUrl != null) {
+            mProfileImageView.setImageUrl(mPhotoUrl, mImageLoader);
+        }
+
+        // Re-attach to a login that was started before this Activity was recreated or stopped
+        Task<AuthResult> pendingLogin = LoginSingleFlight.peek(LineLoginHelper.PROVIDER_ID);
+        if (pendingLogin != null && pendingLogin == SessionRefresher.getSilentLogin()) {
+            observeSilentLogin(pendingLogin);
+        } else if (pendingLogin != null) {
+            observeLogin(pendingLogin);
+        }
+    }
+
+    /**
+     * Show the logged-in view if the silent login succeeds. The login button stays usable
+     * meanwhile, and a failed silent login is not shown at all.
+     */
+    private void observeSilentLogin(Task<AuthResult> loginTask) {
+        // The listener is removed automatically when this Activity stops
+        loginTask.addOnSuccessListener(this, new OnSuccessListener<AuthResult>() {
+            @Override
+            public void onSuccess(AuthResult result) {
+                updateUI();
+            }
+        });
+    }
+
     void onTapLineLogin() {
+        // The exchange follows as soon as LINE Login returns, connect while the user logs in
+        TokenExchangeClient.getInstance(this).prewarm();
+        // Kick start login progress
+        observeLogin(mLineLoginHelper.startLineLogin());
+    }
+
+    private void observeLogin(Task<AuthResult> loginTask) {
+        if (loginTask == mObservedLogin) {
+            // Already showing progress for this login, e.g. after a double tap
+            return;
+        }
+        mObservedLogin = loginTask;
+
         // Show loading dialog
         mLoadingDialog = new ProgressDialog(this);
         mLoadingDialog.setMessage(getString(R.string.logging_in_using_line));
         mLoadingDialog.setCancelable(false);
         mLoadingDialog.show();
 
-        // Kick start login progress
-        mLineLoginHelper
-                .startLineLogin()
-                .addOnCompleteListener(new OnCompleteListener<AuthResult>() {
-                    @Override
-                    public void onComplete(@NonNull Task<AuthResult> task) {
-                        updateUI();
-                        mLoadingDialog.dismiss();
-                        mLoadingDialog = null;
-
-                        if (task.isSuccessful()) {
-                            Log.d(TAG, "LINE Login was successful.");
-                        } else {
-                            Log.e(TAG, "LINE Login failed. Error = " + task.getException().getLocalizedMessage());
-                            new AlertDialog.Builder(MainActivity.this)
-                                    .setMessage(R.string.login_failed)
-                                    .setNegativeButton(android.R.string.no, null)
-                                    .setIcon(android.R.drawable.ic_dialog_alert)
-                                    .show();
-                        }
-                    }
-                });
+        // The profile is known before Firebase sign-in completes, fill in the still hidden
+        // logged-in view meanwhile so it is ready, photo included, when it is shown
+        Task<VerifyTokenResponse> profile = LineLoginHelper.getPendingProfile();
+        if (profile != null) {
+            profile.addOnSuccessListener(this, new OnSuccessListener<VerifyTokenResponse>() {
+                @Override
+                public void onSuccess(VerifyTokenResponse response) {
+                    bindProfile(response.getDisplayName(), response.getPhotoUrl());
+                }
+            });
+        }
+
+        // The listener is removed automatically when this Activity stops
+        loginTask.addOnCompleteListener(this, new OnCompleteListener<AuthResult>() {
+            @Override
+            public void onComplete(@NonNull Task<AuthResult> task) {
+                updateUI();
+                if (mLoadingDialog != null) {
+                    mLoadingDialog.dismiss();
+                    mLoadingDialog = null;
+                }
+                mObservedLogin = null;
+
+                if (task.isSuccessful()) {
+                    Log.d(TAG, "LINE Login was successful.");
+                } else {
+                    Log.e(TAG, "LINE Login failed. Error = " + task.getException().getLocalizedMessage());
+                    new AlertDialog.Builder(MainActivity.this)
+                            .setMessage(R.string.login_failed)
+                            .setNegativeButton(android.R.string.no, null)
+                            .setIcon(android.R.drawable.ic_dialog_alert)
+                            .show();
+                }
+            }
+        });
     }
 
     void onTapLogout() {
@@ -128,6 +262,7 @@ public class MainActivity extends AppCompatActivity {
         if (user == null) {
             mLineLoginButton.setVisibility(View.VISIBLE);
             mLoggedInView.setVisibility(View.INVISIBLE);
+            mPhotoUrl = null;
         } else {
             Log.d(TAG, "UID = " + user.getUid());
             Log.d(TAG, "Provider ID = " + user.getProviderId());
@@ -135,11 +270,20 @@ public class MainActivity extends AppCompatActivity {
             mLineLoginButton.setVisibility(View.INVISIBLE);
             mLoggedInView.setVisibility(View.VISIBLE);
 
-            mDisplayNameText.setText(user.getDisplayName());
-            if (user.getPhotoUrl() != null) {
-                mProfileImageView.setImageUrl(user.getPhotoUrl().toString(), mImageLoader);
-            }
+            bindProfile(user.getDisplayName(),
+                    user.getPhotoUrl() != null ? user.getPhotoUrl().toString() : null);
+            ProfileSnapshotStore.update(this, user, new ProfilePhotoLoader());
+        }
+    }
 
+    private void bindProfile(String displayName, String photoUrl) {
+        if (displayName != null) {
+            mDisplayNameText.setText(displayName);
+        }
+        if (photoUrl != null) {
+            mPhotoUrl = photoUrl;
+            // No-op if the same URL is already bound
+            mProfileImageView.setImageUrl(photoUrl, mImageLoader);
         }
     }
 
@@ -147,9 +291,41 @@ public class MainActivity extends AppCompatActivity {
     protected void onStop() {
         super.onStop();
 
-        // Dismiss loading dialog to avoid
+        // Dismiss loading dialog to avoid leaking its window. The login itself keeps running
+        // and is picked up again in onStart().
         if (mLoadingDialog != null) {
             mLoadingDialog.dismiss();
+            mLoadingDialog = null;
+        }
+        mObservedLogin = null;
+
+        // Stop loading a photo nobody can see. Unbinding the view cancels its ImageContainer, so
+        // the download itself only stops if no one else, e.g. ProfileSnapshotStore, waits for
+        // it. A photo that is already shown stays.
+        if (mProfileImageView.getDrawable() == null) {
+            mProfileImageView.setImageUrl(null, mImageLoader);
+        }
+    }
+
+    /**
+     * Adds the recent requests and the queue gauges to
+     * {@code adb shell dumpsys activity com.google.firebase.linelogindemo/.activity.MainActivity}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        AuthNetwork authNetwork = AuthNetwork.getInstanceIfCreated();
+        NetworkSingleton network = NetworkSingleton.getInstanceIfCreated();
+        writer.println(prefix + "Queues:");
+        if (authNetwork != null) {
+            writer.println(prefix + "  " + authNetwork.getQueue());
+        }
+        if (network != null) {
+            writer.println(prefix + "  " + network.getImageQueue());
+        }
+        writer.println(prefix + "Request trace:");
+        for (String line : RequestTrace.getInstance().dump().split("\n")) {
+            writer.println(prefix + "  " + line);
         }
     }
 }
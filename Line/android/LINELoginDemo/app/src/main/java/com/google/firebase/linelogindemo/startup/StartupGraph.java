@@ -0,0 +1,244 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.startup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * The dependency graph behind {@link StartupScheduler}, in plain Java so it can be tested on the
+ * JVM.
+ *
+ * A task is started once all of its dependencies have finished, on the main or the background
+ * executor. If a task fails, the tasks that depend on it don't run and complete with the same
+ * error, and only the {@link Listener} hears about the task that failed itself.
+ */
+final class StartupGraph {
+
+    /**
+     * Runs a task on the thread it was started on, e.g. timing it.
+     */
+    interface Runner {
+        void run(StartupTask task) throws Exception;
+    }
+
+    interface Listener {
+        /**
+         * Called once for every task that threw, on the thread it ran on.
+         */
+        void onTaskFailed(StartupTask task, Exception error);
+    }
+
+    /**
+     * Told once when a task has run, or won't run because it or a dependency failed.
+     */
+    interface Callback {
+        /**
+         * @param error Null if the task ran
+         */
+        void onComplete(Exception error);
+    }
+
+    private final Executor mMainExecutor;
+    private final Executor mBackgroundExecutor;
+    private final Runner mRunner;
+    private final Listener mListener;
+
+    private final Map<String, StartupTask> mTasks = new LinkedHashMap<>();
+    private final Map<String, Node> mStarted = new HashMap<>();
+
+    StartupGraph(Executor mainExecutor, Executor backgroundExecutor, Runner runner, Listener listener) {
+        mMainExecutor = mainExecutor;
+        mBackgroundExecutor = backgroundExecutor;
+        mRunner = runner;
+        mListener = listener;
+    }
+
+    synchronized void add(StartupTask task) {
+        if (mTasks.containsKey(task.getName())) {
+            throw new IllegalArgumentException("Duplicate startup task " + task.getName());
+        }
+        mTasks.put(task.getName(), task);
+    }
+
+    /**
+     * Start every task, or only those that are not deferred.
+     */
+    void startAll(boolean includeDeferred) {
+        List<StartupTask> tasks;
+        synchronized (this) {
+            tasks = new ArrayList<>(mTasks.values());
+        }
+        for (StartupTask task : tasks) {
+            if (includeDeferred || !task.isDeferred()) {
+                require(task.getName(), null);
+            }
+        }
+    }
+
+    /**
+     * Start the named task and its dependencies if they haven't been started yet.
+     *
+     * @param callback Told once the task has run or failed, may be null
+     */
+    void require(String name, Callback callback) {
+        List<Node> created = new ArrayList<>();
+        Node node;
+        synchronized (this) {
+            try {
+                node = require(name, new HashSet<String>(), created);
+            } catch (RuntimeException e) {
+                // Unknown task or a cycle: forget the nodes, none of them will be started
+                for (Node createdNode : created) {
+                    mStarted.remove(createdNode.mTask.getName());
+                }
+                throw e;
+            }
+        }
+        // Dependencies may already be done and tasks may run right away, e.g. on a direct
+        // executor, so both happen outside the lock
+        for (Node createdNode : created) {
+            createdNode.start();
+        }
+        if (callback != null) {
+            node.addCallback(callback);
+        }
+    }
+
+    /**
+     * @param created Collects the nodes created here, dependencies first
+     */
+    private Node require(String name, Set<String> visiting, List<Node> created) {
+        Node started = mStarted.get(name);
+        if (started != null) {
+            return started;
+        }
+
+        StartupTask task = mTasks.get(name);
+        if (task == null) {
+            throw new IllegalArgumentException("Unknown startup task " + name);
+        }
+        if (!visiting.add(name)) {
+            throw new IllegalStateException("Startup tasks depend on each other: " + visiting);
+        }
+        List<Node> dependencies = new ArrayList<>();
+        for (String dependency : task.getDependencies()) {
+            dependencies.add(require(dependency, visiting, created));
+        }
+        visiting.remove(name);
+
+        Node node = new Node(task, dependencies);
+        mStarted.put(name, node);
+        created.add(node);
+        return node;
+    }
+
+    private final class Node implements Runnable, Callback {
+
+        private final StartupTask mTask;
+        private final List<Node> mDependencies;
+        private int mWaitingFor;
+        private boolean mFailedDependency;
+        private boolean mDone;
+        private Exception mError;
+        private final List<Callback> mCallbacks = new ArrayList<>();
+
+        Node(StartupTask task, List<Node> dependencies) {
+            mTask = task;
+            mDependencies = dependencies;
+            mWaitingFor = dependencies.size();
+        }
+
+        void start() {
+            if (mDependencies.isEmpty()) {
+                schedule();
+                return;
+            }
+            for (Node dependency : mDependencies) {
+                dependency.addCallback(this);
+            }
+        }
+
+        private void schedule() {
+            (mTask.runsOnMainThread() ? mMainExecutor : mBackgroundExecutor).execute(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                mRunner.run(mTask);
+            } catch (Exception e) {
+                mListener.onTaskFailed(mTask, e);
+                complete(e);
+                return;
+            }
+            complete(null);
+        }
+
+        /**
+         * A dependency has completed.
+         */
+        @Override
+        public void onComplete(Exception error) {
+            synchronized (StartupGraph.this) {
+                if (mFailedDependency) {
+                    return;
+                }
+                if (error == null && --mWaitingFor > 0) {
+                    return;
+                }
+                mFailedDependency = error != null;
+            }
+            if (error != null) {
+                complete(error);
+            } else {
+                schedule();
+            }
+        }
+
+        void addCallback(Callback callback) {
+            Exception error;
+            synchronized (StartupGraph.this) {
+                if (!mDone) {
+                    mCallbacks.add(callback);
+                    return;
+                }
+                error = mError;
+            }
+            callback.onComplete(error);
+        }
+
+        private void complete(Exception error) {
+            List<Callback> callbacks;
+            synchronized (StartupGraph.this) {
+                mDone = true;
+                mError = error;
+                callbacks = new ArrayList<>(mCallbacks);
+                mCallbacks.clear();
+            }
+            for (Callback callback : callbacks) {
+                callback.onComplete(error);
+            }
+        }
+    }
+}
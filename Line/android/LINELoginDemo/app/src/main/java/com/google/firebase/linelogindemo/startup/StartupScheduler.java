@@ -0,0 +1,198 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.startup;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link StartupTask}s once their dependencies have finished, see {@link StartupGraph}.
+ *
+ * Tasks that don't depend on each other run in parallel on a small background pool. Deferred
+ * tasks only start when {@link #require(String)} asks for them, or once the main thread goes
+ * idle after the first frame. How long each task took is kept in {@link #getDurations()}, next
+ * to the time to first frames recorded with {@link #recordFirstFrame(View, String, long)}.
+ *
+ * A failing task crashes the app on the main thread, the same as it would have if it had run
+ * directly in Application.onCreate().
+ */
+public class StartupScheduler {
+
+    private static final String TAG = StartupScheduler.class.getSimpleName();
+
+    private static final int POOL_SIZE =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mBackgroundExecutor;
+    private final Executor mMainExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mMainHandler.post(command);
+        }
+    };
+
+    private final StartupGraph mGraph;
+    private final Map<String, Task<Void>> mRequired = new HashMap<>();
+    private final Map<String, Long> mDurations = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+    public StartupScheduler(Context context) {
+        mContext = context.getApplicationContext();
+        mBackgroundExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        return new Thread(runnable, "startup-" + mCount.incrementAndGet());
+                    }
+                });
+        // Startup is a one-off, don't keep the threads around afterwards
+        mBackgroundExecutor.allowCoreThreadTimeOut(true);
+
+        mGraph = new StartupGraph(mMainExecutor, mBackgroundExecutor, new StartupGraph.Runner() {
+            @Override
+            public void run(StartupTask task) throws Exception {
+                runTimed(task);
+            }
+        }, new StartupGraph.Listener() {
+            @Override
+            public void onTaskFailed(final StartupTask task, final Exception error) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (error instanceof RuntimeException) {
+                            throw (RuntimeException) error;
+                        }
+                        throw new IllegalStateException("Startup task " + task.getName() + " failed", error);
+                    }
+                });
+            }
+        });
+    }
+
+    public StartupScheduler add(StartupTask task) {
+        mGraph.add(task);
+        return this;
+    }
+
+    /**
+     * Start every task that is not deferred, and schedule the deferred ones for when the main
+     * thread is idle.
+     */
+    public void start() {
+        mGraph.startAll(false);
+
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                mGraph.startAll(true);
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Start the named task and its dependencies if they haven't been started yet.
+     *
+     * @return Task that completes once the named task has run
+     */
+    public synchronized Task<Void> require(String name) {
+        Task<Void> required = mRequired.get(name);
+        if (required != null) {
+            return required;
+        }
+        final TaskCompletionSource<Void> source = new TaskCompletionSource<>();
+        mGraph.require(name, new StartupGraph.Callback() {
+            @Override
+            public void onComplete(Exception error) {
+                if (error == null) {
+                    source.setResult(null);
+                } else {
+                    source.setException(error);
+                }
+            }
+        });
+        mRequired.put(name, source.getTask());
+        return source.getTask();
+    }
+
+    private void runTimed(StartupTask task) throws Exception {
+        long startTime = SystemClock.elapsedRealtime();
+        try {
+            task.run(mContext);
+        } finally {
+            long duration = SystemClock.elapsedRealtime() - startTime;
+            mDurations.put(task.getName(), duration);
+            Log.d(TAG, task.getName() + " took " + duration + " ms on " + Thread.currentThread().getName());
+        }
+    }
+
+    /**
+     * Record the time from startTime until the first frame showing view is about to be drawn,
+     * e.g. from Activity.onCreate() to the Activity's first frame.
+     *
+     * @param name Name to keep the duration under in {@link #getDurations()}
+     * @param startTime Start in {@link SystemClock#elapsedRealtime()} milliseconds
+     */
+    public void recordFirstFrame(final View view, final String name, final long startTime) {
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                long duration = SystemClock.elapsedRealtime() - startTime;
+                mDurations.put(name, duration);
+                Log.d(TAG, name + " took " + duration + " ms");
+                return true;
+            }
+        });
+    }
+
+    /**
+     * @return Duration in milliseconds of every task that has finished, and of every first
+     *         frame recorded, in completion order
+     */
+    public Map<String, Long> getDurations() {
+        synchronized (mDurations) {
+            return new LinkedHashMap<>(mDurations);
+        }
+    }
+}
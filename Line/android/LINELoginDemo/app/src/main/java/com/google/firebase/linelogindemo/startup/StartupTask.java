@@ -0,0 +1,66 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.startup;
+
+import android.content.Context;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A piece of app initialization run by {@link StartupScheduler}.
+ */
+public abstract class StartupTask {
+
+    private final String mName;
+    private final boolean mDeferred;
+    private final List<String> mDependencies;
+
+    /**
+     * @param name Unique name other tasks use to depend on this one
+     * @param deferred True if the task isn't needed for the first frame and should only run once
+     *                 something requires it, or the main thread is idle
+     * @param dependencies Names of the tasks that must finish before this one starts
+     */
+    protected StartupTask(String name, boolean deferred, String... dependencies) {
+        mName = name;
+        mDeferred = deferred;
+        mDependencies = Collections.unmodifiableList(Arrays.asList(dependencies));
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isDeferred() {
+        return mDeferred;
+    }
+
+    public List<String> getDependencies() {
+        return mDependencies;
+    }
+
+    /**
+     * @return True if the task touches code that is not safe to call off the main thread
+     */
+    public boolean runsOnMainThread() {
+        return false;
+    }
+
+    public abstract void run(Context context) throws Exception;
+}
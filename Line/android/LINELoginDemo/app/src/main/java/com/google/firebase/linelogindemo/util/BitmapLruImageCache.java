@@ -0,0 +1,93 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.util;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+import com.android.volley.toolbox.ImageLoader;
+
+/**
+ * Memory LRU of decoded profile images, bounded by the number of bytes the bitmaps use rather
+ * than by the number of entries.
+ *
+ * Encoded images are kept by the HTTP cache of the request queue, a
+ * {@link com.android.volley.toolbox.DiskBasedCache}, see {@link NetworkSingleton}.
+ */
+public class BitmapLruImageCache implements ImageLoader.ImageCache {
+
+    // Use 1/8th of the memory available to this app for decoded bitmaps
+    private static final int MEMORY_CLASS_FRACTION = 8;
+
+    private final LruCache<String, Bitmap> mCache;
+    private final int mMaxBytes;
+    private volatile int mBudgetBytes;
+
+    public BitmapLruImageCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+        mBudgetBytes = maxBytes;
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * @return Byte budget for decoded bitmaps on this device
+     */
+    public static int defaultMaxBytes(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_FRACTION;
+    }
+
+    @Override
+    public Bitmap getBitmap(String url) {
+        return mCache.get(url);
+    }
+
+    @Override
+    public void putBitmap(String url, Bitmap bitmap) {
+        mCache.put(url, bitmap);
+        int budgetBytes = mBudgetBytes;
+        if (budgetBytes < mMaxBytes) {
+            mCache.trimToSize(budgetBytes);
+        }
+    }
+
+    /**
+     * Keep only a fraction of the usual byte budget, evicting the least recently used bitmaps
+     * until the cache fits. Raising the fraction again lets the cache grow back as images load.
+     *
+     * @param fraction Between 0 and 1, 1 restores the full budget
+     */
+    public void setBudgetFraction(float fraction) {
+        mBudgetBytes = (int) (mMaxBytes * Math.max(0f, Math.min(1f, fraction)));
+        mCache.trimToSize(mBudgetBytes);
+    }
+
+    /**
+     * @return Bytes used by the cached bitmaps
+     */
+    public int getSizeBytes() {
+        return mCache.size();
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.util;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Byte-bounded pool of mutable bitmaps that are no longer displayed, so the next decode can
+ * write into one of them through {@link android.graphics.BitmapFactory.Options#inBitmap}
+ * instead of allocating a new one.
+ *
+ * Only put bitmaps here that nothing else references anymore.
+ */
+public class BitmapPool {
+
+    private final int mMaxBytes;
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+    private int mCurrentBytes;
+
+    private int mHits;
+    private int mMisses;
+
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param width Width of the bitmap that is about to be decoded
+     * @param height Height of the bitmap that is about to be decoded
+     * @param sampleSize inSampleSize the decode will use
+     * @return A pooled bitmap the decode can reuse, or null if there is none
+     */
+    public synchronized Bitmap get(int width, int height, int sampleSize, Bitmap.Config config) {
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while (iterator.hasNext()) {
+            Bitmap candidate = iterator.next();
+            if (canReuse(candidate, width, height, sampleSize, config)) {
+                iterator.remove();
+                mCurrentBytes -= getByteCount(candidate);
+                mHits++;
+                return candidate;
+            }
+        }
+        mMisses++;
+        return null;
+    }
+
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        int size = getByteCount(bitmap);
+        if (size > mMaxBytes) {
+            return;
+        }
+
+        mBitmaps.addFirst(bitmap);
+        mCurrentBytes += size;
+        while (mCurrentBytes > mMaxBytes) {
+            // Drop the least recently added bitmaps first, the GC reclaims them
+            mCurrentBytes -= getByteCount(mBitmaps.removeLast());
+        }
+    }
+
+    public synchronized void clear() {
+        mBitmaps.clear();
+        mCurrentBytes = 0;
+    }
+
+    public synchronized int getSizeBytes() {
+        return mCurrentBytes;
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    private static boolean canReuse(Bitmap candidate, int width, int height, int sampleSize,
+                                    Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Any bitmap that is big enough can be reused from KitKat on
+            int byteCount = width * height * getBytesPerPixel(config);
+            return byteCount <= candidate.getAllocationByteCount();
+        }
+        // Before KitKat the size must match exactly and the image must not be sampled
+        return sampleSize == 1
+                && candidate.getWidth() == width
+                && candidate.getHeight() == height
+                && candidate.getConfig() == config;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static int getByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ARGB_8888) {
+            return 4;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 2;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.util;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.telephony.TelephonyManager;
+
+/**
+ * How many image downloads the {@link NetworkSingleton} queue sends at once. The auth queue
+ * has a fixed size, see {@link com.google.firebase.customauth.client.AuthNetwork#CONCURRENCY}.
+ *
+ * Image downloads are bulk traffic: on a fast
+ * connection a few run in parallel, on a slow one more parallel downloads only split the same
+ * bandwidth and make every image late. Decoding also costs CPU, so fewer cores mean fewer
+ * parallel downloads.
+ */
+final class DispatcherSizing {
+
+    static final int MAX_IMAGE_CONCURRENCY = 4;
+
+    private DispatcherSizing() {
+    }
+
+    /**
+     * @return Image downloads to run at once on the current connection
+     */
+    static int getImageConcurrency(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = connectivityManager.getActiveNetworkInfo();
+        return getImageConcurrency(info, Runtime.getRuntime().availableProcessors());
+    }
+
+    static int getImageConcurrency(NetworkInfo info, int cores) {
+        int byConnection;
+        if (info == null || !info.isConnectedOrConnecting()) {
+            // Nothing gets through anyway, keep a single request ready for when it comes back
+            byConnection = 1;
+        } else {
+            switch (info.getType()) {
+                case ConnectivityManager.TYPE_WIFI:
+                case ConnectivityManager.TYPE_WIMAX:
+                case ConnectivityManager.TYPE_ETHERNET:
+                    byConnection = MAX_IMAGE_CONCURRENCY;
+                    break;
+                case ConnectivityManager.TYPE_MOBILE:
+                    byConnection = getMobileConcurrency(info.getSubtype());
+                    break;
+                default:
+                    byConnection = 2;
+            }
+        }
+        // Leave a core for the UI thread
+        int byCores = Math.max(1, cores - 1);
+        return Math.max(1, Math.min(byConnection, byCores));
+    }
+
+    private static int getMobileConcurrency(int networkType) {
+        switch (networkType) {
+            case TelephonyManager.NETWORK_TYPE_LTE:
+            case TelephonyManager.NETWORK_TYPE_HSPAP:
+            case TelephonyManager.NETWORK_TYPE_EHRPD:
+                return 3;
+            case TelephonyManager.NETWORK_TYPE_UMTS:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_EVDO_0:
+            case TelephonyManager.NETWORK_TYPE_EVDO_A:
+            case TelephonyManager.NETWORK_TYPE_EVDO_B:
+                return 2;
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.util;
+
+import android.util.Log;
+
+import com.google.firebase.customauth.client.MemoryTrimmer;
+import com.google.firebase.customauth.client.MeteredRequestQueue;
+
+import java.util.List;
+
+/**
+ * {@link MemoryTrimmer} for the Volley image stack of {@link NetworkSingleton}:
+ *
+ * <ul>
+ *   <li>Any level empties the {@link BitmapPool}, it only saves allocations while images load.</li>
+ *   <li>The {@link BitmapLruImageCache} keeps half of its budget when memory runs low or the UI
+ *       is hidden, a quarter when memory is critical or the process is in the background, and
+ *       nothing once the process is next in line to be killed.</li>
+ *   <li>The image queue is stopped while idle along with the auth queue.</li>
+ * </ul>
+ */
+public class ImageCacheTrimmer extends MemoryTrimmer {
+
+    private static final String TAG = ImageCacheTrimmer.class.getSimpleName();
+
+    // Share of the image cache budget currently allowed, only lowered until restoreImages()
+    private float mImageCacheFraction = 1f;
+
+    @Override
+    protected String trimImages(int level) {
+        NetworkSingleton network = NetworkSingleton.getInstanceIfCreated();
+        if (network == null) {
+            // No image has been loaded yet, so there is nothing to give back
+            return "no images loaded";
+        }
+
+        int poolBytes = network.getBitmapPool().getSizeBytes();
+        network.getBitmapPool().clear();
+
+        BitmapLruImageCache imageCache = network.getImageCache();
+        int cacheBytesBefore = imageCache.getSizeBytes();
+        float imageCacheFraction = getImageCacheFraction(level);
+        if (imageCacheFraction < mImageCacheFraction) {
+            mImageCacheFraction = imageCacheFraction;
+            imageCache.setBudgetFraction(imageCacheFraction);
+        }
+        int cacheBytesAfter = imageCache.getSizeBytes();
+
+        return "released " + toKb(poolBytes + cacheBytesBefore - cacheBytesAfter) + " KB"
+                + " (bitmap pool " + toKb(poolBytes) + " KB, image cache " + toKb(cacheBytesBefore)
+                + " -> " + toKb(cacheBytesAfter) + " KB)";
+    }
+
+    @Override
+    protected void restoreImages() {
+        NetworkSingleton network = NetworkSingleton.getInstanceIfCreated();
+        if (mImageCacheFraction >= 1f || network == null) {
+            return;
+        }
+        mImageCacheFraction = 1f;
+        network.getImageCache().setBudgetFraction(1f);
+        Log.i(TAG, "Restored the image cache budget");
+    }
+
+    @Override
+    protected List<MeteredRequestQueue> getQueues() {
+        List<MeteredRequestQueue> queues = super.getQueues();
+        NetworkSingleton network = NetworkSingleton.getInstanceIfCreated();
+        if (network != null) {
+            queues.add(network.getImageQueue());
+        }
+        return queues;
+    }
+
+    private static float getImageCacheFraction(int level) {
+        switch (level) {
+            case TRIM_MEMORY_COMPLETE:
+                return 0f;
+            case TRIM_MEMORY_MODERATE:
+            case TRIM_MEMORY_BACKGROUND:
+            case TRIM_MEMORY_RUNNING_CRITICAL:
+                return 0.25f;
+            case TRIM_MEMORY_UI_HIDDEN:
+            case TRIM_MEMORY_RUNNING_LOW:
+                return 0.5f;
+            default:
+                return 1f;
+        }
+    }
+
+    private static int toKb(int bytes) {
+        return bytes / 1024;
+    }
+}
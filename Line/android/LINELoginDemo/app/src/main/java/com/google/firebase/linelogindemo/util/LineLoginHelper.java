@@ -17,24 +17,30 @@
 package com.google.firebase.linelogindemo.util;
 
 import android.app.Activity;
-import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
+import android.widget.ImageView;
 
-import com.android.volley.Request;
-import com.android.volley.Response;
 import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonObjectRequest;
+import com.android.volley.toolbox.ImageLoader;
 import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.firebase.auth.AuthResult;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.customauth.client.LoginPipeline;
+import com.google.firebase.customauth.client.LoginSingleFlight;
+import com.google.firebase.customauth.client.ProfileSnapshotStore;
+import com.google.firebase.customauth.client.TokenExchangeClient;
+import com.google.firebase.customauth.exchange.VerifyTokenResponse;
+import com.google.firebase.customauth.metrics.LoginStage;
+import com.google.firebase.linelogindemo.LineLoginDemoApp;
 import com.google.firebase.linelogindemo.R;
 
-import org.json.JSONObject;
-
-import java.util.HashMap;
+import java.util.concurrent.Callable;
 
 import jp.line.android.sdk.LineSdkContext;
 import jp.line.android.sdk.LineSdkContextManager;
@@ -45,49 +51,126 @@ import jp.line.android.sdk.login.LineLoginFutureListener;
 
 public class LineLoginHelper {
 
-    private String mLineAcessscodeVerificationEndpoint;
+    public static final String PROVIDER_ID = "line";
+
     private static final String TAG = LineLoginHelper.class.getSimpleName();
 
+    // Token exchange of the login in progress, completes while Firebase is still signing in
+    private static Task<VerifyTokenResponse> sPendingProfile;
+
     private Activity mActivity;
 
     public LineLoginHelper(Activity activity) {
         mActivity = activity;
-        mLineAcessscodeVerificationEndpoint =
-                activity.getString(R.string.validation_server_domain) + "/verifyToken";
     }
 
+    /**
+     * Start LINE Login, or join the one already in progress. A silent sign-in in progress, see
+     * {@link SessionRefresher#signInSilently(android.content.Context)}, is joined as well, and
+     * LINE Login only starts if it fails.
+     */
     public Task<AuthResult> startLineLogin() {
+        return LoginSingleFlight.run(PROVIDER_ID, new Callable<Task<AuthResult>>() {
+            @Override
+            public Task<AuthResult> call() throws Exception {
+                return loginWithLine();
+            }
+        });
+    }
+
+    /**
+     * @return Task that resolves to the profile of the user being logged in as soon as the token
+     *         exchange returns, before the login Task completes, or null if no login was started
+     */
+    @Nullable
+    public static synchronized Task<VerifyTokenResponse> getPendingProfile() {
+        return sPendingProfile;
+    }
+
+    private static synchronized void setPendingProfile(Task<VerifyTokenResponse> profile) {
+        sPendingProfile = profile;
+    }
+
+    private Task<AuthResult> loginWithLine() {
+        final TaskCompletionSource<VerifyTokenResponse> profile = new TaskCompletionSource<>();
+        setPendingProfile(profile.getTask());
 
         /**
          * Use Tasks API to chain 3 login steps together
          * Refer to this blog post for more details about Tasks API:
          *   https://firebase.googleblog.com/2016/09/become-a-firebase-taskmaster-part-1.html
+         *
+         * STEP 1, LINE Login, is the only LINE specific one. STEP 2 and 3, exchanging the LINE
+         * access token for a Firebase Custom Auth token and signing in to Firebase with it, are
+         * the same for every provider, see LoginPipeline.
         **/
+        Task<AuthResult> combinedTask = new LoginPipeline.Builder(mActivity, PROVIDER_ID)
+                .setProviderLogin(new LoginPipeline.Stage<Void, String>(LoginStage.PROVIDER_LOGIN) {
+                    @Override
+                    public boolean runsOnMainThread() {
+                        // LINE SDK shows its login UI from here
+                        return true;
+                    }
 
-        Task<AuthResult> combinedTask =
-                // STEP 1: User logins with LINE and get their LINE access token
-                getLineAccessCode(mActivity)
-                .continueWithTask(new Continuation<String, Task<String>>() {
                     @Override
-                    public Task<String> then(@NonNull Task<String> task) throws Exception {
-                        // STEP 2: Exchange LINE access token for Firebase Custom Auth token
-                        String lineAccessCode = task.getResult();
-                        return getFirebaseAuthToken(mActivity, lineAccessCode);
+                    public Task<String> run(Void input) {
+                        // LINE SDK is initialized lazily, make sure it is ready before using it
+                        return LineLoginDemoApp.getStartupScheduler(mActivity).require(LineLoginDemoApp.TASK_LINE_SDK)
+                                .continueWithTask(new Continuation<Void, Task<String>>() {
+                                    @Override
+                                    public Task<String> then(@NonNull Task<Void> task) throws Exception {
+                                        // Rethrows if LINE SDK failed to initialize
+                                        task.getResult();
+                                        return getLineAccessCode(mActivity);
+                                    }
+                                });
                     }
                 })
-                .continueWithTask(new Continuation<String, Task<AuthResult>>() {
+                .addOnExchangedListener(new OnSuccessListener<VerifyTokenResponse>() {
                     @Override
-                    public Task<AuthResult> then(@NonNull Task<String> task) throws Exception {
-                        // STEP 3: Use Firebase Custom Auth token to login Firebase
-                        String firebaseToken = task.getResult();
-                        FirebaseAuth auth = FirebaseAuth.getInstance();
-                        return auth.signInWithCustomToken(firebaseToken);
+                    public void onSuccess(VerifyTokenResponse response) {
+                        // Fan out: the photo download and the UI don't have to wait for Firebase
+                        prefetchProfilePhoto(response.getPhotoUrl());
+                        profile.setResult(response);
                     }
-                });
+                })
+                .build()
+                .run();
+
+        combinedTask.addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                if (!profile.getTask().isComplete()) {
+                    profile.setException(e);
+                }
+            }
+        });
 
         return combinedTask;
     }
 
+    /**
+     * Start loading the photo into the image cache at the size MainActivity shows it, so the
+     * NetworkImageView finds it there, or joins the running request, once sign-in completes.
+     */
+    private void prefetchProfilePhoto(String photoUrl) {
+        if (photoUrl == null) {
+            return;
+        }
+        int size = mActivity.getResources().getDimensionPixelSize(R.dimen.profile_image_size);
+        NetworkSingleton.getInstance(mActivity).getImageLoader().get(photoUrl, new ImageLoader.ImageListener() {
+            @Override
+            public void onResponse(ImageLoader.ImageContainer response, boolean isImmediate) {
+                // Nothing to do, the bitmap is in the cache now
+            }
+
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                Log.d(TAG, "Prefetching profile photo failed: " + error);
+            }
+        }, size, size, ImageView.ScaleType.CENTER_CROP);
+    }
+
     private Task<String> getLineAccessCode(final Activity activity) {
         final TaskCompletionSource<String> source = new TaskCompletionSource<>();
 
@@ -101,7 +184,6 @@ public class LineLoginHelper {
                 switch(future.getProgress()) {
                     case SUCCESS: //Login successfully
                         String lineAccessToken = future.getAccessToken().accessToken;
-                        Log.d(TAG, "LINE Access token = " + lineAccessToken);
                         source.setResult(lineAccessToken);
                         break;
                     case CANCELED: // Login canceled by user
@@ -125,48 +207,17 @@ public class LineLoginHelper {
         return source.getTask();
     }
 
-    private Task<String> getFirebaseAuthToken(Context context, final String lineAccessToken) {
-        final TaskCompletionSource<String> source = new TaskCompletionSource<>();
-
-        // STEP 2: Exchange LINE access token for Firebase Custom Auth token
-        HashMap<String, String> validationObject = new HashMap<>();
-        validationObject.put("token", lineAccessToken);
-
-        // Exchange LINE Access Token for Firebase Auth Token
-        Response.Listener<JSONObject> responseListener = new Response.Listener<JSONObject>() {
-            @Override
-            public void onResponse(JSONObject response) {
-                try {
-                    String firebaseToken = response.getString("firebase_token");
-                    Log.d(TAG, "Firebase Token = " + firebaseToken);
-                    source.setResult(firebaseToken);
-                } catch (Exception e) {
-                    source.setException(e);
-                }
-            }
-        };
-
-        Response.ErrorListener errorListener = new Response.ErrorListener() {
-            @Override
-            public void onErrorResponse(VolleyError error) {
-                Log.e(TAG, error.toString());
-                source.setException(error);
-            }
-        };
-
-        JsonObjectRequest fbTokenRequest = new JsonObjectRequest(
-                Request.Method.POST, mLineAcessscodeVerificationEndpoint,
-                new JSONObject(validationObject),
-                responseListener, errorListener);
-
-        NetworkSingleton.getInstance(context).addToRequestQueue(fbTokenRequest);
-
-        return source.getTask();
-    }
-
     public void signOut() {
+        ProfileSnapshotStore.clear(mActivity);
+        TokenExchangeClient.getInstance(mActivity).clearCache();
         FirebaseAuth.getInstance().signOut();
-        LineSdkContextManager.getSdkContext().getAuthManager().logout();
+        LineLoginDemoApp.getStartupScheduler(mActivity).require(LineLoginDemoApp.TASK_LINE_SDK)
+                .addOnSuccessListener(new OnSuccessListener<Void>() {
+                    @Override
+                    public void onSuccess(Void result) {
+                        LineSdkContextManager.getSdkContext().getAuthManager().logout();
+                    }
+                });
     }
 
 }
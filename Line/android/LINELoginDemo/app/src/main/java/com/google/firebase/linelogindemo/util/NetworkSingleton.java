@@ -16,40 +16,69 @@
 
 package com.google.firebase.linelogindemo.util;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.support.v4.util.LruCache;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.util.Log;
 
-import com.android.volley.Request;
-import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.DiskBasedCache;
 import com.android.volley.toolbox.ImageLoader;
-import com.android.volley.toolbox.Volley;
+import com.google.firebase.customauth.client.AuthNetwork;
+import com.google.firebase.customauth.client.MeteredRequestQueue;
 
+import java.io.File;
+
+/**
+ * Process-wide holder of the image queue. Image traffic gets its own {@link MeteredRequestQueue}
+ * with its own dispatcher threads, next to the auth queue of {@link AuthNetwork}, so a slow
+ * avatar download can never hold up the token exchange. How many image loads run at once
+ * follows the connection type and the number of cores, see {@link DispatcherSizing}.
+ *
+ * The image queue sends its requests through the {@link AuthNetwork} network, i.e. the same
+ * keep-alive connection pool and the same resumable TLS sessions as the auth queue.
+ *
+ * Decoded bitmaps are cached in {@link BitmapLruImageCache}, a memory LRU bounded by bytes.
+ * Encoded responses are kept by the queue's HTTP cache, Volley's own {@link DiskBasedCache},
+ * with twice Volley's default 5 MB. It evicts the least recently used entries once it is full,
+ * and stale entries are revalidated with the stored ETag and Last-Modified headers, so an
+ * unchanged profile photo costs a 304 instead of a download.
+ * Images are decoded off the main thread at the size of their target view, see
+ * {@link SampledImageLoader}.
+ */
 public class NetworkSingleton {
+    private static final String TAG = NetworkSingleton.class.getSimpleName();
+
+    private static final String HTTP_CACHE_DIR = "volley";
+    private static final int HTTP_CACHE_BYTES = 10 * 1024 * 1024;
+    private static final int BITMAP_POOL_BYTES = 2 * 1024 * 1024;
+
     private static NetworkSingleton mInstance;
-    private RequestQueue mRequestQueue;
-    private ImageLoader mImageLoader;
-    private static Context mCtx;
+    private final Context mCtx;
+    private final MeteredRequestQueue mImageQueue;
+    private final BitmapLruImageCache mImageCache;
+    private final SampledImageLoader mImageLoader;
 
     private NetworkSingleton(Context context) {
-        mCtx = context;
-        mRequestQueue = getRequestQueue();
-
-        mImageLoader = new ImageLoader(mRequestQueue,
-                new ImageLoader.ImageCache() {
-                    private final LruCache<String, Bitmap>
-                            cache = new LruCache<String, Bitmap>(20);
-
-                    @Override
-                    public Bitmap getBitmap(String url) {
-                        return cache.get(url);
-                    }
-
-                    @Override
-                    public void putBitmap(String url, Bitmap bitmap) {
-                        cache.put(url, bitmap);
-                    }
-                });
+        // Only keep the application context around, this singleton outlives any Activity.
+        mCtx = context.getApplicationContext();
+
+        File cacheDir = new File(mCtx.getCacheDir(), HTTP_CACHE_DIR);
+        mImageQueue = new MeteredRequestQueue("images", new DiskBasedCache(cacheDir, HTTP_CACHE_BYTES),
+                AuthNetwork.getInstance(mCtx).getNetwork(), DispatcherSizing.MAX_IMAGE_CONCURRENCY, DispatcherSizing.getImageConcurrency(mCtx));
+        mImageQueue.start();
+
+        mImageCache = new BitmapLruImageCache(BitmapLruImageCache.defaultMaxBytes(mCtx));
+        mImageLoader = new SampledImageLoader(mImageQueue, mImageCache, new BitmapPool(BITMAP_POOL_BYTES));
+
+        mCtx.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                mImageQueue.setConcurrency(DispatcherSizing.getImageConcurrency(context));
+                Log.d(TAG, "Connectivity changed, " + mImageQueue);
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
     }
 
     public static synchronized NetworkSingleton getInstance(Context context) {
@@ -59,20 +88,29 @@ public class NetworkSingleton {
         return mInstance;
     }
 
-    public RequestQueue getRequestQueue() {
-        if (mRequestQueue == null) {
-            // getApplicationContext() is key, it keeps you from leaking the
-            // Activity or BroadcastReceiver if someone passes one in.
-            mRequestQueue = Volley.newRequestQueue(mCtx.getApplicationContext());
-        }
-        return mRequestQueue;
+    /**
+     * @return The instance if something has needed the network already, else null
+     */
+    public static synchronized NetworkSingleton getInstanceIfCreated() {
+        return mInstance;
     }
 
-    public <T> void addToRequestQueue(Request<T> req) {
-        getRequestQueue().add(req);
+    /**
+     * @return Queue for image downloads
+     */
+    public MeteredRequestQueue getImageQueue() {
+        return mImageQueue;
     }
 
     public ImageLoader getImageLoader() {
         return mImageLoader;
     }
-}
\ No newline at end of file
+
+    public BitmapLruImageCache getImageCache() {
+        return mImageCache;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mImageLoader.getBitmapPool();
+    }
+}
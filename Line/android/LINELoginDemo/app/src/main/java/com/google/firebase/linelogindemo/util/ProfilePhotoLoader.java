@@ -0,0 +1,70 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.ImageLoader;
+import com.google.firebase.customauth.client.ProfileSnapshotStore;
+import com.google.firebase.customauth.profile.ProfileSnapshot;
+import com.google.firebase.linelogindemo.R;
+
+/**
+ * Loads the profile photo for {@link ProfileSnapshotStore} through the app's Volley
+ * {@link ImageLoader}, at the size and scale type MainActivity shows it, so a photo that is
+ * already shown comes from the image cache.
+ */
+public final class ProfilePhotoLoader implements ProfileSnapshotStore.PhotoLoader {
+
+    /**
+     * Put the snapshot's thumbnail into the image cache under its photo URL, so the
+     * NetworkImageView showing the profile finds it there instead of loading the photo.
+     */
+    public static void primeImageCache(Context context, ProfileSnapshot snapshot) {
+        if (snapshot.getPhotoUrl() == null || !snapshot.hasThumbnail()) {
+            return;
+        }
+        Bitmap thumbnail = ProfileSnapshotStore.getThumbnail(snapshot);
+        int size = context.getResources().getDimensionPixelSize(R.dimen.profile_image_size);
+        SampledImageLoader imageLoader = (SampledImageLoader) NetworkSingleton.getInstance(context).getImageLoader();
+        imageLoader.putBitmap(snapshot.getPhotoUrl(), size, size, ImageView.ScaleType.CENTER_CROP, thumbnail);
+    }
+
+    @Override
+    public void load(Context context, String photoUrl, final ProfileSnapshotStore.PhotoCallback callback) {
+        int size = context.getResources().getDimensionPixelSize(R.dimen.profile_image_size);
+        NetworkSingleton.getInstance(context).getImageLoader().get(photoUrl, new ImageLoader.ImageListener() {
+            @Override
+            public void onResponse(ImageLoader.ImageContainer response, boolean isImmediate) {
+                Bitmap bitmap = response.getBitmap();
+                if (bitmap == null) {
+                    // Not cached, called again once it is loaded
+                    return;
+                }
+                callback.onPhotoLoaded(bitmap);
+            }
+
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                callback.onPhotoFailed();
+            }
+        }, size, size, ImageView.ScaleType.CENTER_CROP);
+    }
+}
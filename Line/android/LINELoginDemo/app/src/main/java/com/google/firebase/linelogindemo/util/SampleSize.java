@@ -0,0 +1,74 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.util;
+
+/**
+ * The size math of {@link SampledImageRequest}, kept free of Android classes so it can be tested
+ * on the JVM.
+ */
+final class SampleSize {
+
+    private SampleSize() {
+    }
+
+    /**
+     * @param maxWidth Width of the target, or 0 to follow the height
+     * @param maxHeight Height of the target, or 0 to follow the width
+     * @return The largest power of 2 that keeps the image at least as big as the target
+     */
+    static int compute(int width, int height, int maxWidth, int maxHeight) {
+        int sampleSize = 1;
+        if (maxWidth <= 0 && maxHeight <= 0) {
+            return sampleSize;
+        }
+        while (fits(width / (sampleSize * 2), maxWidth) && fits(height / (sampleSize * 2), maxHeight)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return What size of the image becomes when BitmapFactory decodes it with sampleSize
+     */
+    static int sampled(int size, int sampleSize) {
+        return (size + sampleSize - 1) / sampleSize;
+    }
+
+    /**
+     * @return Factor that scales an image down so it just covers the target, keeping its aspect
+     *         ratio, or 1 if it doesn't need to be scaled down
+     */
+    static float coverScale(int width, int height, int maxWidth, int maxHeight) {
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            return 1f;
+        }
+        float scale = Math.max((float) maxWidth / width, (float) maxHeight / height);
+        return Math.min(scale, 1f);
+    }
+
+    /**
+     * @return size scaled by scale, at least 1
+     */
+    static int scaled(int size, float scale) {
+        return Math.max(1, Math.round(size * scale));
+    }
+
+    private static boolean fits(int sampledSize, int maxSize) {
+        // A dimension without a target follows the other one
+        return maxSize <= 0 || sampledSize >= maxSize;
+    }
+}
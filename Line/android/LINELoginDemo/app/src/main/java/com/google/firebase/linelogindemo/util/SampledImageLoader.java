@@ -0,0 +1,83 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.util;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.ImageLoader;
+
+/**
+ * {@link ImageLoader} that decodes images with {@link SampledImageRequest}, so views such as
+ * NetworkImageView get bitmaps sized for them instead of full resolution ones.
+ */
+public class SampledImageLoader extends ImageLoader {
+
+    private final ImageCache mImageCache;
+    private final BitmapPool mBitmapPool;
+
+    public SampledImageLoader(RequestQueue queue, ImageCache imageCache, BitmapPool bitmapPool) {
+        super(queue, imageCache);
+        mImageCache = imageCache;
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * Put a bitmap that is already decoded, e.g. a profile snapshot's thumbnail from
+     * {@link ProfilePhotoLoader#primeImageCache}, into the memory cache, so a
+     * {@link #get(String, ImageListener, int, int, ImageView.ScaleType)} with the same arguments
+     * returns it immediately.
+     */
+    public void putBitmap(String requestUrl, int maxWidth, int maxHeight,
+                          ImageView.ScaleType scaleType, Bitmap bitmap) {
+        mImageCache.putBitmap(getCacheKey(requestUrl, maxWidth, maxHeight, scaleType), bitmap);
+    }
+
+    /**
+     * Same key as ImageLoader's private getCacheKey() in Volley 1.0.0.
+     */
+    private static String getCacheKey(String url, int maxWidth, int maxHeight, ImageView.ScaleType scaleType) {
+        return new StringBuilder(url.length() + 12).append("#W").append(maxWidth)
+                .append("#H").append(maxHeight).append("#S").append(scaleType.ordinal()).append(url)
+                .toString();
+    }
+
+    @Override
+    protected Request<Bitmap> makeImageRequest(String requestUrl, int maxWidth, int maxHeight,
+                                               ImageView.ScaleType scaleType, final String cacheKey) {
+        return new SampledImageRequest(requestUrl, maxWidth, maxHeight, mBitmapPool,
+                new Response.Listener<Bitmap>() {
+                    @Override
+                    public void onResponse(Bitmap response) {
+                        onGetImageSuccess(cacheKey, response);
+                    }
+                }, new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        onGetImageError(cacheKey, error);
+                    }
+                });
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.Cache;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.google.firebase.customauth.client.TracedRequest;
+import com.google.firebase.customauth.metrics.RequestTrace;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Image request that decodes straight to the size of the target view.
+ *
+ * The image bounds are read first, then the image is decoded with the largest inSampleSize that
+ * still covers the target, writing into a bitmap from the {@link BitmapPool} when one fits.
+ * If the sampled bitmap is still larger than the target it is scaled down and handed back to the
+ * pool. Decoding happens in {@link #parseNetworkResponse(NetworkResponse)}, i.e. on one of
+ * Volley's network dispatcher threads, never on the main thread.
+ *
+ * ImageLoader already merges loads of the same URL at the same size. Loads of the same URL at
+ * other sizes are held back by the queue until the first one finishes, and then go to the HTTP
+ * cache. Responses are kept fresh for at least {@link #MIN_FRESH_MS} so these, and loads that
+ * follow right after, are answered from that cache instead of going to the network again.
+ */
+public class SampledImageRequest extends TracedRequest<Bitmap> {
+
+    private static final String TAG = SampledImageRequest.class.getSimpleName();
+    private static final int TRACE_KIND = RequestTrace.getInstance().registerKind("image");
+
+    // Same retry behavior as Volley's ImageRequest
+    private static final int IMAGE_TIMEOUT_MS = 1000;
+    private static final int IMAGE_MAX_RETRIES = 2;
+    private static final float IMAGE_BACKOFF_MULT = 2f;
+
+    private static final long MIN_FRESH_MS = 60 * 1000;
+
+    private static final Bitmap.Config DECODE_CONFIG = Bitmap.Config.RGB_565;
+
+    // Decoding is memory hungry, so don't let every network dispatcher thread decode at once
+    private static final Semaphore sDecodePermits = new Semaphore(2);
+
+    private final Response.Listener<Bitmap> mListener;
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * @param maxWidth Width of the target view, or 0 to keep the image width
+     * @param maxHeight Height of the target view, or 0 to keep the image height
+     */
+    public SampledImageRequest(String url, int maxWidth, int maxHeight, BitmapPool bitmapPool,
+                               Response.Listener<Bitmap> listener,
+                               Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener, TRACE_KIND);
+        setRetryPolicy(new DefaultRetryPolicy(IMAGE_TIMEOUT_MS, IMAGE_MAX_RETRIES, IMAGE_BACKOFF_MULT));
+        mListener = listener;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        mBitmapPool = bitmapPool;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return Priority.LOW;
+    }
+
+    @Override
+    protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+        sDecodePermits.acquireUninterruptibly();
+        try {
+            Bitmap bitmap = decode(response.data);
+            if (bitmap == null) {
+                return Response.error(new ParseError(response));
+            }
+            return Response.success(bitmap, withMinFreshness(HttpHeaderParser.parseCacheHeaders(response)));
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Out of memory decoding " + getUrl());
+            return Response.error(new ParseError(e));
+        } finally {
+            sDecodePermits.release();
+        }
+    }
+
+    /**
+     * @return entry, fresh for at least {@link #MIN_FRESH_MS}. Null if the response must not
+     *         be cached at all.
+     */
+    private static Cache.Entry withMinFreshness(Cache.Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        long minExpiry = System.currentTimeMillis() + MIN_FRESH_MS;
+        entry.softTtl = Math.max(entry.softTtl, minExpiry);
+        entry.ttl = Math.max(entry.ttl, entry.softTtl);
+        return entry;
+    }
+
+    @Override
+    protected void deliverResponse(Bitmap response) {
+        mListener.onResponse(response);
+    }
+
+    private Bitmap decode(byte[] data) {
+        long startTime = SystemClock.elapsedRealtime();
+
+        // Read the bounds only, this doesn't allocate any pixels
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = SampleSize.compute(options.outWidth, options.outHeight, mMaxWidth, mMaxHeight);
+        int sampledWidth = SampleSize.sampled(options.outWidth, sampleSize);
+        int sampledHeight = SampleSize.sampled(options.outHeight, sampleSize);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = DECODE_CONFIG;
+        options.inMutable = true;
+        options.inBitmap = mBitmapPool.get(sampledWidth, sampledHeight, sampleSize, DECODE_CONFIG);
+        boolean reused = options.inBitmap != null;
+
+        Bitmap sampled;
+        try {
+            sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap didn't fit after all, decode into a new one
+            options.inBitmap = null;
+            reused = false;
+            sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        if (sampled == null) {
+            return null;
+        }
+
+        Bitmap result = scaleToCover(sampled);
+        if (result != sampled) {
+            mBitmapPool.put(sampled);
+        }
+
+        Log.d(TAG, String.format("Decoded %dx%d to %dx%d (inSampleSize=%d, reused=%b) in %d ms",
+                options.outWidth, options.outHeight, result.getWidth(), result.getHeight(),
+                sampleSize, reused, SystemClock.elapsedRealtime() - startTime));
+        return result;
+    }
+
+    /**
+     * Scale bitmap down so it just covers the target size, keeping its aspect ratio.
+     */
+    private Bitmap scaleToCover(Bitmap bitmap) {
+        float scale = SampleSize.coverScale(bitmap.getWidth(), bitmap.getHeight(), mMaxWidth, mMaxHeight);
+        if (scale >= 1f) {
+            return bitmap;
+        }
+        return Bitmap.createScaledBitmap(bitmap, SampleSize.scaled(bitmap.getWidth(), scale),
+                SampleSize.scaled(bitmap.getHeight(), scale), true);
+    }
+}
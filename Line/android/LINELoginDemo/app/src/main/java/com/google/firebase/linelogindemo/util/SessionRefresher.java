@@ -0,0 +1,129 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.util;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.auth.AuthResult;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.customauth.client.LoginPipeline;
+import com.google.firebase.customauth.client.LoginSingleFlight;
+import com.google.firebase.linelogindemo.LineLoginDemoApp;
+
+import java.util.concurrent.Callable;
+
+import jp.line.android.sdk.LineSdkContextManager;
+import jp.line.android.sdk.model.AccessToken;
+
+/**
+ * Keeps a returning user signed in without going through LINE Login again.
+ *
+ * On cold start, {@link #signInSilently(Context)} exchanges the LINE access token LINE SDK still
+ * holds if Firebase has no current user, unless that token has expired.
+ *
+ * Nothing is refreshed in the background, unlike in the Kakao app. LINE SDK 3.1 has no public
+ * call to refresh the LINE access token, only LINE Login gets a new one. Firebase refreshes its
+ * own ID token from its refresh token, which doesn't expire. A custom token is only needed to
+ * sign in and expires after an hour, so exchanging ahead of time would only warm a cache that is
+ * cold again by the next launch.
+ */
+public final class SessionRefresher {
+
+    // Don't send a token that expires while the exchange is on its way
+    private static final long EXPIRY_MARGIN_MS = 60 * 1000;
+
+    private static Task<AuthResult> sSilentLogin;
+
+    private SessionRefresher() {
+    }
+
+    /**
+     * Sign in to Firebase with the LINE session LINE SDK kept from the last login, without any UI.
+     * The login goes through {@link LoginSingleFlight#runSilently(String, Callable)}, so tapping
+     * LINE Login meanwhile joins it, and shows LINE Login if it fails.
+     *
+     * @return The login Task, or null if Firebase already has a current user
+     */
+    @Nullable
+    public static Task<AuthResult> signInSilently(Context context) {
+        if (FirebaseAuth.getInstance().getCurrentUser() != null) {
+            return null;
+        }
+        final Context appContext = context.getApplicationContext();
+        Task<AuthResult> login = LoginSingleFlight.runSilently(LineLoginHelper.PROVIDER_ID, new Callable<Task<AuthResult>>() {
+            @Override
+            public Task<AuthResult> call() throws Exception {
+                return new LoginPipeline.Builder(appContext, LineLoginHelper.PROVIDER_ID)
+                        .setProviderLogin(new LoginPipeline.Stage<Void, String>(null) {
+                            @Override
+                            public Task<String> run(Void input) {
+                                return getLineAccessToken(appContext);
+                            }
+                        })
+                        .build()
+                        .run();
+            }
+        });
+        setSilentLogin(login);
+        return login;
+    }
+
+    /**
+     * @return The login started by {@link #signInSilently(Context)}, or null if there is none
+     */
+    @Nullable
+    public static synchronized Task<AuthResult> getSilentLogin() {
+        return sSilentLogin;
+    }
+
+    private static synchronized void setSilentLogin(Task<AuthResult> login) {
+        sSilentLogin = login;
+    }
+
+    /**
+     * @return Task that resolves to the LINE access token of the last login, or fails if the
+     *         user isn't logged in to LINE or the token has expired. The server would reject an
+     *         expired token, so it fails here instead of after a round trip.
+     */
+    private static Task<String> getLineAccessToken(Context context) {
+        // LINE SDK is initialized lazily, make sure it is ready before using it
+        return LineLoginDemoApp.getStartupScheduler(context).require(LineLoginDemoApp.TASK_LINE_SDK)
+                .continueWith(new Continuation<Void, String>() {
+                    @Override
+                    public String then(@NonNull Task<Void> task) throws Exception {
+                        // Rethrows if LINE SDK failed to initialize
+                        task.getResult();
+
+                        AccessToken accessToken = LineSdkContextManager.getSdkContext()
+                                .getAuthManager().getAccessToken();
+                        if (accessToken == null || accessToken.accessToken == null) {
+                            throw new IllegalStateException("Not logged in to LINE.");
+                        }
+                        // 0 if LINE SDK doesn't know when the token expires
+                        if (accessToken.expire > 0
+                                && accessToken.expire - EXPIRY_MARGIN_MS <= System.currentTimeMillis()) {
+                            throw new IllegalStateException("LINE access token has expired.");
+                        }
+                        return accessToken.accessToken;
+                    }
+                });
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.startup;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StartupGraphTest {
+
+    private final List<String> mRan = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> mFailed = Collections.synchronizedList(new ArrayList<String>());
+    private final QueueExecutor mMain = new QueueExecutor();
+    private final QueueExecutor mBackground = new QueueExecutor();
+    private StartupGraph mGraph;
+
+    @Before
+    public void setUp() {
+        mGraph = newGraph(mMain, mBackground);
+    }
+
+    @Test
+    public void runsDependenciesFirst() {
+        mGraph.add(new RecordingTask("app", false, "network", "config"));
+        mGraph.add(new RecordingTask("network", false, "config"));
+        mGraph.add(new RecordingTask("config", false));
+
+        mGraph.startAll(false);
+        runAll();
+
+        assertEquals(Arrays.asList("config", "network", "app"), mRan);
+    }
+
+    @Test
+    public void waitsForEveryDependency() {
+        mGraph.add(new RecordingTask("a", false));
+        mGraph.add(new RecordingTask("b", false));
+        mGraph.add(new RecordingTask("c", false, "a", "b"));
+
+        mGraph.startAll(false);
+        mBackground.runNext();
+        mBackground.runNext();
+        // Only a and b were queued, c is queued once both are done
+        assertEquals(Arrays.asList("a", "b"), mRan);
+        mBackground.runNext();
+
+        assertEquals(Arrays.asList("a", "b", "c"), mRan);
+    }
+
+    @Test
+    public void runsOnTheTasksThread() {
+        mGraph.add(new RecordingTask("ui", false) {
+            @Override
+            public boolean runsOnMainThread() {
+                return true;
+            }
+        });
+        mGraph.add(new RecordingTask("io", false));
+
+        mGraph.startAll(false);
+
+        assertEquals(1, mMain.size());
+        assertEquals(1, mBackground.size());
+        mMain.runNext();
+        assertEquals(Collections.singletonList("ui"), mRan);
+    }
+
+    @Test
+    public void runsEachTaskOnce() {
+        mGraph.add(new RecordingTask("config", false));
+        mGraph.add(new RecordingTask("a", false, "config"));
+        mGraph.add(new RecordingTask("b", false, "config"));
+
+        mGraph.startAll(false);
+        mGraph.startAll(true);
+        mGraph.require("config", null);
+        runAll();
+
+        assertEquals(1, Collections.frequency(mRan, "config"));
+        assertEquals(3, mRan.size());
+    }
+
+    @Test
+    public void deferredTaskWaitsUntilRequired() {
+        mGraph.add(new RecordingTask("config", false));
+        mGraph.add(new RecordingTask("sdk", true, "config"));
+
+        mGraph.startAll(false);
+        runAll();
+        assertEquals(Collections.singletonList("config"), mRan);
+
+        Outcome outcome = new Outcome();
+        mGraph.require("sdk", outcome);
+        runAll();
+
+        assertEquals(Arrays.asList("config", "sdk"), mRan);
+        assertTrue(outcome.mCompleted);
+        assertNull(outcome.mError);
+    }
+
+    @Test
+    public void requireStartsDeferredDependencies() {
+        mGraph.add(new RecordingTask("keys", true));
+        mGraph.add(new RecordingTask("sdk", true, "keys"));
+
+        mGraph.require("sdk", null);
+        runAll();
+
+        assertEquals(Arrays.asList("keys", "sdk"), mRan);
+    }
+
+    @Test
+    public void startAllIncludesDeferredTasks() {
+        mGraph.add(new RecordingTask("config", false));
+        mGraph.add(new RecordingTask("sdk", true));
+
+        mGraph.startAll(false);
+        mGraph.startAll(true);
+        runAll();
+
+        assertEquals(Arrays.asList("config", "sdk"), mRan);
+    }
+
+    @Test
+    public void requireOfFinishedTaskCompletesRightAway() {
+        mGraph.add(new RecordingTask("config", false));
+        mGraph.startAll(false);
+        runAll();
+
+        Outcome outcome = new Outcome();
+        mGraph.require("config", outcome);
+
+        assertTrue(outcome.mCompleted);
+        assertEquals(Collections.singletonList("config"), mRan);
+    }
+
+    @Test
+    public void failureSkipsDependents() {
+        final IllegalStateException error = new IllegalStateException("no channel id");
+        mGraph.add(new RecordingTask("config", false) {
+            @Override
+            public void run(Context context) throws Exception {
+                super.run(context);
+                throw error;
+            }
+        });
+        mGraph.add(new RecordingTask("network", false, "config"));
+        mGraph.add(new RecordingTask("sdk", true, "network"));
+
+        mGraph.startAll(false);
+        Outcome network = new Outcome();
+        Outcome sdk = new Outcome();
+        mGraph.require("network", network);
+        mGraph.require("sdk", sdk);
+        runAll();
+
+        assertEquals(Collections.singletonList("config"), mRan);
+        // Only the task that threw is reported, its dependents complete with its error
+        assertEquals(Collections.singletonList("config"), mFailed);
+        assertSame(error, network.mError);
+        assertSame(error, sdk.mError);
+    }
+
+    @Test
+    public void failureOfOneDependencyIsReportedOnce() {
+        mGraph.add(new FailingTask("a"));
+        mGraph.add(new FailingTask("b"));
+        mGraph.add(new RecordingTask("c", false, "a", "b"));
+
+        Outcome outcome = new Outcome();
+        mGraph.require("c", outcome);
+        runAll();
+
+        assertEquals(1, outcome.mCount);
+        assertEquals(Arrays.asList("a", "b"), mFailed);
+        assertTrue(mRan.isEmpty());
+    }
+
+    @Test
+    public void rejectsUnknownTasks() {
+        mGraph.add(new RecordingTask("app", false, "missing"));
+        try {
+            mGraph.require("app", null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // Nothing was left half started
+        mGraph.add(new RecordingTask("missing", false));
+        mGraph.require("app", null);
+        runAll();
+        assertEquals(Arrays.asList("missing", "app"), mRan);
+    }
+
+    @Test
+    public void rejectsCycles() {
+        mGraph.add(new RecordingTask("a", false, "b"));
+        mGraph.add(new RecordingTask("b", false, "a"));
+        try {
+            mGraph.require("a", null);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        runAll();
+        assertTrue(mRan.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateNames() {
+        mGraph.add(new RecordingTask("config", false));
+        mGraph.add(new RecordingTask("config", true));
+    }
+
+    @Test
+    public void runsInParallelOnAPool() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            StartupGraph graph = newGraph(pool, pool);
+            final CountDownLatch bothRunning = new CountDownLatch(2);
+            // Each one waits for the other, so they only finish if they run at the same time
+            graph.add(new LatchTask("a", bothRunning));
+            graph.add(new LatchTask("b", bothRunning));
+            graph.add(new RecordingTask("c", false, "a", "b"));
+
+            Outcome outcome = new Outcome();
+            graph.require("c", outcome);
+
+            assertTrue(outcome.await());
+            assertNull(outcome.mError);
+            assertEquals("c", mRan.get(mRan.size() - 1));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private StartupGraph newGraph(Executor main, Executor background) {
+        return new StartupGraph(main, background, new StartupGraph.Runner() {
+            @Override
+            public void run(StartupTask task) throws Exception {
+                task.run(null);
+            }
+        }, new StartupGraph.Listener() {
+            @Override
+            public void onTaskFailed(StartupTask task, Exception error) {
+                mFailed.add(task.getName());
+            }
+        });
+    }
+
+    private void runAll() {
+        while (mMain.size() > 0 || mBackground.size() > 0) {
+            mMain.runAll();
+            mBackground.runAll();
+        }
+    }
+
+    private class RecordingTask extends StartupTask {
+
+        RecordingTask(String name, boolean deferred, String... dependencies) {
+            super(name, deferred, dependencies);
+        }
+
+        @Override
+        public void run(Context context) throws Exception {
+            mRan.add(getName());
+        }
+    }
+
+    private static class FailingTask extends StartupTask {
+
+        FailingTask(String name) {
+            super(name, false);
+        }
+
+        @Override
+        public void run(Context context) throws Exception {
+            throw new Exception(getName() + " failed");
+        }
+    }
+
+    private class LatchTask extends RecordingTask {
+
+        private final CountDownLatch mBothRunning;
+
+        LatchTask(String name, CountDownLatch bothRunning) {
+            super(name, false);
+            mBothRunning = bothRunning;
+        }
+
+        @Override
+        public void run(Context context) throws Exception {
+            mBothRunning.countDown();
+            if (!mBothRunning.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException(getName() + " ran alone");
+            }
+            super.run(context);
+        }
+    }
+
+    private static class Outcome implements StartupGraph.Callback {
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile boolean mCompleted;
+        private volatile Exception mError;
+        private volatile int mCount;
+
+        @Override
+        public void onComplete(Exception error) {
+            mCompleted = true;
+            mError = error;
+            mCount++;
+            mDone.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return mDone.await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Executor that only runs what it was given when the test says so.
+     */
+    private static class QueueExecutor implements Executor {
+
+        private final Queue<Runnable> mQueue = new ArrayDeque<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            mQueue.add(command);
+        }
+
+        synchronized int size() {
+            return mQueue.size();
+        }
+
+        void runNext() {
+            Runnable next;
+            synchronized (this) {
+                next = mQueue.remove();
+            }
+            next.run();
+        }
+
+        void runAll() {
+            while (size() > 0) {
+                runNext();
+            }
+        }
+    }
+}
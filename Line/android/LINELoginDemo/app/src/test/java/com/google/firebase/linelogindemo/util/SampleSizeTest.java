@@ -0,0 +1,193 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.linelogindemo.util;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The size math of {@link SampledImageRequest}, and what decoding to the target size saves.
+ * BitmapFactory needs a device, so the decode measurement uses ImageIO's source subsampling,
+ * which like inSampleSize skips pixels while decoding instead of scaling a full decode down.
+ */
+public class SampleSizeTest {
+
+    // Avatar in the profile screen, 96 dp at xxhdpi
+    private static final int TARGET_PX = 288;
+
+    private static final int ARGB_8888_BYTES = 4;
+    private static final int RGB_565_BYTES = 2;
+
+    // Typical sizes of provider profile pictures, from thumbnails to phone camera photos
+    private static final int[][] AVATAR_SIZES = {
+            {200, 200}, {640, 640}, {1080, 1080}, {1536, 2048}, {3024, 4032}};
+
+    @Test
+    public void keepsImagesThatAreNotLargerThanTheTarget() {
+        assertEquals(1, SampleSize.compute(200, 200, TARGET_PX, TARGET_PX));
+        assertEquals(1, SampleSize.compute(288, 288, TARGET_PX, TARGET_PX));
+        assertEquals(1, SampleSize.compute(575, 575, TARGET_PX, TARGET_PX));
+    }
+
+    @Test
+    public void picksLargestPowerOfTwoThatCoversTheTarget() {
+        assertEquals(2, SampleSize.compute(576, 576, TARGET_PX, TARGET_PX));
+        assertEquals(2, SampleSize.compute(1080, 1080, TARGET_PX, TARGET_PX));
+        assertEquals(4, SampleSize.compute(1152, 1152, TARGET_PX, TARGET_PX));
+        assertEquals(8, SampleSize.compute(3024, 4032, TARGET_PX, TARGET_PX));
+    }
+
+    @Test
+    public void shorterSideLimitsTheSampleSize() {
+        // A wide banner still has to cover the target's height
+        assertEquals(2, SampleSize.compute(4000, 600, TARGET_PX, TARGET_PX));
+        assertEquals(2, SampleSize.compute(600, 4000, TARGET_PX, TARGET_PX));
+    }
+
+    @Test
+    public void dimensionWithoutTargetFollowsTheOther() {
+        assertEquals(4, SampleSize.compute(1200, 300, TARGET_PX, 0));
+        assertEquals(1, SampleSize.compute(1200, 300, 0, TARGET_PX));
+        assertEquals(1, SampleSize.compute(4000, 4000, 0, 0));
+    }
+
+    @Test
+    public void sampledSizeRoundsUpLikeBitmapFactory() {
+        assertEquals(540, SampleSize.sampled(1080, 2));
+        assertEquals(379, SampleSize.sampled(3025, 8));
+        assertEquals(1, SampleSize.sampled(1, 8));
+    }
+
+    @Test
+    public void coverScaleKeepsAspectRatio() {
+        assertEquals(1f, SampleSize.coverScale(200, 200, TARGET_PX, TARGET_PX), 0f);
+        assertEquals(0.5f, SampleSize.coverScale(576, 576, TARGET_PX, TARGET_PX), 0f);
+        // The shorter side just covers the target, the longer one overhangs it
+        float scale = SampleSize.coverScale(378, 504, TARGET_PX, TARGET_PX);
+        assertEquals(TARGET_PX, SampleSize.scaled(378, scale));
+        assertEquals(384, SampleSize.scaled(504, scale));
+        assertEquals(1f, SampleSize.coverScale(4000, 4000, 0, TARGET_PX), 0f);
+        assertEquals(1, SampleSize.scaled(1, 0.1f));
+    }
+
+    @Test
+    public void sampledDecodeNeedsFarLessMemory() {
+        System.out.println("Bitmap memory for a " + TARGET_PX + " px avatar:");
+        System.out.println("    image      full ARGB_8888   sampled RGB_565   inSampleSize   saved");
+        for (int[] size : AVATAR_SIZES) {
+            int sampleSize = SampleSize.compute(size[0], size[1], TARGET_PX, TARGET_PX);
+            long full = (long) size[0] * size[1] * ARGB_8888_BYTES;
+            long sampled = (long) SampleSize.sampled(size[0], sampleSize)
+                    * SampleSize.sampled(size[1], sampleSize) * RGB_565_BYTES;
+            System.out.printf("%5dx%-5d %12d KB %14d KB %12d %8.1fx%n",
+                    size[0], size[1], full / 1024, sampled / 1024, sampleSize, (double) full / sampled);
+
+            // RGB_565 alone halves the bitmap, each sampling step quarters it
+            assertEquals(full / 2 / ((long) sampleSize * sampleSize), sampled, sampled / 100);
+        }
+    }
+
+    @Test
+    public void subsampledDecodeAllocatesLess() throws IOException {
+        byte[] jpeg = syntheticJpeg(3024, 4032);
+        int sampleSize = SampleSize.compute(3024, 4032, TARGET_PX, TARGET_PX);
+        // Let the decoder load and warm up before anything is measured
+        for (int i = 0; i < 3; i++) {
+            decode(jpeg, 1);
+            decode(jpeg, sampleSize);
+        }
+
+        Measurement full = measure(jpeg, 1);
+        Measurement sampled = measure(jpeg, sampleSize);
+        System.out.printf("Decoding 3024x4032: full %d KB in %.1f ms, inSampleSize=%d %d KB in %.1f ms%n",
+                full.mAllocatedBytes / 1024, full.mNanos / 1e6,
+                sampleSize, sampled.mAllocatedBytes / 1024, sampled.mNanos / 1e6);
+
+        // Times depend on the machine, only the allocations are checked
+        assertTrue("Subsampled decode allocated " + sampled.mAllocatedBytes + " bytes",
+                sampled.mAllocatedBytes * 10 < full.mAllocatedBytes);
+    }
+
+    private static byte[] syntheticJpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, Color.BLUE));
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.WHITE);
+        graphics.fillOval(width / 4, height / 4, width / 2, height / 2);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg, int sampleSize) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg));
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+            in.close();
+        }
+    }
+
+    private static Measurement measure(byte[] jpeg, int sampleSize) throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        BufferedImage image = decode(jpeg, sampleSize);
+        Measurement measurement = new Measurement(System.nanoTime() - start,
+                threads.getThreadAllocatedBytes(thread) - allocatedBefore);
+        assertEquals(SampleSize.sampled(3024, sampleSize), image.getWidth());
+        return measurement;
+    }
+
+    private static class Measurement {
+
+        private final long mNanos;
+        private final long mAllocatedBytes;
+
+        Measurement(long nanos, long allocatedBytes) {
+            mNanos = nanos;
+            mAllocatedBytes = allocatedBytes;
+        }
+    }
+}
@@ -19,6 +19,7 @@
 const rp = require('request-promise');
 const express = require('express');
 const bodyParser = require('body-parser');
+const cbor = require('cbor');
 
 // Firebase Setup
 const admin = require('firebase-admin');
@@ -84,9 +85,11 @@ function getFirebaseUser(lineMid, lineAccessToken) {
  *  1. Verify with LINE server that a LINE access token is valid
  *  2. Check if a Firebase user corresponding to the LINE user already existed.
  *  If not, fetch user profile from LINE and generate a corresponding Firebase user.
- *  3. Return a custom auth token allowing signing-in the Firebase account.
+ *  3. Return a custom auth token allowing signing-in the Firebase account, together with the
+ *  Firebase user record so the app can show the profile while it signs in.
  *
- * @returns {Promise<string>} The Firebase custom auth token in a promise.
+ * @returns {Promise<{token: string, userRecord: UserRecord}>} The Firebase custom auth token and
+ *  user record in a promise.
  */
 function verifyLineToken(lineAccessToken) {
   // Send request to LINE server for access token verification
@@ -110,18 +113,43 @@ function verifyLineToken(lineAccessToken) {
     })
     .then(userRecord => {
       // STEP 3: Generate Firebase Custom Auth Token
-      const tokenPromise = admin.auth().createCustomToken(userRecord.uid);
-      tokenPromise.then(token => {
+      return admin.auth().createCustomToken(userRecord.uid).then(token => {
         console.log('Created Custom token for UID "', userRecord.uid, '" Token:', token);
+        return {token: token, userRecord: userRecord};
       });
-      
-      return tokenPromise;
     });
 }
 
+// Content type of CBOR bodies. Clients that prefer CBOR list it in their Accept header and,
+// once they have received a CBOR response, also send CBOR request bodies.
+const CBOR_TYPE = 'application/cbor';
+
 // ExpressJS setup
 const app = express();
 app.use(bodyParser.json());
+app.use(bodyParser.raw({type: CBOR_TYPE}));
+app.use((req, res, next) => {
+  if (!req.is(CBOR_TYPE) || !Buffer.isBuffer(req.body)) {
+    return next();
+  }
+  try {
+    req.body = cbor.decodeFirstSync(req.body);
+  } catch (err) {
+    return sendResponse(req, res, 400, {error_message: 'Malformed CBOR request body'});
+  }
+  next();
+});
+
+/**
+ * Send body as CBOR if the client prefers it, as JSON otherwise.
+ */
+function sendResponse(req, res, status, body) {
+  res.vary('Accept');
+  if (req.accepts(['application/json', CBOR_TYPE]) === CBOR_TYPE) {
+    return res.status(status).type(CBOR_TYPE).send(cbor.encode(body));
+  }
+  return res.status(status).send(body);
+}
 
 // Verify LINE token and exchange for Firebase Custom Auth token
 app.post('/verifyToken', (req, res) => {
@@ -129,25 +157,32 @@ app.post('/verifyToken', (req, res) => {
     const ret = {
       error_message: 'Access Token not found'
     };
-    return res.status(400).send(ret);
+    return sendResponse(req, res, 400, ret);
   }
 
   const reqToken = req.body.token;
 
   // Verify LINE access token with LINE server then generate Firebase Custom Auth token
   verifyLineToken(reqToken)
-    .then(customAuthToken => {
+    .then(result => {
       const ret = {
-        firebase_token: customAuthToken
+        firebase_token: result.token
       };
-      return res.status(200).send(ret);   
+      // Optional profile fields, the app fetches the photo while it signs in to Firebase
+      if (result.userRecord.displayName) {
+        ret.display_name = result.userRecord.displayName;
+      }
+      if (result.userRecord.photoURL) {
+        ret.photo_url = result.userRecord.photoURL;
+      }
+      return sendResponse(req, res, 200, ret);
     })
     .catch(err => {
       // If LINE access token verification failed, return error response to client
       const ret = {
         error_message: 'Authentication error: Cannot verify access token.'
       };
-      return res.status(403).send(ret);
+      return sendResponse(req, res, 403, ret);
     });
 
 });
@@ -162,4 +197,7 @@ const server = app.listen(process.env.PORT || '8080', () => {
   console.log('App listening on port %s', server.address().port);
   console.log('Press Ctrl+C to quit.');
 });
+// Apps open a connection when the user starts logging in and use it for /verifyToken once
+// the LINE login is done, keep idle connections around longer than Node's default 5 seconds.
+server.keepAliveTimeout = 65000;
 // [END app]
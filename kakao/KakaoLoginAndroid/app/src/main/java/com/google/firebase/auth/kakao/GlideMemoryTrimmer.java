@@ -0,0 +1,67 @@
+package com.google.firebase.auth.kakao;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.MemoryCategory;
+import com.google.firebase.customauth.client.MemoryTrimmer;
+
+/**
+ * {@link MemoryTrimmer} for Glide:
+ *
+ * <ul>
+ *   <li>Glide trims its memory cache and bitmap pool for the level. Glide 3 doesn't do that on
+ *       its own.</li>
+ *   <li>Once the UI is hidden Glide's budget drops to {@link MemoryCategory#LOW}, and it is
+ *       cleared completely when the process is next in line to be killed.</li>
+ * </ul>
+ *
+ * Glide's budget goes back to normal when an Activity starts again. What each trim released is
+ * logged, as far as Glide exposes it.
+ */
+public class GlideMemoryTrimmer extends MemoryTrimmer {
+
+    private static final String TAG = GlideMemoryTrimmer.class.getName();
+
+    private final Context context;
+    // Only lowered until restoreImages()
+    private MemoryCategory memoryCategory = MemoryCategory.NORMAL;
+
+    public GlideMemoryTrimmer(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    protected String trimImages(int level) {
+        Glide glide = Glide.get(context);
+        int poolBytesBefore = glide.getBitmapPool().getMaxSize();
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            glide.clearMemory();
+        } else {
+            glide.trimMemory(level);
+        }
+        if (level >= TRIM_MEMORY_UI_HIDDEN && memoryCategory == MemoryCategory.NORMAL) {
+            memoryCategory = MemoryCategory.LOW;
+            glide.setMemoryCategory(memoryCategory);
+        }
+        int poolBytesAfter = glide.getBitmapPool().getMaxSize();
+
+        return "Glide " + (level >= TRIM_MEMORY_COMPLETE ? "cleared" : "trimmed")
+                + ", bitmap pool budget " + toKb(poolBytesBefore) + " -> " + toKb(poolBytesAfter) + " KB";
+    }
+
+    @Override
+    protected void restoreImages() {
+        if (memoryCategory == MemoryCategory.NORMAL) {
+            return;
+        }
+        memoryCategory = MemoryCategory.NORMAL;
+        Glide.get(context).setMemoryCategory(memoryCategory);
+        Log.i(TAG, "Restored Glide's memory budget");
+    }
+
+    private static int toKb(int bytes) {
+        return bytes / 1024;
+    }
+}
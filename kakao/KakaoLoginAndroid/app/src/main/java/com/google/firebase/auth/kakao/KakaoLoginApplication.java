@@ -2,8 +2,15 @@ package com.google.firebase.auth.kakao;
 
 import android.app.Application;
 import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
 
 import com.google.firebase.FirebaseApp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.customauth.client.LogcatLoginMetricsListener;
+import com.google.firebase.customauth.client.MemoryTrimmer;
+import com.google.firebase.customauth.client.ProfileSnapshotStore;
+import com.google.firebase.customauth.metrics.LoginMetrics;
 import com.kakao.auth.IApplicationConfig;
 import com.kakao.auth.KakaoAdapter;
 import com.kakao.auth.KakaoSDK;
@@ -14,23 +21,78 @@ import com.kakao.auth.KakaoSDK;
  */
 
 public class KakaoLoginApplication extends Application {
+    private static final Object kakaoSdkLock = new Object();
+    private static volatile boolean kakaoSdkInitialized;
+
     private static KakaoLoginApplication self;
     @Override
     public void onCreate() {
+        long applicationStart = StartupTimings.start();
         super.onCreate();
         self = this;
+
+        LoginMetrics.getInstance().addListener(new LogcatLoginMetricsListener());
+
+        MemoryTrimmer memoryTrimmer = new GlideMemoryTrimmer(this);
+        registerComponentCallbacks(memoryTrimmer);
+        registerActivityLifecycleCallbacks(memoryTrimmer);
+
+        // MainActivity reads the current Firebase user early, so Firebase stays on the
+        // main thread. It is usually initialized by FirebaseInitProvider already.
+        long firebaseStart = StartupTimings.start();
         FirebaseApp.initializeApp(this);
-        KakaoSDK.init(new KakaoAdapter() {
-            @Override
-            public IApplicationConfig getApplicationConfig() {
-                return new IApplicationConfig() {
-                    @Override
-                    public Context getApplicationContext() {
-                        return self;
-                    }
-                };
-            }
-        });
+        StartupTimings.record("firebase", firebaseStart);
+
+        // Signed in users don't need Kakao SDK until they log out, everyone else will see the
+        // Kakao LoginButton soon, so get the SDK ready in the background. A profile snapshot
+        // means the user was signed in last time, then reading FirebaseAuth can wait.
+        if (!ProfileSnapshotStore.exists(this) && FirebaseAuth.getInstance().getCurrentUser() == null) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ensureKakaoSdk();
+                }
+            }, "kakao-sdk-init").start();
+        } else {
+            // Not needed for the first frame, schedule the background session refresh once idle
+            Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                @Override
+                public boolean queueIdle() {
+                    SessionRefresher.schedule(KakaoLoginApplication.this);
+                    return false;
+                }
+            });
+        }
+        StartupTimings.record("application", applicationStart);
+    }
 
+    /**
+     * Initialize Kakao SDK if it hasn't been yet. Call this before using Session, LoginButton or
+     * UserManagement. Safe to call from any thread, callers wait while another thread is
+     * initializing the SDK.
+     */
+    public static void ensureKakaoSdk() {
+        if (kakaoSdkInitialized) {
+            return;
+        }
+        synchronized (kakaoSdkLock) {
+            if (kakaoSdkInitialized) {
+                return;
+            }
+            long kakaoStart = StartupTimings.start();
+            KakaoSDK.init(new KakaoAdapter() {
+                @Override
+                public IApplicationConfig getApplicationConfig() {
+                    return new IApplicationConfig() {
+                        @Override
+                        public Context getApplicationContext() {
+                            return self;
+                        }
+                    };
+                }
+            });
+            StartupTimings.record("kakaoSdk", kakaoStart);
+            kakaoSdkInitialized = true;
+        }
     }
 }
@@ -1,33 +1,42 @@
 package com.google.firebase.auth.kakao;
 
 import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.databinding.DataBindingUtil;
 import android.os.Bundle;
 import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
-import android.support.v7.widget.Toolbar;
 import android.util.Log;
+import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 
-import com.android.volley.Request;
-import com.android.volley.RequestQueue;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.Volley;
+import com.bumptech.glide.BitmapRequestBuilder;
 import com.bumptech.glide.Glide;
-import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
-import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.AuthResult;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.auth.kakao.databinding.ActivityMainBinding;
+import com.google.firebase.customauth.client.AuthNetwork;
+import com.google.firebase.customauth.client.LoginPipeline;
+import com.google.firebase.customauth.client.LoginSingleFlight;
+import com.google.firebase.customauth.client.LoginStageRecorder;
+import com.google.firebase.customauth.client.ProfileSnapshotStore;
+import com.google.firebase.customauth.client.TokenExchangeClient;
+import com.google.firebase.customauth.exchange.VerifyTokenResponse;
+import com.google.firebase.customauth.metrics.LoginStage;
+import com.google.firebase.customauth.metrics.RequestTrace;
+import com.google.firebase.customauth.profile.ProfileSnapshot;
+import com.google.firebase.customauth.metrics.StageTimer;
 import com.kakao.auth.ISessionCallback;
 import com.kakao.auth.Session;
 import com.kakao.usermgmt.LoginButton;
@@ -38,14 +47,14 @@ import com.kakao.util.exception.KakaoException;
 import android.os.Handler;
 import android.widget.Toast;
 
-import org.json.JSONObject;
-
-import java.util.HashMap;
-import java.util.Map;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.concurrent.Callable;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = MainActivity.class.getName();
+    static final String PROVIDER_ID = "kakao";
 
     LinearLayout loggedInView;
     LoginButton loginButton;
@@ -54,26 +63,53 @@ public class MainActivity extends AppCompatActivity {
 
     ActivityMainBinding binding;
 
+    private final ISessionCallback sessionCallback = new KakaoSessionCallback();
+    private Task<AuthResult> observedLogin;
+    private boolean sessionCallbackAdded;
+    // Kakao login runs between the LoginButton tap and the session callback
+    private StageTimer providerLoginTimer;
+    // Profile shown last time, until it is checked against Firebase
+    private ProfileSnapshot snapshot;
+    private boolean snapshotVerified;
+    private boolean coldStart;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long onCreateStart = StartupTimings.start();
         super.onCreate(savedInstanceState);
 
-        setContentView(R.layout.activity_main);
-        Toolbar toolBar = (Toolbar) findViewById(R.id.toolbar);
-        setSupportActionBar(toolBar);
-
+        // Inflate once, the binding holds every view with an id
         binding = DataBindingUtil.setContentView(this, R.layout.activity_main);
-        loggedInView = (LinearLayout) findViewById(R.id.logged_in_view);
-        loginButton = (LoginButton) findViewById(R.id.login_button);
-        logoutButton = (Button) findViewById(R.id.logout_button);
-        imageView = (ImageView) findViewById(R.id.profile_image_view);
+        setSupportActionBar(binding.toolbar);
+        loggedInView = binding.loggedInView;
+        loginButton = binding.loginButton;
+        logoutButton = binding.logoutButton;
+        imageView = binding.profileImageView;
+
+        // LoginButton handles its own clicks, so watch the touch that triggers them instead
+        loginButton.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View v, MotionEvent event) {
+                if (event.getAction() == MotionEvent.ACTION_DOWN) {
+                    // The exchange follows right after Kakao login, connect while the user logs in
+                    TokenExchangeClient.getInstance(MainActivity.this).prewarm();
+                } else if (event.getAction() == MotionEvent.ACTION_UP) {
+                    providerLoginTimer = LoginStageRecorder.start(PROVIDER_ID, LoginStage.PROVIDER_LOGIN);
+                }
+                return false;
+            }
+        });
 
         logoutButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                KakaoLoginApplication.ensureKakaoSdk();
                 UserManagement.requestLogout(new LogoutResponseCallback() {
                     @Override
                     public void onCompleteLogout() {
+                        SessionRefresher.cancel(MainActivity.this);
+                        ProfileSnapshotStore.clear(MainActivity.this);
+                        TokenExchangeClient.getInstance(MainActivity.this).clearCache();
                         FirebaseAuth.getInstance().signOut();
 
                         Handler handler = new Handler(Looper.getMainLooper());
@@ -88,13 +124,145 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        Session.getCurrentSession().addCallback(new KakaoSessionCallback());
+        coldStart = savedInstanceState == null;
+        snapshot = ProfileSnapshotStore.load(this);
+        if (snapshot == null) {
+            prepareLogin();
+        }
+
+        StartupTimings.record("mainActivity.onCreate", onCreateStart);
+        StartupTimings.recordFirstFrame(binding.getRoot(), "mainActivity.firstFrame", onCreateStart);
+    }
+
+    private void prepareLogin() {
+        if (coldStart) {
+            // Returning users still logged in to Kakao are signed in again without any UI,
+            // onStart() picks the login up
+            SessionRefresher.signInSilently(this);
+        }
+    }
+
+    /**
+     * Show the profile of the snapshot before Firebase is read, the logged in view looks the
+     * same as it did when the app was last used.
+     */
+    private void showSnapshot() {
+        // Bind the empty user first, so a pending binding doesn't overwrite the snapshot
+        binding.executePendingBindings();
+        binding.displayNameText.setText(snapshot.getDisplayName());
+        imageView.setImageBitmap(ProfileSnapshotStore.getThumbnail(snapshot));
+        loginButton.setVisibility(View.INVISIBLE);
+        loggedInView.setVisibility(View.VISIBLE);
+        logoutButton.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Replace the snapshot shown by {@link #showSnapshot()} with the real state.
+     */
+    private void verifySnapshot() {
+        snapshotVerified = true;
+        FirebaseUser currentUser = FirebaseAuth.getInstance().getCurrentUser();
+        if (currentUser == null || !currentUser.getUid().equals(snapshot.getUid())) {
+            ProfileSnapshotStore.clear(this);
+            snapshot = null;
+        }
+        updateUI();
+        prepareLogin();
+
+        // onStart() ran before the silent login was started
+        Task<AuthResult> silentLogin = SessionRefresher.getSilentLogin();
+        if (silentLogin != null && silentLogin == LoginSingleFlight.peek(PROVIDER_ID)) {
+            observeSilentLogin(silentLogin);
+        }
+    }
+
+    /**
+     * Kakao SDK is initialized lazily, only touch Session once the login UI is needed.
+     */
+    private void addSessionCallback() {
+        if (sessionCallbackAdded) {
+            return;
+        }
+        KakaoLoginApplication.ensureKakaoSdk();
+        Session.getCurrentSession().addCallback(sessionCallback);
+        sessionCallbackAdded = true;
     }
 
     @Override
     protected void onStart() {
         super.onStart();
-        updateUI();
+        if (snapshot != null && !snapshotVerified) {
+            // Signed in last time: show that profile right away and check it against Firebase
+            // once the first frame is drawn
+            showSnapshot();
+            Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                @Override
+                public boolean queueIdle() {
+                    if (!isFinishing() && !snapshotVerified) {
+                        verifySnapshot();
+                    }
+                    return false;
+                }
+            });
+        } else {
+            updateUI();
+        }
+
+        // Re-attach to a login that was started before this Activity was recreated or stopped
+        Task<AuthResult> pendingLogin = LoginSingleFlight.peek(PROVIDER_ID);
+        if (pendingLogin != null && pendingLogin == SessionRefresher.getSilentLogin()) {
+            observeSilentLogin(pendingLogin);
+        } else if (pendingLogin != null) {
+            observeLogin(pendingLogin);
+        }
+    }
+
+    /**
+     * Show the logged in view if the silent login succeeds. A failed silent login is not shown,
+     * the user just logs in with the LoginButton as usual.
+     */
+    private void observeSilentLogin(Task<AuthResult> login) {
+        // The listener is removed automatically when this Activity stops
+        login.addOnSuccessListener(this, new OnSuccessListener<AuthResult>() {
+            @Override
+            public void onSuccess(AuthResult result) {
+                updateUI();
+            }
+        });
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Activity-scoped listeners are dropped on stop, so observe again in onStart()
+        observedLogin = null;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Otherwise every recreated Activity adds one more callback to the process-wide session
+        if (sessionCallbackAdded) {
+            Session.getCurrentSession().removeCallback(sessionCallback);
+        }
+    }
+
+    /**
+     * Adds the recent requests and the auth queue gauges to
+     * {@code adb shell dumpsys activity com.google.firebase.auth.kakao/.MainActivity}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        AuthNetwork authNetwork = AuthNetwork.getInstanceIfCreated();
+        if (authNetwork != null) {
+            writer.println(prefix + "Queues:");
+            writer.println(prefix + "  " + authNetwork.getQueue());
+        }
+        writer.println(prefix + "Request trace:");
+        for (String line : RequestTrace.getInstance().dump().split("\n")) {
+            writer.println(prefix + "  " + line);
+        }
     }
 
     /**
@@ -105,70 +273,74 @@ public class MainActivity extends AppCompatActivity {
         if (currentUser != null) {
             binding.setCurrentUser(currentUser);
             if (currentUser.getPhotoUrl() != null) {
-                Glide.with(this)
-                        .load(currentUser.getPhotoUrl())
+                String photoUrl = currentUser.getPhotoUrl().toString();
+                Bitmap thumbnail = snapshot != null && photoUrl.equals(snapshot.getPhotoUrl())
+                        ? ProfileSnapshotStore.getThumbnail(snapshot) : null;
+                // Keep showing the snapshot's thumbnail of the same photo while Glide loads it
+                loadProfilePhoto(photoUrl)
+                        .placeholder(thumbnail != null ? new BitmapDrawable(getResources(), thumbnail) : null)
                         .into(imageView);
             }
+            ProfileSnapshotStore.update(this, currentUser, new ProfilePhotoLoader());
             loginButton.setVisibility(View.INVISIBLE);
             loggedInView.setVisibility(View.VISIBLE);
             logoutButton.setVisibility(View.VISIBLE);
         } else {
+            addSessionCallback();
+            TokenExchangeClient.getInstance(this).prewarm();
             loginButton.setVisibility(View.VISIBLE);
             loggedInView.setVisibility(View.INVISIBLE);
             logoutButton.setVisibility(View.INVISIBLE);
         }
     }
 
+    /**
+     * Load of the profile photo exactly as {@link ProfilePhotoLoader} loads it, so
+     * Glide runs both as one request and the photo is downloaded only once. Glide.with(this)
+     * pauses the load while this Activity is stopped and drops it when it is destroyed.
+     */
+    private BitmapRequestBuilder<String, Bitmap> loadProfilePhoto(String photoUrl) {
+        int size = getResources().getDimensionPixelSize(R.dimen.profile_image_size);
+        return Glide.with(this)
+                .load(photoUrl)
+                .asBitmap()
+                .centerCrop()
+                .override(size, size);
+    }
+
     /**
      * OnActivityResult() should be overridden for Kakao Login because Kakao Login uses startActivityForResult().
      */
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
+        addSessionCallback();
+        // The Kakao session is about to open, the exchange comes right after
+        TokenExchangeClient.getInstance(this).prewarm();
         Session.getCurrentSession().handleActivityResult(requestCode, resultCode, data);
     }
 
-    /**
-     *
-     * @param kakaoAccessToken Access token retrieved after successful Kakao Login
-     * @return Task object that will call validation server and retrieve firebase token
-     */
-    private Task<String> getFirebaseJwt(final String kakaoAccessToken) {
-        final TaskCompletionSource<String> source = new TaskCompletionSource<>();
-
-        RequestQueue queue = Volley.newRequestQueue(this);
-        String url = getResources().getString(R.string.validation_server_domain) + "/verifyToken";
-        HashMap<String, String> validationObject = new HashMap<>();
-        validationObject.put("token", kakaoAccessToken);
+    private void observeLogin(Task<AuthResult> login) {
+        if (login == observedLogin) {
+            return;
+        }
+        observedLogin = login;
 
-        JsonObjectRequest request = new JsonObjectRequest(Request.Method.POST, url, new JSONObject(validationObject), new Response.Listener<JSONObject>() {
+        // The listener is removed automatically when this Activity stops
+        login.addOnCompleteListener(this, new OnCompleteListener<AuthResult>() {
             @Override
-            public void onResponse(JSONObject response) {
-                try {
-                    String firebaseToken = response.getString("firebase_token");
-                    source.setResult(firebaseToken);
-                } catch (Exception e) {
-                    source.setException(e);
+            public void onComplete(@NonNull Task<AuthResult> task) {
+                observedLogin = null;
+                if (task.isSuccessful()) {
+                    updateUI();
+                } else {
+                    Toast.makeText(getApplicationContext(), "Failed to create a Firebase user.", Toast.LENGTH_LONG).show();
+                    if (task.getException() != null) {
+                        Log.e(TAG, task.getException().toString());
+                    }
                 }
-
             }
-        }, new Response.ErrorListener() {
-            @Override
-            public void onErrorResponse(VolleyError error) {
-                Log.e(TAG, error.toString());
-                source.setException(error);
-            }
-        }) {
-            @Override
-            protected Map<String, String> getParams() {
-                Map<String, String> params = new HashMap<>();
-                params.put("token", kakaoAccessToken);
-                return params;
-            }
-        };
-
-        queue.add(request);
-        return source.getTask();
+        });
     }
 
     /**
@@ -177,32 +349,60 @@ public class MainActivity extends AppCompatActivity {
     private class KakaoSessionCallback implements ISessionCallback {
         @Override
         public void onSessionOpened() {
-            Toast.makeText(getApplicationContext(), "Successfully logged in to Kakao. Now creating or updating a Firebase User.", Toast.LENGTH_LONG).show();
-            String accessToken = Session.getCurrentSession().getAccessToken();
-            getFirebaseJwt(accessToken).continueWithTask(new Continuation<String, Task<AuthResult>>() {
-                @Override
-                public Task<AuthResult> then(@NonNull Task<String> task) throws Exception {
-                    String firebaseToken = task.getResult();
-                    FirebaseAuth auth = FirebaseAuth.getInstance();
-                    return auth.signInWithCustomToken(firebaseToken);
-                }
-            }).addOnCompleteListener(new OnCompleteListener<AuthResult>() {
+            if (providerLoginTimer != null) {
+                providerLoginTimer.success();
+                providerLoginTimer = null;
+            }
+
+            // The session callback may fire more than once, only the first call starts a login
+            Task<AuthResult> login = LoginSingleFlight.run(PROVIDER_ID, new Callable<Task<AuthResult>>() {
                 @Override
-                public void onComplete(@NonNull Task<AuthResult> task) {
-                    if (task.isSuccessful()) {
-                        updateUI();
-                    } else {
-                        Toast.makeText(getApplicationContext(), "Failed to create a Firebase user.", Toast.LENGTH_LONG).show();
-                        if (task.getException() != null) {
-                            Log.e(TAG, task.getException().toString());
+                public Task<AuthResult> call() throws Exception {
+                    Toast.makeText(getApplicationContext(), "Successfully logged in to Kakao. Now creating or updating a Firebase User.", Toast.LENGTH_LONG).show();
+                    // Kakao login itself is timed by providerLoginTimer, the session is open already
+                    Task<AuthResult> signIn = new LoginPipeline.Builder(MainActivity.this, PROVIDER_ID)
+                            .setProviderLogin(new LoginPipeline.Stage<Void, String>(null) {
+                                @Override
+                                public boolean runsOnMainThread() {
+                                    // Session is updated by Kakao SDK on the main thread
+                                    return true;
+                                }
+
+                                @Override
+                                public Task<String> run(Void input) {
+                                    return Tasks.forResult(Session.getCurrentSession().getAccessToken());
+                                }
+                            })
+                            .addOnExchangedListener(new OnSuccessListener<VerifyTokenResponse>() {
+                                @Override
+                                public void onSuccess(VerifyTokenResponse response) {
+                                    if (response.getPhotoUrl() != null) {
+                                        // Start loading the photo while Firebase signs in, the logged in
+                                        // view is still hidden so nothing shows up early
+                                        loadProfilePhoto(response.getPhotoUrl()).into(imageView);
+                                    }
+                                }
+                            })
+                            .build()
+                            .run();
+                    signIn.addOnSuccessListener(new OnSuccessListener<AuthResult>() {
+                        @Override
+                        public void onSuccess(AuthResult result) {
+                            SessionRefresher.schedule(MainActivity.this);
                         }
-                    }
+                    });
+                    return signIn;
                 }
             });
+            observeLogin(login);
         }
 
         @Override
         public void onSessionOpenFailed(KakaoException exception) {
+            if (providerLoginTimer != null) {
+                providerLoginTimer.failure(exception);
+                providerLoginTimer = null;
+            }
             if (exception != null) {
                 Log.e(TAG, exception.toString());
             }
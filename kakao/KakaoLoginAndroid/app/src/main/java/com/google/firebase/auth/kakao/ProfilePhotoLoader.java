@@ -0,0 +1,38 @@
+package com.google.firebase.auth.kakao;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+import com.google.firebase.customauth.client.ProfileSnapshotStore;
+
+/**
+ * Loads the profile photo for {@link ProfileSnapshotStore} through Glide, the same way
+ * MainActivity loads it, so Glide runs both as one request and usually serves it from its cache.
+ */
+public final class ProfilePhotoLoader implements ProfileSnapshotStore.PhotoLoader {
+
+    @Override
+    public void load(Context context, String photoUrl, final ProfileSnapshotStore.PhotoCallback callback) {
+        int size = context.getResources().getDimensionPixelSize(R.dimen.profile_image_size);
+        Glide.with(context)
+                .load(photoUrl)
+                .asBitmap()
+                .centerCrop()
+                .into(new SimpleTarget<Bitmap>(size, size) {
+                    @Override
+                    public void onResourceReady(Bitmap bitmap, GlideAnimation<? super Bitmap> animation) {
+                        // Glide may reuse bitmap once this returns, the callback copies it first
+                        callback.onPhotoLoaded(bitmap);
+                    }
+
+                    @Override
+                    public void onLoadFailed(Exception e, Drawable errorDrawable) {
+                        callback.onPhotoFailed();
+                    }
+                });
+    }
+}
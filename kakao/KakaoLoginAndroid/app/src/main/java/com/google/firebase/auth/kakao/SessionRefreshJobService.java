@@ -0,0 +1,42 @@
+package com.google.firebase.auth.kakao;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+/**
+ * Runs {@link SessionRefresher#refresh(android.content.Context)} when JobScheduler decides it is
+ * a good time, see {@link SessionRefresher#schedule(android.content.Context)}.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SessionRefreshJobService extends JobService {
+
+    private static final String TAG = SessionRefreshJobService.class.getName();
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        SessionRefresher.refresh(this).addOnCompleteListener(new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (!task.isSuccessful()) {
+                    Log.w(TAG, "Session refresh failed, retrying later.", task.getException());
+                }
+                jobFinished(params, !task.isSuccessful());
+            }
+        });
+        // The refresh continues asynchronously
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Lost the network, the running refresh finishes on its own, try again next time
+        return true;
+    }
+}
@@ -0,0 +1,249 @@
+package com.google.firebase.auth.kakao;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.AuthResult;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.customauth.client.LoginPipeline;
+import com.google.firebase.customauth.client.LoginSingleFlight;
+import com.kakao.auth.ISessionCallback;
+import com.kakao.auth.Session;
+import com.kakao.util.exception.KakaoException;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Keeps a returning user signed in without going through Kakao login again.
+ *
+ * On cold start, {@link #signInSilently(Context)} exchanges the Kakao session Kakao SDK still
+ * holds if Firebase has no current user. In the background, {@link SessionRefreshJobService}
+ * periodically reopens the Kakao session on an unmetered network, which makes Kakao SDK refresh
+ * an expired access token with its refresh token, so the session is still there to sign in
+ * with next time.
+ *
+ * Only the provider session is refreshed. Firebase refreshes its own ID token from its refresh
+ * token, which doesn't expire. A custom token is only needed to sign in and expires after an
+ * hour, so exchanging ahead of time would only warm a cache that is cold again by the next
+ * launch.
+ *
+ * Must be called on the main thread, Kakao SDK delivers session callbacks there.
+ */
+public final class SessionRefresher {
+    private static final String TAG = SessionRefresher.class.getName();
+
+    private static final int JOB_ID = 1;
+    // Kakao access tokens expire after 12 hours, refresh at least once in between
+    private static final long REFRESH_INTERVAL_MS = 6 * 60 * 60 * 1000;
+    // Lets JobScheduler batch the refresh with other work, API 24+ only
+    private static final long REFRESH_FLEX_MS = 2 * 60 * 60 * 1000;
+
+    private static Task<AuthResult> silentLogin;
+
+    private SessionRefresher() {
+    }
+
+    /**
+     * Schedule the periodic background refresh, unless it is already scheduled. JobScheduler
+     * needs API 21, older devices only get the silent sign-in on cold start.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(context);
+        }
+    }
+
+    public static void cancel(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            scheduler.cancel(JOB_ID);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID) {
+                return;
+            }
+        }
+
+        JobInfo.Builder builder = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, SessionRefreshJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            builder.setPeriodic(REFRESH_INTERVAL_MS, REFRESH_FLEX_MS);
+        } else {
+            builder.setPeriodic(REFRESH_INTERVAL_MS);
+        }
+        if (scheduler.schedule(builder.build()) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(TAG, "Failed to schedule session refresh.");
+        }
+    }
+
+    /**
+     * Sign in to Firebase with the Kakao session Kakao SDK kept from the last login, without any
+     * UI. The login goes through {@link LoginSingleFlight#runSilently(String, Callable)}, so the
+     * session callback of MainActivity joins it instead of starting another exchange, and starts
+     * its own if this one fails.
+     *
+     * @return The login Task, or null if Firebase already has a current user or there is no
+     *         Kakao session to use
+     */
+    @Nullable
+    public static Task<AuthResult> signInSilently(Context context) {
+        if (FirebaseAuth.getInstance().getCurrentUser() != null) {
+            return null;
+        }
+        KakaoLoginApplication.ensureKakaoSdk();
+        final Session session = Session.getCurrentSession();
+        if (!session.isOpened() && !session.isOpenable()) {
+            return null;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        Task<AuthResult> login = LoginSingleFlight.runSilently(MainActivity.PROVIDER_ID, new Callable<Task<AuthResult>>() {
+            @Override
+            public Task<AuthResult> call() throws Exception {
+                return new LoginPipeline.Builder(appContext, MainActivity.PROVIDER_ID)
+                        .setProviderLogin(new LoginPipeline.Stage<Void, String>(null) {
+                            @Override
+                            public boolean runsOnMainThread() {
+                                return true;
+                            }
+
+                            @Override
+                            public Task<String> run(Void input) {
+                                return openSession(session);
+                            }
+                        })
+                        .build()
+                        .run();
+            }
+        });
+        login.addOnSuccessListener(new OnSuccessListener<AuthResult>() {
+            @Override
+            public void onSuccess(AuthResult result) {
+                schedule(appContext);
+            }
+        });
+        setSilentLogin(login);
+        return login;
+    }
+
+    /**
+     * @return The login started by {@link #signInSilently(Context)}, or null if there is none
+     */
+    @Nullable
+    public static synchronized Task<AuthResult> getSilentLogin() {
+        return silentLogin;
+    }
+
+    private static synchronized void setSilentLogin(Task<AuthResult> login) {
+        silentLogin = login;
+    }
+
+    /**
+     * Run by {@link SessionRefreshJobService}. Signs in silently if Firebase has no user,
+     * otherwise reopens the Kakao session so Kakao SDK refreshes its tokens.
+     *
+     * @return Task that completes once the refresh is done
+     */
+    static Task<Void> refresh(Context context) {
+        final Context appContext = context.getApplicationContext();
+        if (LoginSingleFlight.peek(MainActivity.PROVIDER_ID) != null) {
+            // A login is in progress, it leaves a fresh session behind anyway
+            return Tasks.forResult(null);
+        }
+
+        KakaoLoginApplication.ensureKakaoSdk();
+        Session session = Session.getCurrentSession();
+        if (!session.isOpened() && !session.isOpenable()) {
+            // Logged out of Kakao, or the refresh token expired too. Only the user can log in again.
+            cancel(appContext);
+            return Tasks.forResult(null);
+        }
+
+        Task<AuthResult> login = signInSilently(appContext);
+        if (login != null) {
+            return ignoreResult(login);
+        }
+        return ignoreResult(openSession(session));
+    }
+
+    /**
+     * @return Task that fails if task fails, so the job is retried, and ignores its result otherwise
+     */
+    private static <T> Task<Void> ignoreResult(Task<T> task) {
+        return task.continueWith(new Continuation<T, Void>() {
+            @Override
+            public Void then(@NonNull Task<T> completed) throws Exception {
+                completed.getResult();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Open session from its stored tokens. Kakao SDK refreshes an expired access token on the way.
+     *
+     * @return Task that resolves to the Kakao access token once the session is open
+     */
+    private static Task<String> openSession(final Session session) {
+        if (session.isOpened()) {
+            return Tasks.forResult(session.getAccessToken());
+        }
+
+        final TaskCompletionSource<String> source = new TaskCompletionSource<>();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        ISessionCallback callback = new ISessionCallback() {
+            @Override
+            public void onSessionOpened() {
+                removeLater(this);
+                if (!source.getTask().isComplete()) {
+                    source.setResult(session.getAccessToken());
+                }
+            }
+
+            @Override
+            public void onSessionOpenFailed(KakaoException exception) {
+                removeLater(this);
+                if (!source.getTask().isComplete()) {
+                    source.setException(exception != null ? exception
+                            : new IllegalStateException("Failed to open Kakao session."));
+                }
+            }
+
+            private void removeLater(final ISessionCallback callback) {
+                // Don't modify the callback list while Kakao SDK is iterating over it
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        session.removeCallback(callback);
+                    }
+                });
+            }
+        };
+        session.addCallback(callback);
+        if (!session.checkAndImplicitOpen()) {
+            session.removeCallback(callback);
+            source.setException(new IllegalStateException("Kakao session can't be opened without the user."));
+        }
+        return source.getTask();
+    }
+}
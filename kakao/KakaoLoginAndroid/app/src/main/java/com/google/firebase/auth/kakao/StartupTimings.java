@@ -0,0 +1,60 @@
+package com.google.firebase.auth.kakao;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records how long each phase of app startup took, so changes to startup can be measured.
+ */
+public final class StartupTimings {
+    private static final String TAG = StartupTimings.class.getName();
+
+    private static final Map<String, Long> phases =
+            Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+    private StartupTimings() {
+    }
+
+    /**
+     * @return Start time to pass to {@link #record(String, long)}
+     */
+    public static long start() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    public static void record(String phase, long startTime) {
+        long duration = SystemClock.elapsedRealtime() - startTime;
+        phases.put(phase, duration);
+        Log.d(TAG, phase + " took " + duration + " ms on " + Thread.currentThread().getName());
+    }
+
+    /**
+     * Record phase once the first frame showing view is about to be drawn, e.g. with the start
+     * time of Activity.onCreate() to measure the time to the Activity's first frame.
+     */
+    public static void recordFirstFrame(final View view, final String phase, final long startTime) {
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                record(phase, startTime);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * @return Duration in milliseconds of every recorded phase, in the order they finished
+     */
+    public static Map<String, Long> snapshot() {
+        synchronized (phases) {
+            return new LinkedHashMap<>(phases);
+        }
+    }
+}
@@ -79,7 +79,7 @@ function updateOrCreateUser(userId, email, displayName, photoURL) {
  * createFirebaseToken - returns Firebase token using Firebase Admin SDK
  *
  * @param  {String} kakaoAccessToken access token from Kakao Login API
- * @return {Promise<String>}                  Firebase token in a promise
+ * @return {Promise<Object>}                  Firebase token and user record in a promise
  */
 function createFirebaseToken(kakaoAccessToken) {
   return requestMe(kakaoAccessToken).then((response) => {
@@ -101,7 +101,8 @@ function createFirebaseToken(kakaoAccessToken) {
   }).then((userRecord) => {
     const userId = userRecord.uid;
     console.log(`creating a custom firebase token based on uid ${userId}`);
-    return firebaseAdmin.auth().createCustomToken(userId, {provider: 'KAKAO'});
+    return firebaseAdmin.auth().createCustomToken(userId, {provider: 'KAKAO'})
+      .then((firebaseToken) => ({firebaseToken, userRecord}));
   });
 };
 
@@ -123,9 +124,13 @@ app.post('/verifyToken', (req, res) => {
 
   console.log(`Verifying Kakao token: ${token}`);
 
-  createFirebaseToken(token).then((firebaseToken) => {
+  createFirebaseToken(token).then(({firebaseToken, userRecord}) => {
     console.log(`Returning firebase token to user: ${firebaseToken}`);
-    res.send({firebase_token: firebaseToken});
+    const body = {firebase_token: firebaseToken};
+    // Optional profile fields, the app fetches the photo while it signs in to Firebase
+    if (userRecord.displayName) body.display_name = userRecord.displayName;
+    if (userRecord.photoURL) body.photo_url = userRecord.photoURL;
+    res.send(body);
   });
 });
 
@@ -134,3 +139,6 @@ const server = app.listen(process.env.PORT || '8000', () => {
   console.log('KakaoLoginServer for Firebase listening on port %s',
   server.address().port);
 });
+// Apps connect ahead of /verifyToken while the user logs in with Kakao, keep idle connections
+// around longer than Node's default 5 seconds.
+server.keepAliveTimeout = 65000;
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.content.Context;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+
+import com.android.volley.Network;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.NoCache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Process-wide holder of the Volley queue for calls to the validation server, so they share one
+ * set of dispatcher threads and one keep-alive connection pool instead of setting up a new
+ * network stack per login.
+ *
+ * The queue only carries auth traffic: the token exchange, its hedged requests and the prewarm
+ * GET, so an avatar download can never hold up the exchange. Unlike Volley.newRequestQueue() it
+ * has no disk cache, custom tokens must never be cached, and just enough threads for an exchange
+ * and a hedge or prewarm next to it. How busy it is can be read from {@link #getQueue()}.
+ *
+ * TLS sessions are kept in an {@link SSLSessionCache} in the app's private storage, so the
+ * first connection after a cold start resumes the session of the last run, saving a round trip
+ * and the key exchange of a full handshake. Apps that run their own queues, e.g. for images,
+ * can send them through {@link #getNetwork()} to share the connection pool and the sessions.
+ */
+public class AuthNetwork {
+
+    public static final int CONCURRENCY = 2;
+
+    private static final String TAG = AuthNetwork.class.getSimpleName();
+
+    private static final String TLS_SESSION_CACHE_DIR = "tls_sessions";
+
+    private static AuthNetwork sInstance;
+
+    private final Network mNetwork;
+    private final MeteredRequestQueue mQueue;
+
+    private AuthNetwork(Context context) {
+        // Only keep the application context around, this singleton outlives any Activity
+        Context appContext = context.getApplicationContext();
+
+        // The sessions are as good as credentials for resuming a connection: keep them out of
+        // backups, in storage only this app can read
+        SSLSessionCache sessionCache = null;
+        try {
+            sessionCache = new SSLSessionCache(
+                    new File(ContextCompat.getNoBackupFilesDir(appContext), TLS_SESSION_CACHE_DIR));
+        } catch (IOException e) {
+            // Still works, every cold start just pays for a full handshake again
+            Log.w(TAG, "Can't keep TLS sessions on disk", e);
+        }
+        mNetwork = new BasicNetwork(new HurlStack(null,
+                SSLCertificateSocketFactory.getDefault(0, sessionCache)));
+        mQueue = new MeteredRequestQueue("auth", new NoCache(), mNetwork, CONCURRENCY, CONCURRENCY);
+        mQueue.start();
+    }
+
+    public static synchronized AuthNetwork getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AuthNetwork(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return The instance if something has needed the network already, else null
+     */
+    public static synchronized AuthNetwork getInstanceIfCreated() {
+        return sInstance;
+    }
+
+    /**
+     * @return Queue for requests a login waits on
+     */
+    public MeteredRequestQueue getQueue() {
+        return mQueue;
+    }
+
+    /**
+     * @return The HTTP stack of the auth queue, with its connection pool and TLS session cache
+     */
+    public Network getNetwork() {
+        return mNetwork;
+    }
+
+    public <T> void add(Request<T> request) {
+        mQueue.add(request);
+    }
+}
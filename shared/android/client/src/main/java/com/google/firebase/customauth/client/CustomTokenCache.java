@@ -0,0 +1,239 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Caches the Firebase Custom Auth token returned for a provider access token, so logging in
+ * again with the same provider token can skip the round trip to the validation server.
+ *
+ * Entries are keyed by the SHA-256 of the provider access token and expire with the custom
+ * token's own "exp" claim. Lookups are served from memory; entries are also written to disk,
+ * encrypted with a key held in the Android Keystore. The Keystore only supports AES keys from
+ * API 23, so on older devices the cache stays in memory only.
+ */
+public class CustomTokenCache {
+
+    private static final String TAG = CustomTokenCache.class.getSimpleName();
+
+    private static final String PREFS_NAME = "custom_token_cache";
+    private static final String KEYSTORE_PROVIDER = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "custom_token_cache_key";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_TAG_LENGTH = 128;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Treat tokens as expired a little early so signInWithCustomToken doesn't race the expiry
+    private static final long EXPIRY_MARGIN_MS = 60 * 1000;
+
+    private static CustomTokenCache mInstance;
+
+    private final Map<String, Entry> mMemoryCache = new HashMap<>();
+    private final SharedPreferences mPrefs;
+    private SecretKey mKey;
+
+    private CustomTokenCache(Context context) {
+        mPrefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                mKey = getOrCreateKey();
+            } catch (Exception e) {
+                Log.w(TAG, "Keystore unavailable, custom tokens will not be persisted.", e);
+            }
+        }
+    }
+
+    public static synchronized CustomTokenCache getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new CustomTokenCache(context);
+        }
+        return mInstance;
+    }
+
+    /**
+     * @param accessToken Provider access token used for the exchange
+     * @return The cached Firebase Custom Auth token, or null if missing or expired
+     */
+    public synchronized String get(String accessToken) {
+        String key = hash(accessToken);
+        Entry entry = mMemoryCache.get(key);
+        if (entry == null) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                mMemoryCache.put(key, entry);
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            remove(key);
+            return null;
+        }
+        return entry.customToken;
+    }
+
+    public synchronized void put(String accessToken, String customToken) {
+        long expiresAt = readExpiry(customToken);
+        if (expiresAt <= 0) {
+            // Without an expiry we can't tell when the token stops being valid, so don't cache it
+            return;
+        }
+        String key = hash(accessToken);
+        mMemoryCache.put(key, new Entry(customToken, expiresAt));
+        writeToDisk(key, customToken);
+    }
+
+    public synchronized void clear() {
+        mMemoryCache.clear();
+        mPrefs.edit().clear().apply();
+    }
+
+    private void remove(String key) {
+        mMemoryCache.remove(key);
+        mPrefs.edit().remove(key).apply();
+    }
+
+    private Entry readFromDisk(String key) {
+        String stored = mPrefs.getString(key, null);
+        if (stored == null || mKey == null) {
+            return null;
+        }
+        try {
+            String customToken = decrypt(stored);
+            return new Entry(customToken, readExpiry(customToken));
+        } catch (Exception e) {
+            Log.w(TAG, "Dropping unreadable cache entry.", e);
+            mPrefs.edit().remove(key).apply();
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, String customToken) {
+        if (mKey == null) {
+            return;
+        }
+        try {
+            mPrefs.edit().putString(key, encrypt(customToken)).apply();
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to persist custom token.", e);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static SecretKey getOrCreateKey() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE_PROVIDER);
+        keyStore.load(null);
+        if (keyStore.containsAlias(KEY_ALIAS)) {
+            return ((KeyStore.SecretKeyEntry) keyStore.getEntry(KEY_ALIAS, null)).getSecretKey();
+        }
+
+        KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE_PROVIDER);
+        keyGenerator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .build());
+        return keyGenerator.generateKey();
+    }
+
+    private String encrypt(String plainText) throws Exception {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, mKey);
+        byte[] cipherText = cipher.doFinal(plainText.getBytes(UTF_8));
+        return Base64.encodeToString(cipher.getIV(), Base64.NO_WRAP) + ":"
+                + Base64.encodeToString(cipherText, Base64.NO_WRAP);
+    }
+
+    private String decrypt(String stored) throws Exception {
+        String[] parts = stored.split(":");
+        byte[] iv = Base64.decode(parts[0], Base64.NO_WRAP);
+        byte[] cipherText = Base64.decode(parts[1], Base64.NO_WRAP);
+
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, mKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        return new String(cipher.doFinal(cipherText), UTF_8);
+    }
+
+    /**
+     * Read the "exp" claim of a JWT without verifying it. The token was just returned by our own
+     * validation server, we only need to know how long we may keep it.
+     *
+     * @return Expiry time in milliseconds since epoch, or 0 if it can't be read
+     */
+    static long readExpiry(String jwt) {
+        try {
+            String[] parts = jwt.split("\\.");
+            if (parts.length < 2) {
+                return 0;
+            }
+            byte[] payload = Base64.decode(parts[1], Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+            return new JSONObject(new String(payload, UTF_8)).optLong("exp") * 1000;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static String hash(String accessToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(accessToken.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static class Entry {
+        final String customToken;
+        final long expiresAt;
+
+        Entry(String customToken, long expiresAt) {
+            this.customToken = customToken;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() + EXPIRY_MARGIN_MS >= expiresAt;
+        }
+    }
+}
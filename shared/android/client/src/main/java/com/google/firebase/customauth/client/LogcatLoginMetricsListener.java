@@ -0,0 +1,45 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.util.Log;
+
+import com.google.firebase.customauth.metrics.LatencyHistogram;
+import com.google.firebase.customauth.metrics.LoginMetrics;
+import com.google.firebase.customauth.metrics.LoginMetricsListener;
+import com.google.firebase.customauth.metrics.StageEvent;
+
+/**
+ * Logs every login stage together with the running p50/p95 of that stage.
+ */
+public class LogcatLoginMetricsListener implements LoginMetricsListener {
+
+    private static final String TAG = "LoginMetrics";
+
+    @Override
+    public void onStageCompleted(StageEvent event) {
+        LatencyHistogram histogram = LoginMetrics.getInstance()
+                .getHistogram(event.getProvider(), event.getStage(), event.getOutcome());
+        if (histogram == null) {
+            Log.d(TAG, event.toString());
+            return;
+        }
+        Log.d(TAG, event + " (n=" + histogram.getCount()
+                + ", p50<=" + histogram.getPercentileMs(50) + " ms"
+                + ", p95<=" + histogram.getPercentileMs(95) + " ms)");
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.AuthResult;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.customauth.exchange.VerifyTokenResponse;
+import com.google.firebase.customauth.metrics.LoginStage;
+import com.google.firebase.customauth.metrics.StageTimer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the three steps of a login: provider login, token exchange and Firebase sign-in.
+ *
+ * Each provider only supplies its login {@link Stage}; exchange and sign-in are the same for
+ * every provider and can be replaced through the {@link Builder}. Stages run on a small shared
+ * background pool unless they say they need the main thread, so parsing, caching and the
+ * Firebase calls stay off it. Listeners added to the returned Task, e.g. by the UI, still run
+ * on the main thread as usual.
+ */
+public class LoginPipeline {
+
+    private static final int POOL_SIZE = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "login-" + mCount.incrementAndGet());
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                }
+            });
+
+    static {
+        // Logins are rare, don't keep the threads around in between
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final Executor sMainExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            sMainHandler.post(command);
+        }
+    };
+
+    /**
+     * One step of the login.
+     *
+     * @param <I> Result of the previous step
+     * @param <O> Result of this step
+     */
+    public abstract static class Stage<I, O> {
+
+        private final LoginStage mMetricsStage;
+
+        /**
+         * @param metricsStage Stage to record the duration under, or null to not record it,
+         *                     e.g. because the caller already timed it
+         */
+        protected Stage(@Nullable LoginStage metricsStage) {
+            mMetricsStage = metricsStage;
+        }
+
+        @Nullable
+        public LoginStage getMetricsStage() {
+            return mMetricsStage;
+        }
+
+        /**
+         * @return True if the stage touches code that is not safe to call off the main thread
+         */
+        public boolean runsOnMainThread() {
+            return false;
+        }
+
+        public abstract Task<O> run(I input) throws Exception;
+    }
+
+    private final String mProvider;
+    private final Stage<Void, String> mProviderLogin;
+    private final Stage<String, VerifyTokenResponse> mExchange;
+    private final Stage<VerifyTokenResponse, AuthResult> mSignIn;
+    private final List<OnSuccessListener<VerifyTokenResponse>> mExchangeListeners;
+
+    private LoginPipeline(Builder builder) {
+        mProvider = builder.mProvider;
+        mProviderLogin = builder.mProviderLogin;
+        mExchange = builder.mExchange;
+        mSignIn = builder.mSignIn;
+        mExchangeListeners = new ArrayList<>(builder.mExchangeListeners);
+    }
+
+    /**
+     * @return The shared pool stages run on. Use it for other login work that doesn't need
+     *         the main thread.
+     */
+    public static Executor getExecutor() {
+        return sExecutor;
+    }
+
+    /**
+     * Start the login.
+     *
+     * @return Task that resolves once Firebase is signed in, or fails with the error of the
+     *         first stage that failed
+     */
+    public Task<AuthResult> run() {
+        Task<String> accessToken = runStage(mProviderLogin, Tasks.<Void>forResult(null));
+        Task<VerifyTokenResponse> exchanged = runStage(mExchange, accessToken);
+        for (OnSuccessListener<VerifyTokenResponse> listener : mExchangeListeners) {
+            exchanged.addOnSuccessListener(sMainExecutor, listener);
+        }
+        return runStage(mSignIn, exchanged);
+    }
+
+    private <I, O> Task<O> runStage(final Stage<I, O> stage, Task<I> input) {
+        Executor executor = stage.runsOnMainThread() ? sMainExecutor : sExecutor;
+        return input.continueWithTask(executor, new Continuation<I, Task<O>>() {
+            @Override
+            public Task<O> then(@NonNull Task<I> task) throws Exception {
+                // Rethrows the failure of the previous stage, skipping this one
+                I result = task.getResult();
+                if (stage.getMetricsStage() == null) {
+                    return stage.run(result);
+                }
+                // Started before run(), which does most of the work of some stages itself
+                StageTimer timer = LoginStageRecorder.start(mProvider, stage.getMetricsStage());
+                Task<O> output;
+                try {
+                    output = stage.run(result);
+                } catch (Exception e) {
+                    timer.failure(e);
+                    throw e;
+                }
+                return LoginStageRecorder.record(output, timer, sExecutor);
+            }
+        });
+    }
+
+    public static class Builder {
+
+        private final String mProvider;
+        private Stage<Void, String> mProviderLogin;
+        private Stage<String, VerifyTokenResponse> mExchange;
+        private Stage<VerifyTokenResponse, AuthResult> mSignIn;
+        private final List<OnSuccessListener<VerifyTokenResponse>> mExchangeListeners = new ArrayList<>();
+
+        /**
+         * @param provider Key of the provider, e.g. "line", metrics are recorded under it
+         */
+        public Builder(Context context, String provider) {
+            final Context appContext = context.getApplicationContext();
+            mProvider = provider;
+            mExchange = new Stage<String, VerifyTokenResponse>(LoginStage.TOKEN_EXCHANGE) {
+                @Override
+                public Task<VerifyTokenResponse> run(String accessToken) {
+                    return TokenExchangeClient.getInstance(appContext).exchange(accessToken);
+                }
+            };
+            mSignIn = new Stage<VerifyTokenResponse, AuthResult>(LoginStage.FIREBASE_SIGN_IN) {
+                @Override
+                public Task<AuthResult> run(VerifyTokenResponse response) {
+                    return FirebaseAuth.getInstance().signInWithCustomToken(response.getFirebaseToken());
+                }
+            };
+        }
+
+        /**
+         * @param providerLogin Resolves to the provider's access token
+         */
+        public Builder setProviderLogin(Stage<Void, String> providerLogin) {
+            mProviderLogin = providerLogin;
+            return this;
+        }
+
+        /**
+         * Replace the default exchange through {@link TokenExchangeClient}.
+         */
+        public Builder setExchange(Stage<String, VerifyTokenResponse> exchange) {
+            mExchange = exchange;
+            return this;
+        }
+
+        /**
+         * Replace the default {@link FirebaseAuth#signInWithCustomToken(String)}.
+         */
+        public Builder setSignIn(Stage<VerifyTokenResponse, AuthResult> signIn) {
+            mSignIn = signIn;
+            return this;
+        }
+
+        /**
+         * @param listener Called on the main thread as soon as the exchange succeeded, while
+         *                 Firebase is still signing in
+         */
+        public Builder addOnExchangedListener(OnSuccessListener<VerifyTokenResponse> listener) {
+            mExchangeListeners.add(listener);
+            return this;
+        }
+
+        public LoginPipeline build() {
+            if (mProviderLogin == null) {
+                throw new IllegalStateException("Provider login stage not set");
+            }
+            return new LoginPipeline(this);
+        }
+    }
+}
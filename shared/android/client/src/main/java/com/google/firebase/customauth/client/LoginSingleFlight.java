@@ -0,0 +1,150 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.AuthResult;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Makes sure only one login per provider is in progress at a time.
+ *
+ * A second request for the same provider, e.g. from a double tap, gets the Task that is already
+ * running instead of starting another provider login, token exchange and Firebase sign-in.
+ * In-flight logins are held per process, so an Activity recreated after a configuration change
+ * can pick the running login up again with {@link #peek(String)}.
+ *
+ * A login started without any UI, see {@link #runSilently(String, Callable)}, is joined too, but
+ * only while it can still succeed: if it fails, the login of the caller that joined it is
+ * started after all, the user asked to log in and has seen nothing of the silent attempt.
+ */
+public final class LoginSingleFlight {
+
+    private static final Map<String, Task<AuthResult>> sInFlight = new HashMap<>();
+    // Logins in sInFlight that were started by runSilently()
+    private static final Set<Task<AuthResult>> sSilent = new HashSet<>();
+    // What callers of run() got while a silent login was in flight, per provider
+    private static final Map<String, Task<AuthResult>> sJoinedSilent = new HashMap<>();
+
+    private LoginSingleFlight() {
+    }
+
+    /**
+     * @param provider Key of the login flow, e.g. "line"
+     * @param login Starts the login, only called if no login for provider is in progress, or a
+     *              silent one failed
+     * @return The login Task shared by every caller until it completes
+     */
+    public static synchronized Task<AuthResult> run(final String provider,
+                                                    final Callable<Task<AuthResult>> login) {
+        Task<AuthResult> inFlight = getInFlight(provider);
+        if (inFlight == null) {
+            return start(provider, login, false);
+        }
+        if (!sSilent.contains(inFlight)) {
+            return inFlight;
+        }
+
+        Task<AuthResult> joined = sJoinedSilent.get(provider);
+        if (joined == null) {
+            // Runs on the main thread, where interactive logins start their UI
+            joined = inFlight.continueWithTask(new Continuation<AuthResult, Task<AuthResult>>() {
+                @Override
+                public Task<AuthResult> then(@NonNull Task<AuthResult> silent) {
+                    if (silent.isSuccessful()) {
+                        return silent;
+                    }
+                    return run(provider, login);
+                }
+            });
+            sJoinedSilent.put(provider, joined);
+        }
+        return joined;
+    }
+
+    /**
+     * Like {@link #run(String, Callable)}, for a login without any UI, e.g. from a session kept
+     * by the provider SDK. A later {@link #run(String, Callable)} joins it but starts its own
+     * login if this one fails.
+     */
+    public static synchronized Task<AuthResult> runSilently(String provider, Callable<Task<AuthResult>> login) {
+        Task<AuthResult> inFlight = getInFlight(provider);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        return start(provider, login, true);
+    }
+
+    /**
+     * @return The login in progress for provider, or null if there is none. If a caller of
+     *         {@link #run(String, Callable)} joined a silent login, that is what it got.
+     */
+    @Nullable
+    public static synchronized Task<AuthResult> peek(String provider) {
+        Task<AuthResult> joined = sJoinedSilent.get(provider);
+        return joined != null ? joined : getInFlight(provider);
+    }
+
+    private static Task<AuthResult> start(final String provider, Callable<Task<AuthResult>> login,
+                                          boolean silent) {
+        final Task<AuthResult> task;
+        try {
+            task = login.call();
+        } catch (Exception e) {
+            return Tasks.forException(e);
+        }
+
+        sInFlight.put(provider, task);
+        if (silent) {
+            sSilent.add(task);
+        }
+        task.addOnCompleteListener(new OnCompleteListener<AuthResult>() {
+            @Override
+            public void onComplete(@NonNull Task<AuthResult> completed) {
+                synchronized (LoginSingleFlight.class) {
+                    if (sInFlight.get(provider) == task) {
+                        sInFlight.remove(provider);
+                    }
+                    if (sSilent.remove(task)) {
+                        sJoinedSilent.remove(provider);
+                    }
+                }
+            }
+        });
+        return task;
+    }
+
+    /**
+     * @return The login for provider that has not completed yet, or null
+     */
+    private static Task<AuthResult> getInFlight(String provider) {
+        Task<AuthResult> inFlight = sInFlight.get(provider);
+        // Completed logins are only removed once their listeners run
+        return inFlight != null && !inFlight.isComplete() ? inFlight : null;
+    }
+}
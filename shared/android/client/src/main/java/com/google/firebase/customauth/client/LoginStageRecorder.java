@@ -0,0 +1,77 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.customauth.metrics.LoginMetrics;
+import com.google.firebase.customauth.metrics.LoginStage;
+import com.google.firebase.customauth.metrics.StageTimer;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Records how long each step of the login chain takes in {@link LoginMetrics}.
+ */
+public final class LoginStageRecorder {
+
+    private LoginStageRecorder() {
+    }
+
+    /**
+     * Start timing stage now.
+     */
+    public static StageTimer start(String provider, LoginStage stage) {
+        return LoginMetrics.getInstance().start(provider, stage);
+    }
+
+    /**
+     * Complete timer with the outcome of task.
+     *
+     * @return task, so the call can be used inline in a continuation chain
+     */
+    public static <T> Task<T> record(Task<T> task, StageTimer timer) {
+        task.addOnCompleteListener(LoginStageRecorder.<T>newTimerListener(timer));
+        return task;
+    }
+
+    /**
+     * Complete timer with the outcome of task, notifying metrics listeners on executor instead
+     * of the main thread.
+     *
+     * @return task, so the call can be used inline in a continuation chain
+     */
+    public static <T> Task<T> record(Task<T> task, StageTimer timer, Executor executor) {
+        task.addOnCompleteListener(executor, LoginStageRecorder.<T>newTimerListener(timer));
+        return task;
+    }
+
+    private static <T> OnCompleteListener<T> newTimerListener(final StageTimer timer) {
+        return new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(@NonNull Task<T> completed) {
+                if (completed.isSuccessful()) {
+                    timer.success();
+                } else {
+                    timer.failure(completed.getException());
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.firebase.customauth.exchange.ExchangeCall;
+
+/**
+ * Runs the retries and hedges of an {@link ExchangeCall} on the main thread, where Volley
+ * delivers responses.
+ */
+class MainThreadScheduler implements ExchangeCall.Scheduler {
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public long nowMs() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public ExchangeCall.Cancellable schedule(final Runnable task, long delayMs) {
+        // Wrapped, so cancelling removes this post and not another one of the same Runnable
+        final Runnable post = new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+            }
+        };
+        mHandler.postDelayed(post, delayMs);
+        return new ExchangeCall.Cancellable() {
+            @Override
+            public void cancel() {
+                mHandler.removeCallbacks(post);
+            }
+        };
+    }
+}
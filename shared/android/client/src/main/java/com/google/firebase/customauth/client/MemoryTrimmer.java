@@ -0,0 +1,162 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gives memory back when the system asks for it, so the process is less likely to be killed in
+ * the background and the next launch stays a warm start.
+ *
+ * Each trim level steps the caches down further, never up:
+ *
+ * <ul>
+ *   <li>Every level is passed to {@link #trimImages(int)}, where the app shrinks whatever holds
+ *       its images.</li>
+ *   <li>From critical or background on, the dispatcher threads of idle
+ *       {@link MeteredRequestQueue}s are stopped. A queue starts them again for its next
+ *       request.</li>
+ * </ul>
+ *
+ * {@link #restoreImages()} gives the images their full budget back when an Activity starts
+ * again. What each trim released is logged.
+ *
+ * Register it with both {@link Application#registerComponentCallbacks(android.content.ComponentCallbacks)}
+ * and {@link Application#registerActivityLifecycleCallbacks(Application.ActivityLifecycleCallbacks)}.
+ */
+public abstract class MemoryTrimmer implements ComponentCallbacks2, Application.ActivityLifecycleCallbacks {
+
+    private static final String TAG = MemoryTrimmer.class.getSimpleName();
+
+    @Override
+    public void onTrimMemory(int level) {
+        trim(getLevelName(level), level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim("LOW_MEMORY", TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Shrink the image caches for level. Budgets only go down here, until
+     * {@link #restoreImages()}.
+     *
+     * @param level One of the TRIM_MEMORY_ levels, {@link #TRIM_MEMORY_COMPLETE} for
+     *              onLowMemory()
+     * @return What was released, for the log
+     */
+    protected abstract String trimImages(int level);
+
+    /**
+     * Give the image caches their full budget back, the app is in use again.
+     */
+    protected abstract void restoreImages();
+
+    /**
+     * @return Queues to stop while idle under memory pressure. The auth queue, if it has been
+     *         created, plus whatever queues the app adds.
+     */
+    protected List<MeteredRequestQueue> getQueues() {
+        List<MeteredRequestQueue> queues = new ArrayList<>();
+        AuthNetwork authNetwork = AuthNetwork.getInstanceIfCreated();
+        if (authNetwork != null) {
+            queues.add(authNetwork.getQueue());
+        }
+        return queues;
+    }
+
+    private void trim(String levelName, int level) {
+        String released = trimImages(level);
+
+        StringBuilder stoppedQueues = new StringBuilder();
+        int stoppedThreads = 0;
+        if (level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_BACKGROUND) {
+            for (MeteredRequestQueue queue : getQueues()) {
+                if (queue.stopIfIdle()) {
+                    stoppedQueues.append(stoppedQueues.length() > 0 ? ", " : "").append(queue.getName());
+                    stoppedThreads += queue.getThreadCount();
+                }
+            }
+        }
+
+        Log.i(TAG, "onTrimMemory(" + levelName + "): " + released
+                + (stoppedThreads > 0 ? ", stopped " + stoppedThreads + " threads of " + stoppedQueues : ""));
+    }
+
+    private static String getLevelName(int level) {
+        switch (level) {
+            case TRIM_MEMORY_RUNNING_MODERATE:
+                return "RUNNING_MODERATE";
+            case TRIM_MEMORY_RUNNING_LOW:
+                return "RUNNING_LOW";
+            case TRIM_MEMORY_RUNNING_CRITICAL:
+                return "RUNNING_CRITICAL";
+            case TRIM_MEMORY_UI_HIDDEN:
+                return "UI_HIDDEN";
+            case TRIM_MEMORY_BACKGROUND:
+                return "BACKGROUND";
+            case TRIM_MEMORY_MODERATE:
+                return "MODERATE";
+            case TRIM_MEMORY_COMPLETE:
+                return "COMPLETE";
+            default:
+                return String.valueOf(level);
+        }
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        restoreImages();
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+}
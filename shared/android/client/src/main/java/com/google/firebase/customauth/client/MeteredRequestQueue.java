@@ -0,0 +1,250 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.os.SystemClock;
+
+import com.android.volley.Cache;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+import com.google.firebase.customauth.metrics.LatencyHistogram;
+import com.google.firebase.customauth.metrics.RequestTrace;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * {@link RequestQueue} that keeps gauges of its own load and whose concurrency can change while
+ * it runs.
+ *
+ * Volley starts a fixed number of network dispatcher threads. This queue starts the most it
+ * will ever need, and lets only {@link #getConcurrency()} of them use the network at a time, so
+ * the effective pool size can follow the connection type. Requests that wait for a thread or
+ * for their turn count towards {@link #getQueueDepth()}, and how long they waited is recorded
+ * in {@link #getWaitTime()}.
+ *
+ * {@link TracedRequest}s also get trace events for when they are sent, i.e. got past the
+ * concurrency limit, and when their response has been delivered on the main thread.
+ *
+ * Under memory pressure {@link #stopIfIdle()} releases the dispatcher threads of a queue that
+ * has nothing to do, the next {@link #add(Request)} starts them again.
+ */
+public class MeteredRequestQueue extends RequestQueue {
+
+    private final String mName;
+    private final int mMaxConcurrency;
+    private final ResizableSemaphore mPermits;
+    private int mConcurrency;
+
+    // Enqueue time of every request that hasn't reached the network or finished yet
+    private final Map<Request<?>, Long> mWaiting = new IdentityHashMap<>();
+    private final LatencyHistogram mWaitTime = new LatencyHistogram();
+    private int mActive;
+
+    // Held while adding, starting and stopping, so no request lands in a queue being stopped
+    private final Object mLifecycleLock = new Object();
+    private boolean mStoppedWhileIdle;
+
+    /**
+     * @param maxConcurrency Number of dispatcher threads, the most requests that can ever use
+     *                       the network at once
+     * @param concurrency Requests that may use the network at once to begin with
+     */
+    public MeteredRequestQueue(String name, Cache cache, Network network, int maxConcurrency,
+                               int concurrency) {
+        this(name, cache, new GatedNetwork(network), maxConcurrency, concurrency);
+    }
+
+    private MeteredRequestQueue(String name, Cache cache, GatedNetwork network, int maxConcurrency,
+                                int concurrency) {
+        super(cache, network, maxConcurrency);
+        mName = name;
+        mMaxConcurrency = maxConcurrency;
+        mConcurrency = clamp(concurrency);
+        mPermits = new ResizableSemaphore(mConcurrency);
+        network.mQueue = this;
+
+        addRequestFinishedListener(new RequestFinishedListener<Object>() {
+            @Override
+            public void onRequestFinished(Request<Object> request) {
+                // Served from the cache or cancelled while waiting
+                synchronized (MeteredRequestQueue.this) {
+                    mWaiting.remove(request);
+                }
+                if (request instanceof TracedRequest) {
+                    ((TracedRequest<?>) request).trace(
+                            request.isCanceled() ? RequestTrace.CANCELLED : RequestTrace.DELIVERED);
+                }
+            }
+        });
+    }
+
+    @Override
+    public <T> Request<T> add(Request<T> request) {
+        synchronized (mLifecycleLock) {
+            if (mStoppedWhileIdle) {
+                mStoppedWhileIdle = false;
+                start();
+            }
+            synchronized (this) {
+                mWaiting.put(request, SystemClock.elapsedRealtime());
+            }
+            return super.add(request);
+        }
+    }
+
+    /**
+     * Stop the dispatcher threads if no request is waiting or on the network.
+     *
+     * @return True if the queue was stopped
+     */
+    public boolean stopIfIdle() {
+        synchronized (mLifecycleLock) {
+            synchronized (this) {
+                if (mStoppedWhileIdle || !mWaiting.isEmpty() || mActive > 0) {
+                    return false;
+                }
+            }
+            stop();
+            mStoppedWhileIdle = true;
+            return true;
+        }
+    }
+
+    /**
+     * @return Threads the queue runs while started: its network dispatchers and the cache
+     *         dispatcher
+     */
+    public int getThreadCount() {
+        return mMaxConcurrency + 1;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Let up to concurrency requests use the network at once, between 1 and the number of
+     * dispatcher threads. Requests already on the network are not interrupted.
+     */
+    public synchronized void setConcurrency(int concurrency) {
+        int clamped = clamp(concurrency);
+        int delta = clamped - mConcurrency;
+        if (delta > 0) {
+            mPermits.release(delta);
+        } else if (delta < 0) {
+            mPermits.reducePermits(-delta);
+        }
+        mConcurrency = clamped;
+    }
+
+    public synchronized int getConcurrency() {
+        return mConcurrency;
+    }
+
+    /**
+     * @return Requests added to the queue that haven't been sent or answered from the cache yet
+     */
+    public synchronized int getQueueDepth() {
+        return mWaiting.size();
+    }
+
+    /**
+     * @return Requests on the network right now
+     */
+    public synchronized int getActiveCount() {
+        return mActive;
+    }
+
+    /**
+     * @return How long requests waited between being added and being sent
+     */
+    public LatencyHistogram getWaitTime() {
+        return mWaitTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mName + ": " + mActive + "/" + mConcurrency + " active, " + mWaiting.size()
+                + " waiting, wait p50<=" + mWaitTime.getPercentileMs(50) + " ms, p95<="
+                + mWaitTime.getPercentileMs(95) + " ms";
+    }
+
+    private int clamp(int concurrency) {
+        return Math.max(1, Math.min(mMaxConcurrency, concurrency));
+    }
+
+    private void onSending(Request<?> request) {
+        Long enqueuedAt;
+        synchronized (this) {
+            enqueuedAt = mWaiting.remove(request);
+            mActive++;
+        }
+        if (enqueuedAt != null) {
+            mWaitTime.record(SystemClock.elapsedRealtime() - enqueuedAt);
+        }
+        if (request instanceof TracedRequest) {
+            ((TracedRequest<?>) request).trace(RequestTrace.SEND);
+        }
+    }
+
+    private synchronized void onSent() {
+        mActive--;
+    }
+
+    /**
+     * Network that only lets as many requests through as the queue's concurrency allows.
+     */
+    private static class GatedNetwork implements Network {
+
+        private final Network mNetwork;
+        private MeteredRequestQueue mQueue;
+
+        GatedNetwork(Network network) {
+            mNetwork = network;
+        }
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            Semaphore permits = mQueue.mPermits;
+            permits.acquireUninterruptibly();
+            mQueue.onSending(request);
+            try {
+                return mNetwork.performRequest(request);
+            } finally {
+                mQueue.onSent();
+                permits.release();
+            }
+        }
+    }
+
+    private static class ResizableSemaphore extends Semaphore {
+
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
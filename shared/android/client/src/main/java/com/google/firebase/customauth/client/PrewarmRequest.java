@@ -0,0 +1,69 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.google.firebase.customauth.metrics.RequestTrace;
+
+/**
+ * GET of the validation server's root, sent only to leave a connection to the server in the
+ * keep-alive pool. DNS lookup, TCP connect and TLS handshake then happen while the user is
+ * still in the provider's login UI, and the /verifyToken POST goes out on a warm connection.
+ */
+class PrewarmRequest extends TracedRequest<Void> {
+
+    private static final String TAG = PrewarmRequest.class.getSimpleName();
+    private static final int TRACE_KIND = RequestTrace.getInstance().registerKind("prewarm");
+
+    private static final int PREWARM_TIMEOUT_MS = 5000;
+
+    private final long mStartTime = SystemClock.elapsedRealtime();
+
+    PrewarmRequest(String url) {
+        super(Method.GET, url, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                // Nothing lost, the exchange will connect by itself
+                Log.d(TAG, "Prewarming failed: " + error);
+            }
+        }, TRACE_KIND);
+        setRetryPolicy(new DefaultRetryPolicy(PREWARM_TIMEOUT_MS, 0, 1f));
+        setShouldCache(false);
+    }
+
+    @Override
+    public Priority getPriority() {
+        // Only the exchange itself goes first, it will need this connection within seconds
+        return Priority.HIGH;
+    }
+
+    @Override
+    protected Response<Void> parseNetworkResponse(NetworkResponse response) {
+        return Response.success(null, null);
+    }
+
+    @Override
+    protected void deliverResponse(Void response) {
+        Log.d(TAG, "Connected to " + getUrl() + " in " + (SystemClock.elapsedRealtime() - mStartTime) + " ms");
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.customauth.profile.ProfileSnapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the {@link ProfileSnapshot} of the signed in user in the app's files directory.
+ *
+ * The thumbnail is the profile photo decoded at the size the app shows it, so on the next cold
+ * start it can be shown as is, see {@link #getThumbnail(ProfileSnapshot)}. Each app loads the
+ * photo with its own image library through a {@link PhotoLoader}, so a photo it already shows
+ * comes from that library's cache.
+ */
+public final class ProfileSnapshotStore {
+
+    private static final String TAG = ProfileSnapshotStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "profile.snapshot";
+
+    // What the file holds, or is about to hold once the pending write is done
+    private static ProfileSnapshot sCurrent;
+    // Bumped by clear(), so a photo load started for the previous user can't save over it
+    private static int sGeneration;
+    // Serializes the writes and deletes, which run on a pool
+    private static final Object sFileLock = new Object();
+
+    /**
+     * Loads the profile photo for a snapshot.
+     */
+    public interface PhotoLoader {
+
+        /**
+         * Load photoUrl at the size the app shows it and hand it to callback once, from any
+         * thread.
+         */
+        void load(Context context, String photoUrl, PhotoCallback callback);
+    }
+
+    public interface PhotoCallback {
+
+        /**
+         * Copies the pixels before it returns, so the loader may recycle or reuse bitmap
+         * afterwards.
+         */
+        void onPhotoLoaded(Bitmap bitmap);
+
+        /**
+         * Store the rest of the profile, the photo is tried again next time.
+         */
+        void onPhotoFailed();
+    }
+
+    private ProfileSnapshotStore() {
+    }
+
+    /**
+     * Read the snapshot. The file is small and memory-mapped, so this is cheap enough to do
+     * before the first frame.
+     *
+     * @return The stored snapshot, or null if there is none
+     */
+    @Nullable
+    public static synchronized ProfileSnapshot load(Context context) {
+        try {
+            sCurrent = ProfileSnapshot.read(getFile(context));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read profile snapshot.", e);
+            sCurrent = null;
+        }
+        return sCurrent;
+    }
+
+    /**
+     * @return True if a snapshot is stored, without reading it
+     */
+    public static boolean exists(Context context) {
+        return getFile(context).isFile();
+    }
+
+    /**
+     * @return The thumbnail of snapshot as a bitmap, or null if it has none
+     */
+    @Nullable
+    public static Bitmap getThumbnail(ProfileSnapshot snapshot) {
+        if (!snapshot.hasThumbnail()) {
+            return null;
+        }
+        Bitmap thumbnail = Bitmap.createBitmap(snapshot.getThumbnailWidth(),
+                snapshot.getThumbnailHeight(), Bitmap.Config.RGB_565);
+        thumbnail.copyPixelsFromBuffer(snapshot.getThumbnailPixels());
+        return thumbnail;
+    }
+
+    /**
+     * Store the profile of user unless the stored snapshot already shows it. The photo comes
+     * from photoLoader.
+     */
+    public static void update(Context context, FirebaseUser user, PhotoLoader photoLoader) {
+        final Context appContext = context.getApplicationContext();
+        final String uid = user.getUid();
+        final String displayName = user.getDisplayName();
+        final String photoUrl = user.getPhotoUrl() != null ? user.getPhotoUrl().toString() : null;
+        final int startGeneration;
+        synchronized (ProfileSnapshotStore.class) {
+            if (sCurrent != null && sCurrent.matches(uid, displayName, photoUrl)) {
+                return;
+            }
+            startGeneration = sGeneration;
+        }
+        if (photoUrl == null) {
+            save(appContext, startGeneration,
+                    new ProfileSnapshot(uid, displayName, null, 0, 0, null));
+            return;
+        }
+
+        photoLoader.load(appContext, photoUrl, new PhotoCallback() {
+            @Override
+            public void onPhotoLoaded(Bitmap bitmap) {
+                save(appContext, startGeneration, new ProfileSnapshot(uid, displayName,
+                        photoUrl, bitmap.getWidth(), bitmap.getHeight(), toRgb565(bitmap)));
+            }
+
+            @Override
+            public void onPhotoFailed() {
+                save(appContext, startGeneration,
+                        new ProfileSnapshot(uid, displayName, photoUrl, 0, 0, null));
+            }
+        });
+    }
+
+    /**
+     * Delete the snapshot, e.g. on sign out. A snapshot of the previous user that is still being
+     * made is dropped instead of saved.
+     */
+    public static synchronized void clear(Context context) {
+        sCurrent = null;
+        sGeneration++;
+        final File file = getFile(context);
+        LoginPipeline.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (sFileLock) {
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Store snapshot unless the store was cleared since it was started in startGeneration.
+     */
+    private static synchronized void save(Context context, final int startGeneration,
+                                          final ProfileSnapshot snapshot) {
+        if (startGeneration != sGeneration) {
+            return;
+        }
+        sCurrent = snapshot;
+        final File file = getFile(context);
+        LoginPipeline.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (sFileLock) {
+                    // clear() may have run since, and its delete may already be done
+                    if (!isGeneration(startGeneration)) {
+                        return;
+                    }
+                    try {
+                        snapshot.write(file);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Failed to write profile snapshot.", e);
+                    }
+                }
+            }
+        });
+    }
+
+    private static synchronized boolean isGeneration(int startGeneration) {
+        return startGeneration == sGeneration;
+    }
+
+    private static ByteBuffer toRgb565(Bitmap bitmap) {
+        Bitmap rgb565 = bitmap.getConfig() == Bitmap.Config.RGB_565
+                ? bitmap : bitmap.copy(Bitmap.Config.RGB_565, false);
+        ByteBuffer pixels = ByteBuffer.allocate(rgb565.getRowBytes() * rgb565.getHeight());
+        rgb565.copyPixelsToBuffer(pixels);
+        pixels.flip();
+        return pixels;
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.customauth.exchange.EndpointSelector;
+import com.google.firebase.customauth.exchange.ExchangeCall;
+import com.google.firebase.customauth.exchange.ExchangePolicy;
+import com.google.firebase.customauth.exchange.FailureKind;
+import com.google.firebase.customauth.exchange.VerifyTokenCodec;
+import com.google.firebase.customauth.exchange.VerifyTokenResponse;
+import com.google.firebase.customauth.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exchanges a provider access token for a Firebase Custom Auth token by calling the
+ * validation server's /verifyToken endpoint.
+ *
+ * There is a single instance per process and every exchange goes through the shared
+ * {@link AuthNetwork} request queue, so consecutive logins reuse the same dispatcher
+ * and any connection that is still alive instead of setting up a new network stack.
+ *
+ * The validation servers are read from the validation_server_domain and
+ * validation_server_failover_domains resources, which each app sets in its configs.xml.
+ *
+ * Successful exchanges are remembered in {@link CustomTokenCache}, so a provider token that
+ * has already been exchanged doesn't hit the network again until the custom token expires.
+ *
+ * Exchanges that fail on the way are retried within a deadline, see {@link ExchangePolicy}.
+ * With more than one validation server configured, each request goes to the fastest healthy
+ * one, see {@link EndpointSelector}. The retries themselves are run by {@link ExchangeCall},
+ * here on Volley and the main thread.
+ */
+public class TokenExchangeClient {
+
+    private static final String TAG = TokenExchangeClient.class.getSimpleName();
+
+    // Repeated prewarming within this window, e.g. onCreate() followed by a tap, is skipped
+    private static final long PREWARM_INTERVAL_MS = 10000;
+
+    private static TokenExchangeClient mInstance;
+
+    private final Context mContext;
+    private final EndpointSelector mEndpoints;
+    private final CustomTokenCache mTokenCache;
+    private final ExchangeCall.Transport mTransport;
+    private final ExchangeCall.Scheduler mScheduler = new MainThreadScheduler();
+    private final LatencyHistogram mAttemptLatency = new LatencyHistogram();
+    private volatile ExchangePolicy mPolicy = ExchangePolicy.DEFAULT;
+    private long mLastPrewarm = -PREWARM_INTERVAL_MS;
+
+    private TokenExchangeClient(Context context) {
+        mContext = context.getApplicationContext();
+        mEndpoints = new EndpointSelector(getVerificationEndpoints(mContext));
+        mTokenCache = CustomTokenCache.getInstance(mContext);
+        mTransport = new VolleyExchangeTransport(AuthNetwork.getInstance(mContext));
+    }
+
+    public static synchronized TokenExchangeClient getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new TokenExchangeClient(context);
+        }
+        return mInstance;
+    }
+
+    /**
+     * @param accessToken Access token issued by the identity provider (e.g. LINE or Kakao)
+     * @return Task which resolves to the Firebase Custom Auth token and, unless the token came
+     *         from the cache, the profile the server sent along. It fails with the VolleyError
+     *         of the last attempt, or a TimeoutException once the deadline has passed.
+     */
+    public Task<VerifyTokenResponse> exchange(final String accessToken) {
+        String cachedToken = mTokenCache.get(accessToken);
+        if (cachedToken != null) {
+            Log.d(TAG, "Using cached Firebase Token");
+            return Tasks.forResult(new VerifyTokenResponse(cachedToken, null, null));
+        }
+
+        final TaskCompletionSource<VerifyTokenResponse> source = new TaskCompletionSource<>();
+        new ExchangeCall(mTransport, mScheduler, mEndpoints, accessToken, mPolicy,
+                mAttemptLatency, new ExchangeCall.Listener() {
+                    @Override
+                    public void onAttemptFailed(String endpoint, boolean hedge, Exception error,
+                                                FailureKind failure) {
+                        Log.w(TAG, (hedge ? "Hedged request" : "Attempt") + " to " + endpoint
+                                + " failed with " + failure + ": " + error
+                                + " (" + AuthNetwork.getInstance(mContext).getQueue() + ")");
+                    }
+
+                    @Override
+                    public void onSuccess(VerifyTokenResponse response) {
+                        source.setResult(response);
+                    }
+
+                    @Override
+                    public void onFailure(Exception error, FailureKind failure) {
+                        source.setException(error);
+                    }
+                }).start();
+        Task<VerifyTokenResponse> call = source.getTask();
+        // Caching encrypts and writes to disk, keep it off the main thread
+        call.addOnCompleteListener(LoginPipeline.getExecutor(), new OnCompleteListener<VerifyTokenResponse>() {
+            @Override
+            public void onComplete(@NonNull Task<VerifyTokenResponse> task) {
+                if (task.isSuccessful()) {
+                    mTokenCache.put(accessToken, task.getResult().getFirebaseToken());
+                } else {
+                    Log.e(TAG, String.valueOf(task.getException()));
+                }
+            }
+        });
+        return call;
+    }
+
+    /**
+     * @return /verifyToken of the primary validation server followed by the failover servers
+     */
+    private static List<String> getVerificationEndpoints(Context context) {
+        List<String> domains = new ArrayList<>();
+        domains.add(context.getString(R.string.validation_server_domain));
+        Collections.addAll(domains, context.getResources().getStringArray(R.array.validation_server_failover_domains));
+
+        List<String> endpoints = new ArrayList<>(domains.size());
+        for (String domain : domains) {
+            endpoints.add(domain + VerifyTokenCodec.PATH);
+        }
+        return endpoints;
+    }
+
+    /**
+     * Open a connection to the validation server the next exchange will most likely use, so
+     * it is ready by the time the provider login returns an access token. Call this as soon
+     * as a login becomes likely, e.g. when the login screen opens or the login button is tapped.
+     */
+    public synchronized void prewarm() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - mLastPrewarm < PREWARM_INTERVAL_MS) {
+            return;
+        }
+        mLastPrewarm = now;
+
+        String endpoint = mEndpoints.peek();
+        String root = endpoint.substring(0, endpoint.length() - VerifyTokenCodec.PATH.length()) + "/";
+        AuthNetwork.getInstance(mContext).add(new PrewarmRequest(root));
+    }
+
+    /**
+     * @param policy Deadline, retries and hedging of the exchanges started from now on
+     */
+    public void setPolicy(ExchangePolicy policy) {
+        mPolicy = policy;
+    }
+
+    /**
+     * Forget every exchanged token, e.g. when the user signs out.
+     */
+    public void clearCache() {
+        mTokenCache.clear();
+    }
+}
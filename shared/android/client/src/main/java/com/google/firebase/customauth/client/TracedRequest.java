@@ -0,0 +1,90 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.google.firebase.customauth.metrics.RequestTrace;
+
+/**
+ * Request that records its way through the queue into {@link RequestTrace}.
+ *
+ * Volley reports every stage of a request through {@link #addMarker(String)}, but only keeps the
+ * markers in debug builds. This class maps them to trace events instead, which doesn't allocate,
+ * so the trace works in release builds too. Volley 1.0.0 ends cancelled and not-modified requests
+ * through finish() without a marker, so {@link MeteredRequestQueue} records cancellation when a
+ * request finishes, along with when it was actually sent and when its response reached the main
+ * thread.
+ */
+public abstract class TracedRequest<T> extends Request<T> {
+
+    private final int mTraceId = RequestTrace.getInstance().newRequestId();
+    private final int mTraceKind;
+
+    /**
+     * @param traceKind Kind of request from {@link RequestTrace#registerKind(String)}
+     */
+    protected TracedRequest(int method, String url, Response.ErrorListener listener, int traceKind) {
+        super(method, url, listener);
+        mTraceKind = traceKind;
+    }
+
+    @Override
+    public void addMarker(String tag) {
+        super.addMarker(tag);
+        int event = toTraceEvent(tag);
+        if (event >= 0) {
+            trace(event);
+        }
+    }
+
+    void trace(int event) {
+        RequestTrace.getInstance().record(mTraceId, mTraceKind, event);
+    }
+
+    /**
+     * @return Trace event for a Volley 1.0.0 marker, or -1 for markers that aren't traced
+     */
+    private static int toTraceEvent(String tag) {
+        switch (tag) {
+            case "add-to-queue":
+                return RequestTrace.QUEUED;
+            case "cache-queue-take":
+                return RequestTrace.CACHE_TAKE;
+            case "cache-hit":
+                return RequestTrace.CACHE_HIT;
+            case "cache-miss":
+            case "cache-hit-expired":
+                return RequestTrace.CACHE_MISS;
+            case "network-queue-take":
+                return RequestTrace.NETWORK_TAKE;
+            case "network-http-complete":
+                return RequestTrace.HTTP_COMPLETE;
+            case "network-parse-complete":
+            case "cache-hit-parsed":
+                return RequestTrace.PARSED;
+            case "network-cache-written":
+                return RequestTrace.CACHE_WRITTEN;
+            case "post-response":
+                return RequestTrace.POSTED;
+            case "post-error":
+                return RequestTrace.ERROR_POSTED;
+            default:
+                return -1;
+        }
+    }
+}
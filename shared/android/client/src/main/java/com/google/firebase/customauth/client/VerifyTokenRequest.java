@@ -0,0 +1,111 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Response;
+import com.google.firebase.customauth.exchange.VerifyTokenCodec;
+import com.google.firebase.customauth.exchange.VerifyTokenResponse;
+import com.google.firebase.customauth.metrics.RequestTrace;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * POST to /verifyToken that resolves to the Firebase Custom Auth token and, if the server
+ * sends it, the profile of the Firebase user.
+ *
+ * Unlike JsonObjectRequest it doesn't build a JSON tree: the body is written straight to bytes
+ * and the response is only scanned until the token is found, see {@link VerifyTokenCodec}.
+ * The request asks for CBOR and falls back to JSON when the server doesn't offer it.
+ * {@link #isCborResponse()} tells which one the server answered in.
+ */
+public class VerifyTokenRequest extends TracedRequest<VerifyTokenResponse> {
+
+    private static final int TRACE_KIND = RequestTrace.getInstance().registerKind("verifyToken");
+
+    private final Response.Listener<VerifyTokenResponse> mListener;
+    private final boolean mCborBody;
+    private final byte[] mBody;
+    // Written by the network dispatcher before the response is posted to the main thread
+    private volatile boolean mCborResponse;
+
+    /**
+     * @param cborBody Send the body as CBOR, only once the server is known to answer in CBOR,
+     *                 older servers only parse JSON
+     */
+    public VerifyTokenRequest(String url, String accessToken, boolean cborBody,
+                              Response.Listener<VerifyTokenResponse> listener,
+                              Response.ErrorListener errorListener) {
+        super(Method.POST, url, errorListener, TRACE_KIND);
+        mListener = listener;
+        mCborBody = cborBody;
+        mBody = VerifyTokenCodec.encodeRequest(accessToken, mCborBody);
+        // Custom tokens must never be served from the HTTP cache
+        setShouldCache(false);
+    }
+
+    @Override
+    public Priority getPriority() {
+        // A login is waiting on this, it goes out before any other request on the queue
+        return Priority.IMMEDIATE;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", VerifyTokenCodec.ACCEPT);
+        return headers;
+    }
+
+    @Override
+    public String getBodyContentType() {
+        return mCborBody ? VerifyTokenCodec.CONTENT_TYPE_CBOR : VerifyTokenCodec.CONTENT_TYPE_JSON;
+    }
+
+    @Override
+    public byte[] getBody() {
+        return mBody;
+    }
+
+    @Override
+    protected Response<VerifyTokenResponse> parseNetworkResponse(NetworkResponse response) {
+        String contentType = response.headers.get("Content-Type");
+        try {
+            VerifyTokenResponse verifyTokenResponse =
+                    VerifyTokenCodec.decodeResponseWithProfile(response.data, contentType);
+            mCborResponse = VerifyTokenCodec.isCbor(contentType);
+            return Response.success(verifyTokenResponse, null);
+        } catch (IOException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    /**
+     * @return Whether the server answered in CBOR, once the response has been delivered
+     */
+    public boolean isCborResponse() {
+        return mCborResponse;
+    }
+
+    @Override
+    protected void deliverResponse(VerifyTokenResponse response) {
+        mListener.onResponse(response);
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.client;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.ParseError;
+import com.android.volley.Response;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.google.firebase.customauth.exchange.ExchangeCall;
+import com.google.firebase.customauth.exchange.FailureKind;
+import com.google.firebase.customauth.exchange.VerifyTokenResponse;
+
+/**
+ * Sends the requests of an {@link ExchangeCall} as {@link VerifyTokenRequest}s on the
+ * {@link AuthNetwork} queue. Volley delivers the answers on the main thread, so pair it with
+ * {@link MainThreadScheduler}.
+ */
+class VolleyExchangeTransport implements ExchangeCall.Transport {
+
+    private final AuthNetwork mNetwork;
+
+    VolleyExchangeTransport(AuthNetwork network) {
+        mNetwork = network;
+    }
+
+    @Override
+    public ExchangeCall.Cancellable send(String url, String accessToken, boolean cborBody, int timeoutMs,
+                                         final ExchangeCall.Callback callback) {
+        final VerifyTokenRequest[] request = new VerifyTokenRequest[1];
+        request[0] = new VerifyTokenRequest(url, accessToken, cborBody,
+                new Response.Listener<VerifyTokenResponse>() {
+                    @Override
+                    public void onResponse(VerifyTokenResponse response) {
+                        callback.onResponse(response, request[0].isCborResponse());
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        callback.onFailure(error, classify(error),
+                                error.networkResponse != null ? error.networkResponse.statusCode : 0);
+                    }
+                });
+        // Volley's own retries are turned off, ExchangeCall decides when to try again
+        request[0].setRetryPolicy(new DefaultRetryPolicy(timeoutMs, 0, 1f));
+        mNetwork.add(request[0]);
+        return new ExchangeCall.Cancellable() {
+            @Override
+            public void cancel() {
+                request[0].cancel();
+            }
+        };
+    }
+
+    static FailureKind classify(VolleyError error) {
+        if (error instanceof TimeoutError) {
+            return FailureKind.TIMEOUT;
+        }
+        if (error.networkResponse != null) {
+            return FailureKind.forStatus(error.networkResponse.statusCode);
+        }
+        if (error instanceof ParseError) {
+            return FailureKind.MALFORMED_RESPONSE;
+        }
+        return FailureKind.CONNECTION;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import java.util.Random;
+
+/**
+ * Tokens shaped like the real ones, so the benchmarks parse realistically sized payloads.
+ */
+final class BenchmarkTokens {
+
+    // LINE and Kakao access tokens are opaque strings of about this length
+    private static final int ACCESS_TOKEN_LENGTH = 180;
+    // Custom tokens from the Admin SDK are RS256 JWTs of roughly this length
+    private static final int CUSTOM_TOKEN_LENGTH = 850;
+
+    private static final String ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    private BenchmarkTokens() {
+    }
+
+    static String accessToken() {
+        return randomString(ACCESS_TOKEN_LENGTH, 1);
+    }
+
+    static String customToken() {
+        String token = randomString(CUSTOM_TOKEN_LENGTH, 2);
+        // header.payload.signature
+        return token.substring(0, 36) + "." + token.substring(37, 400) + "." + token.substring(401);
+    }
+
+    /**
+     * @return Response body the validation servers send back for a successful exchange
+     */
+    static String responseBody() {
+        return "{\"" + VerifyTokenCodec.FIREBASE_TOKEN_FIELD + "\":\"" + customToken() + "\"}";
+    }
+
+    /**
+     * @return {@link #responseBody()} encoded as CBOR
+     */
+    static byte[] cborResponseBody() {
+        return encodeCborResponse(customToken());
+    }
+
+    static byte[] encodeCborResponse(String firebaseToken) {
+        CborWriter writer = new CborWriter(1024);
+        writer.writeMapHeader(1);
+        writer.writeText(VerifyTokenCodec.FIREBASE_TOKEN_FIELD_BYTES);
+        writer.writeText(firebaseToken.getBytes(VerifyTokenCodec.UTF_8));
+        return writer.toByteArray();
+    }
+
+    private static String randomString(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TCP proxy on loopback that holds every new connection for a while before passing bytes on,
+ * the way DNS, the TCP handshake and the TLS handshake hold up the first request on a new
+ * connection over a real network. Requests on a connection that is already open pass through
+ * without delay.
+ */
+class ConnectLatencyProxy {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int mTargetPort;
+    private final long mConnectDelayMs;
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private ServerSocket mServerSocket;
+    private ExecutorService mExecutor;
+
+    /**
+     * @param targetPort Port of the server on loopback, e.g. a {@link StandInVerifyTokenServer}
+     * @param connectDelayMs How long each new connection takes to set up
+     */
+    ConnectLatencyProxy(int targetPort, long connectDelayMs) {
+        mTargetPort = targetPort;
+        mConnectDelayMs = connectDelayMs;
+    }
+
+    /**
+     * @return Port the proxy listens on
+     */
+    int start() throws IOException {
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+        mExecutor = Executors.newCachedThreadPool();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket client = mServerSocket.accept();
+                        mConnectionCount.incrementAndGet();
+                        mExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                connect(client);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // Closed by stop()
+                    }
+                }
+            }
+        });
+        return mServerSocket.getLocalPort();
+    }
+
+    void stop() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // Ignore, shutting down anyway
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @return Connections accepted so far, each of which paid the connect delay
+     */
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    private void connect(Socket client) {
+        try {
+            Thread.sleep(mConnectDelayMs);
+            Socket server = new Socket(InetAddress.getLoopbackAddress(), mTargetPort);
+            client.setTcpNoDelay(true);
+            server.setTcpNoDelay(true);
+            mExecutor.execute(pipe(server, client));
+            pipe(client, server).run();
+        } catch (IOException e) {
+            close(client);
+        } catch (InterruptedException e) {
+            close(client);
+        }
+    }
+
+    private static Runnable pipe(final Socket from, final Socket to) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                try {
+                    InputStream in = from.getInputStream();
+                    OutputStream out = to.getOutputStream();
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } catch (IOException e) {
+                    // Either side went away
+                } finally {
+                    close(from);
+                    close(to);
+                }
+            }
+        };
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
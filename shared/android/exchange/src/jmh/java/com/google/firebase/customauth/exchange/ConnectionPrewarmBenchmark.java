@@ -0,0 +1,108 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How much of the /verifyToken exchange is connection setup, i.e. what the apps save by
+ * warming up the connection while the user is still in the provider's login UI.
+ *
+ * The stand-in server sits behind a {@link ConnectLatencyProxy} that makes setting up a
+ * connection take connectDelayMs, e.g. DNS, TCP and TLS at three round trips of ~50 ms.
+ * With cold, connections are never pooled, so every exchange has to set one up first. With
+ * prewarmed, the untimed setup does the GET / the apps send when the login starts, and the
+ * timed exchange reuses that connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConnectionPrewarmBenchmark {
+
+    @Param({"cold", "prewarmed"})
+    public String connection;
+
+    @Param({"150"})
+    public long connectDelayMs;
+
+    private StandInVerifyTokenServer mServer;
+    private ConnectLatencyProxy mProxy;
+    private URL mRootUrl;
+    private URL mVerifyUrl;
+    private byte[] mBody;
+
+    @Setup
+    public void setUp() throws Exception {
+        if ("cold".equals(connection)) {
+            // Read once when HttpURLConnection is first used. JMH forks a JVM per parameter
+            // combination, so this doesn't leak into the prewarmed runs.
+            System.setProperty("http.keepAlive", "false");
+        }
+        mServer = new StandInVerifyTokenServer(BenchmarkTokens.customToken());
+        URL serverUrl = new URL(mServer.start());
+        mProxy = new ConnectLatencyProxy(serverUrl.getPort(), connectDelayMs);
+        String baseUrl = "http://127.0.0.1:" + mProxy.start();
+        mRootUrl = new URL(baseUrl + "/");
+        mVerifyUrl = new URL(baseUrl + VerifyTokenCodec.PATH);
+        mBody = VerifyTokenCodec.encodeRequest(BenchmarkTokens.accessToken(), false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mProxy.stop();
+        mServer.stop();
+    }
+
+    @Setup(Level.Invocation)
+    public void prewarm() throws Exception {
+        if ("prewarmed".equals(connection)) {
+            HttpURLConnection warmup = (HttpURLConnection) mRootUrl.openConnection();
+            UrlConnectionTransport.readFully(warmup.getInputStream());
+        }
+    }
+
+    @Benchmark
+    public String exchange() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) mVerifyUrl.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(mBody.length);
+        connection.setRequestProperty("Content-Type", VerifyTokenCodec.CONTENT_TYPE_JSON);
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(mBody);
+        } finally {
+            out.close();
+        }
+        byte[] response = UrlConnectionTransport.readFully(connection.getInputStream());
+        return VerifyTokenCodec.decodeResponse(response, connection.getContentType());
+    }
+}
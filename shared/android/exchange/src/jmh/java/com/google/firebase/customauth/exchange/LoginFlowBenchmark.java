@@ -0,0 +1,403 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import com.google.firebase.customauth.metrics.LatencyHistogram;
+import com.google.firebase.customauth.metrics.LoginMetrics;
+import com.google.firebase.customauth.metrics.LoginStage;
+import com.google.firebase.customauth.metrics.StageTimer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole login, provider login to Firebase sign-in, on the threads the apps use for it, with
+ * fakes for everything that needs a phone or an account:
+ *
+ * <ul>
+ *   <li>{@link FakeProviderSdk} stands in for LINE's LineAuthManager and Kakao's Session. It
+ *       answers with an access token on its own thread, and the token is handed to the main
+ *       thread like LineLoginFuture and ISessionCallback do.</li>
+ *   <li>The exchange is the apps' own {@link ExchangeCall}, with the default
+ *       {@link ExchangePolicy}, an {@link EndpointSelector} and the attempt
+ *       {@link LatencyHistogram}, run on the main thread. Only the transport stands in for
+ *       Volley: {@link UrlConnectionTransport} sends the request like HurlStack on a network
+ *       dispatcher thread, to a {@link StandInVerifyTokenServer}, and the response is decoded
+ *       by {@link VerifyTokenCodec}. The endpoint negotiates CBOR on the first exchange, like
+ *       in the apps.</li>
+ *   <li>{@link FakeFirebaseAuth} stands in for FirebaseAuth.signInWithCustomToken(). It checks
+ *       the custom token is a JWT and signs in on its own thread.</li>
+ * </ul>
+ *
+ * Stages run on a pool of LoginPipeline's size and are timed through {@link LoginMetrics},
+ * like in the apps. LoginPipeline, LoginSingleFlight and Volley's queue need Android and are
+ * not part of it, so thread hand-offs stand in for them. login measures all of it, the other
+ * benchmarks one stage each, so with the GC profiler the report has wall time and allocations
+ * per login and per stage. Allocations include the stand-in server's, compare them between
+ * runs rather than reading them as the app's.
+ *
+ * serverRoundTrip is a plain GET to the same server over the same threads, with none of our
+ * code on the way. checkJmhBaseline divides the other times by it, which leaves out how fast
+ * the machine is.
+ *
+ * The latencies default to 0 so the benchmark measures our own overhead. Set them to
+ * realistic values, e.g. -p providerLatencyMs=1500 -p serverLatencyMs=300, to see how a login
+ * adds up.
+ */
+@State(Scope.Benchmark)
+public class LoginFlowBenchmark {
+
+    private static final String PROVIDER = "benchmark";
+
+    // LoginPipeline.POOL_SIZE and AuthNetwork.CONCURRENCY in the apps
+    private static final int LOGIN_POOL_SIZE = 2;
+    private static final int NETWORK_DISPATCHERS = 2;
+
+    @Param({"0"})
+    public long providerLatencyMs;
+
+    @Param({"0"})
+    public long serverLatencyMs;
+
+    @Param({"0"})
+    public long signInLatencyMs;
+
+    private StandInVerifyTokenServer mServer;
+    private URL mServerUrl;
+    private ScheduledExecutorService mMainThread;
+    private ExecutorService mLoginPool;
+    private ExecutorService mNetworkDispatchers;
+    private ScheduledExecutorService mSdkThread;
+    private FakeProviderSdk mProviderSdk;
+    private FakeFirebaseAuth mFirebaseAuth;
+    private ExchangeCall.Transport mTransport;
+    private ExchangeCall.Scheduler mScheduler;
+    private EndpointSelector mEndpoints;
+    // Shared across exchanges like in TokenExchangeClient
+    private final LatencyHistogram mAttemptLatency = new LatencyHistogram();
+    private String mAccessToken;
+    private String mFirebaseToken;
+
+    @Setup
+    public void setUp() throws Exception {
+        mFirebaseToken = BenchmarkTokens.customToken();
+        mServer = new StandInVerifyTokenServer(mFirebaseToken,
+                new StandInVerifyTokenServer.Behavior.Builder().setLatency(serverLatencyMs, 0).build());
+        String baseUrl = mServer.start();
+        mServerUrl = new URL(baseUrl + "/");
+        mAccessToken = BenchmarkTokens.accessToken();
+
+        mMainThread = Executors.newSingleThreadScheduledExecutor();
+        mLoginPool = Executors.newFixedThreadPool(LOGIN_POOL_SIZE);
+        mNetworkDispatchers = Executors.newFixedThreadPool(NETWORK_DISPATCHERS);
+        mSdkThread = Executors.newSingleThreadScheduledExecutor();
+        mProviderSdk = new FakeProviderSdk(mSdkThread, mMainThread, mAccessToken, providerLatencyMs);
+        mFirebaseAuth = new FakeFirebaseAuth(mSdkThread, mMainThread, signInLatencyMs);
+        mTransport = new UrlConnectionTransport(mNetworkDispatchers, mMainThread);
+        mScheduler = new ExecutorScheduler(mMainThread);
+        mEndpoints = new EndpointSelector(Collections.singletonList(baseUrl + VerifyTokenCodec.PATH));
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop();
+        mMainThread.shutdownNow();
+        mLoginPool.shutdownNow();
+        mNetworkDispatchers.shutdownNow();
+        mSdkThread.shutdownNow();
+        LoginMetrics.getInstance().reset();
+    }
+
+    @Benchmark
+    public String login() throws Exception {
+        final Pending<String> signedIn = new Pending<>();
+        final StageTimer providerTimer = LoginMetrics.getInstance().start(PROVIDER, LoginStage.PROVIDER_LOGIN);
+        mMainThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                mProviderSdk.login(new Callback<String>() {
+                    @Override
+                    public void onResult(String accessToken, Exception error) {
+                        finish(providerTimer, error);
+                        if (error != null) {
+                            signedIn.fail(error);
+                            return;
+                        }
+                        startExchange(accessToken, signedIn);
+                    }
+                });
+            }
+        });
+        return signedIn.await();
+    }
+
+    private void startExchange(final String accessToken, final Pending<String> signedIn) {
+        mLoginPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                final StageTimer exchangeTimer = LoginMetrics.getInstance().start(PROVIDER, LoginStage.TOKEN_EXCHANGE);
+                enqueueExchange(accessToken, new Callback<VerifyTokenResponse>() {
+                    @Override
+                    public void onResult(VerifyTokenResponse response, Exception error) {
+                        finish(exchangeTimer, error);
+                        if (error != null) {
+                            signedIn.fail(error);
+                            return;
+                        }
+                        startSignIn(response.getFirebaseToken(), signedIn);
+                    }
+                });
+            }
+        });
+    }
+
+    private void startSignIn(final String firebaseToken, final Pending<String> signedIn) {
+        mLoginPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                final StageTimer signInTimer = LoginMetrics.getInstance().start(PROVIDER, LoginStage.FIREBASE_SIGN_IN);
+                mFirebaseAuth.signInWithCustomToken(firebaseToken, new Callback<String>() {
+                    @Override
+                    public void onResult(String uid, Exception error) {
+                        finish(signInTimer, error);
+                        if (error != null) {
+                            signedIn.fail(error);
+                        } else {
+                            signedIn.set(uid);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Start an {@link ExchangeCall} on the main thread, where its outcome is delivered too.
+     */
+    private void enqueueExchange(final String accessToken, final Callback<VerifyTokenResponse> callback) {
+        mMainThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                new ExchangeCall(mTransport, mScheduler, mEndpoints, accessToken, ExchangePolicy.DEFAULT,
+                        mAttemptLatency, new ExchangeCall.Listener() {
+                            @Override
+                            public void onAttemptFailed(String endpoint, boolean hedge, Exception error,
+                                                        FailureKind failure) {
+                            }
+
+                            @Override
+                            public void onSuccess(VerifyTokenResponse response) {
+                                callback.onResult(response, null);
+                            }
+
+                            @Override
+                            public void onFailure(Exception error, FailureKind failure) {
+                                callback.onResult(null, error);
+                            }
+                        }).start();
+            }
+        });
+    }
+
+    @Benchmark
+    public String providerLogin() throws Exception {
+        final Pending<String> accessToken = new Pending<>();
+        mProviderSdk.login(accessToken);
+        return accessToken.await();
+    }
+
+    @Benchmark
+    public VerifyTokenResponse tokenExchange() throws Exception {
+        final Pending<VerifyTokenResponse> response = new Pending<>();
+        enqueueExchange(mAccessToken, response);
+        return response.await();
+    }
+
+    @Benchmark
+    public String firebaseSignIn() throws Exception {
+        final Pending<String> uid = new Pending<>();
+        mFirebaseAuth.signInWithCustomToken(mFirebaseToken, uid);
+        return uid.await();
+    }
+
+    /**
+     * Reference for checkJmhBaseline: GET / on a network dispatcher thread, delivered on the main
+     * thread, with none of the exchange code on the way.
+     */
+    @Benchmark
+    public byte[] serverRoundTrip() throws Exception {
+        final Pending<byte[]> body = new Pending<>();
+        mNetworkDispatchers.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] result = null;
+                Exception error = null;
+                try {
+                    HttpURLConnection connection = (HttpURLConnection) mServerUrl.openConnection();
+                    result = UrlConnectionTransport.readFully(connection.getInputStream());
+                } catch (Exception e) {
+                    error = e;
+                }
+                deliver(mMainThread, body, result, error);
+            }
+        });
+        return body.await();
+    }
+
+    private static void finish(StageTimer timer, Exception error) {
+        if (error == null) {
+            timer.success();
+        } else {
+            timer.failure(error);
+        }
+    }
+
+    private static <T> void deliver(ExecutorService thread, final Callback<T> callback,
+                                    final T result, final Exception error) {
+        thread.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(result, error);
+            }
+        });
+    }
+
+    /**
+     * Outcome of an asynchronous call, on the thread the real API calls back on.
+     */
+    interface Callback<T> {
+        /**
+         * @param error Null if the call succeeded
+         */
+        void onResult(T result, Exception error);
+    }
+
+    /**
+     * Callback the benchmark thread waits on.
+     */
+    static final class Pending<T> implements Callback<T> {
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile T mResult;
+        private volatile Exception mError;
+
+        void set(T result) {
+            mResult = result;
+            mDone.countDown();
+        }
+
+        void fail(Exception error) {
+            mError = error;
+            mDone.countDown();
+        }
+
+        @Override
+        public void onResult(T result, Exception error) {
+            if (error != null) {
+                fail(error);
+            } else {
+                set(result);
+            }
+        }
+
+        T await() throws Exception {
+            mDone.await();
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+            return mResult;
+        }
+    }
+
+    /**
+     * Stand-in for LINE's LineAuthManager.login() and Kakao's Session.open(): the user is done
+     * with the provider's UI after latencyMs, and the access token arrives on the main thread.
+     */
+    static final class FakeProviderSdk {
+
+        private final ScheduledExecutorService mSdkThread;
+        private final ExecutorService mMainThread;
+        private final String mAccessToken;
+        private final long mLatencyMs;
+
+        FakeProviderSdk(ScheduledExecutorService sdkThread, ExecutorService mainThread,
+                        String accessToken, long latencyMs) {
+            mSdkThread = sdkThread;
+            mMainThread = mainThread;
+            mAccessToken = accessToken;
+            mLatencyMs = latencyMs;
+        }
+
+        void login(final Callback<String> callback) {
+            mSdkThread.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(mMainThread, callback, mAccessToken, null);
+                }
+            }, mLatencyMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stand-in for FirebaseAuth.signInWithCustomToken(): rejects anything that isn't shaped
+     * like a JWT, and otherwise signs in after latencyMs and answers on the main thread.
+     */
+    static final class FakeFirebaseAuth {
+
+        private final ScheduledExecutorService mSdkThread;
+        private final ExecutorService mMainThread;
+        private final long mLatencyMs;
+
+        FakeFirebaseAuth(ScheduledExecutorService sdkThread, ExecutorService mainThread, long latencyMs) {
+            mSdkThread = sdkThread;
+            mMainThread = mainThread;
+            mLatencyMs = latencyMs;
+        }
+
+        void signInWithCustomToken(final String customToken, final Callback<String> callback) {
+            mSdkThread.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    int payloadStart = customToken.indexOf('.') + 1;
+                    int payloadEnd = customToken.indexOf('.', payloadStart);
+                    if (payloadStart == 0 || payloadEnd < 0) {
+                        deliver(mMainThread, callback, null,
+                                new IllegalArgumentException("Custom token is not a JWT"));
+                        return;
+                    }
+                    // Any stable id will do, the stand-in server doesn't put a real uid in
+                    String uid = customToken.substring(payloadStart, Math.min(payloadEnd, payloadStart + 28));
+                    deliver(mMainThread, callback, uid, null);
+                }
+            }, mLatencyMs, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.customauth.exchange;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * TLS for the stand-in server: a self-signed certificate for 127.0.0.1, and client contexts
+ * that trust it.
+ *
+ * Clients speak TLS 1.2 at most, like the Android versions the apps support. There a resumed
+ * handshake takes one round trip instead of two.
+ */
+final class StandInTls {
+
+    // Made with keytool -genkeypair -keyalg EC -ext san=ip:127.0.0.1 -storetype PKCS12
+    private static final String KEY_STORE = "/standin-tls.p12";
+    private static final char[] PASSWORD = "standin".toCharArray();
+
+    static {
+        // Resume by session id, the way the Android versions the apps support do, rather than
+        // with the stateless tickets of newer JDKs that the server can't count
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension", "false");
+    }
+
+    private StandInTls() {
+    }
+
+    static SSLContext serverContext() throws Exception {
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(loadKeyStore(), PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    /**
+     * @return A new client context. Each has its own session cache, so a new one behaves like
+     *         a process that starts without any stored sessions.
+     */
+    static SSLContext clientContext() throws Exception {
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(loadKeyStore());
+        SSLContext context = SSLContext.getInstance("TLSv1.2");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    private static KeyStore loadKeyStore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        InputStream in = StandInTls.class.getResourceAsStream(KEY_STORE);
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        return keyStore;
+    }
+}
@@ -0,0 +1,371 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsExchange;
+import com.sun.net.httpserver.HttpsServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * In-process stand-in for the validation server. It answers /verifyToken the way
+ * Line/server/app.js and kakao/KakaoLoginServer/app.js do, without calling LINE, Kakao or
+ * Firebase. Like Line/server/app.js it answers in CBOR when the client prefers it.
+ *
+ * A {@link Behavior} can make it slow or unreliable: every /verifyToken response is delayed by
+ * a base latency plus jitter, some by a much longer tail latency, and some requests fail with an
+ * error status or a connection that is cut before the response is complete. Responses are
+ * delayed on a timer rather than by sleeping, so thousands of slow requests don't need
+ * thousands of threads.
+ *
+ * Started with an SSLContext, e.g. from {@link StandInTls}, it serves HTTPS and counts full
+ * and resumed TLS handshakes, one per connection that sent a /verifyToken request.
+ */
+class StandInVerifyTokenServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static {
+        // Without TCP_NODELAY the body written after the headers waits for a delayed ACK,
+        // adding ~40 ms to every response on a fresh connection. Node doesn't do that.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /**
+     * Latency and failures of the stand-in server. Immutable, create it with {@link Builder}.
+     */
+    static final class Behavior {
+
+        /** Answers right away and never fails. */
+        static final Behavior FAST = new Builder().build();
+
+        final long mLatencyMs;
+        final long mJitterMs;
+        final double mSlowRate;
+        final long mSlowLatencyMs;
+        final double mErrorRate;
+        final int mErrorStatus;
+        final double mDropRate;
+
+        private Behavior(Builder builder) {
+            mLatencyMs = builder.mLatencyMs;
+            mJitterMs = builder.mJitterMs;
+            mSlowRate = builder.mSlowRate;
+            mSlowLatencyMs = builder.mSlowLatencyMs;
+            mErrorRate = builder.mErrorRate;
+            mErrorStatus = builder.mErrorStatus;
+            mDropRate = builder.mDropRate;
+        }
+
+        @Override
+        public String toString() {
+            return "latency " + mLatencyMs + "+" + mJitterMs + " ms, " + percent(mSlowRate) + " at "
+                    + mSlowLatencyMs + " ms, " + percent(mErrorRate) + " " + mErrorStatus + ", "
+                    + percent(mDropRate) + " dropped";
+        }
+
+        private static String percent(double rate) {
+            return String.format("%.1f%%", rate * 100);
+        }
+
+        static final class Builder {
+
+            private long mLatencyMs;
+            private long mJitterMs;
+            private double mSlowRate;
+            private long mSlowLatencyMs;
+            private double mErrorRate;
+            private int mErrorStatus = 503;
+            private double mDropRate;
+
+            /**
+             * @param latencyMs Time every response takes, e.g. the provider and Firebase calls
+             * @param jitterMs Upper bound of a uniformly random extra delay
+             */
+            Builder setLatency(long latencyMs, long jitterMs) {
+                mLatencyMs = latencyMs;
+                mJitterMs = jitterMs;
+                return this;
+            }
+
+            /**
+             * @param rate Share of responses, between 0 and 1, that take slowLatencyMs instead
+             */
+            Builder setSlowResponses(double rate, long slowLatencyMs) {
+                mSlowRate = checkRate(rate);
+                mSlowLatencyMs = slowLatencyMs;
+                return this;
+            }
+
+            /**
+             * @param rate Share of requests, between 0 and 1, answered with status
+             * @param status e.g. 503 for an overloaded server or 403 for a rejected token
+             */
+            Builder setErrors(double rate, int status) {
+                mErrorRate = checkRate(rate);
+                mErrorStatus = status;
+                return this;
+            }
+
+            /**
+             * @param rate Share of requests, between 0 and 1, whose connection is closed
+             *             halfway through the response
+             */
+            Builder setDropRate(double rate) {
+                mDropRate = checkRate(rate);
+                return this;
+            }
+
+            Behavior build() {
+                return new Behavior(this);
+            }
+
+            private static double checkRate(double rate) {
+                if (rate < 0 || rate > 1) {
+                    throw new IllegalArgumentException("rate must be in [0, 1]");
+                }
+                return rate;
+            }
+        }
+    }
+
+    private final byte[] mJsonResponse;
+    private final byte[] mCborResponse;
+    private final Behavior mBehavior;
+    private final Random mRandom = new Random();
+    private final AtomicLong mRequests = new AtomicLong();
+    // TLS session ids seen so far, and the session of each connection by client port
+    private final Set<String> mSessionIds = new HashSet<>();
+    private final Map<Integer, String> mConnectionSessions = new HashMap<>();
+    private long mFullHandshakes;
+    private long mResumedHandshakes;
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+    private ScheduledExecutorService mTimer;
+
+    StandInVerifyTokenServer(String firebaseToken) {
+        this(firebaseToken, Behavior.FAST);
+    }
+
+    StandInVerifyTokenServer(String firebaseToken, Behavior behavior) {
+        mJsonResponse = ("{\"" + VerifyTokenCodec.FIREBASE_TOKEN_FIELD + "\":\"" + firebaseToken + "\"}")
+                .getBytes(UTF_8);
+        mCborResponse = BenchmarkTokens.encodeCborResponse(firebaseToken);
+        mBehavior = behavior;
+    }
+
+    /**
+     * @return Base URL of the server, e.g. http://127.0.0.1:54321
+     */
+    String start() throws IOException {
+        return start(null);
+    }
+
+    /**
+     * @param sslContext Context with the server's key, or null to serve plain HTTP
+     * @return Base URL of the server, e.g. https://127.0.0.1:54321
+     */
+    String start(SSLContext sslContext) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (sslContext != null) {
+            HttpsServer server = HttpsServer.create(address, 0);
+            server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+            mServer = server;
+        } else {
+            mServer = HttpServer.create(address, 0);
+        }
+        mExecutor = Executors.newCachedThreadPool();
+        mTimer = Executors.newSingleThreadScheduledExecutor();
+        mServer.setExecutor(mExecutor);
+        mServer.createContext(VerifyTokenCodec.PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                mRequests.incrementAndGet();
+                if (exchange instanceof HttpsExchange) {
+                    countHandshake((HttpsExchange) exchange);
+                }
+                drain(exchange.getRequestBody());
+                long delayMs = nextDelayMs();
+                if (delayMs <= 0) {
+                    respond(exchange);
+                    return;
+                }
+                mTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            respond(exchange);
+                        } catch (IOException e) {
+                            // The client gave up on the request, nothing left to answer
+                            exchange.close();
+                        }
+                    }
+                }, delayMs, TimeUnit.MILLISECONDS);
+            }
+        });
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Like app.js, answers GET / so clients can check the server is up
+                drain(exchange.getRequestBody());
+                send(exchange, 200, null, "Server is up and running!".getBytes(UTF_8));
+            }
+        });
+        mServer.start();
+        return (sslContext != null ? "https" : "http") + "://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    void stop() {
+        mServer.stop(0);
+        mTimer.shutdownNow();
+        mExecutor.shutdownNow();
+    }
+
+    Behavior getBehavior() {
+        return mBehavior;
+    }
+
+    /**
+     * @return /verifyToken requests received so far, retries and hedged requests included
+     */
+    long getRequestCount() {
+        return mRequests.get();
+    }
+
+    /**
+     * @return TLS handshakes that set up a new session
+     */
+    synchronized long getFullHandshakeCount() {
+        return mFullHandshakes;
+    }
+
+    /**
+     * @return TLS handshakes that resumed a session of an earlier connection, one round trip
+     *         shorter than a full TLS 1.2 handshake
+     */
+    synchronized long getResumedHandshakeCount() {
+        return mResumedHandshakes;
+    }
+
+    private synchronized void countHandshake(HttpsExchange exchange) {
+        String sessionId = Arrays.toString(exchange.getSSLSession().getId());
+        String previous = mConnectionSessions.put(exchange.getRemoteAddress().getPort(), sessionId);
+        if (sessionId.equals(previous)) {
+            // Another request on a kept-alive connection, no handshake
+            return;
+        }
+        if (mSessionIds.add(sessionId)) {
+            mFullHandshakes++;
+        } else {
+            mResumedHandshakes++;
+        }
+    }
+
+    private long nextDelayMs() {
+        synchronized (mRandom) {
+            if (mBehavior.mSlowRate > 0 && mRandom.nextDouble() < mBehavior.mSlowRate) {
+                return mBehavior.mSlowLatencyMs;
+            }
+            long jitterMs = mBehavior.mJitterMs > 0 ? (long) (mRandom.nextDouble() * mBehavior.mJitterMs) : 0;
+            return mBehavior.mLatencyMs + jitterMs;
+        }
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        double roll;
+        synchronized (mRandom) {
+            roll = mRandom.nextDouble();
+        }
+        if (roll < mBehavior.mDropRate) {
+            drop(exchange);
+            return;
+        }
+        if (roll < mBehavior.mDropRate + mBehavior.mErrorRate) {
+            // Line/server/app.js answers errors with an error_message, clients only look at
+            // the status
+            send(exchange, mBehavior.mErrorStatus, VerifyTokenCodec.CONTENT_TYPE_JSON,
+                    "{\"error_message\":\"Injected failure\"}".getBytes(UTF_8));
+            return;
+        }
+
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        boolean cbor = accept != null && accept.startsWith(VerifyTokenCodec.CONTENT_TYPE_CBOR);
+        send(exchange, 200, cbor ? VerifyTokenCodec.CONTENT_TYPE_CBOR : VerifyTokenCodec.CONTENT_TYPE_JSON,
+                cbor ? mCborResponse : mJsonResponse);
+    }
+
+    /**
+     * Announce a full response but close the connection after half of it, the client sees an
+     * I/O error like it would for a connection reset by a proxy.
+     */
+    private void drop(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", VerifyTokenCodec.CONTENT_TYPE_JSON);
+        exchange.sendResponseHeaders(200, mJsonResponse.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(mJsonResponse, 0, mJsonResponse.length / 2);
+        out.flush();
+        // Closing with bytes missing makes the server close the connection as well
+        exchange.close();
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        if (contentType != null) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        try {
+            while (in.read(buffer) != -1) {
+                // Discard, the stand-in answers every request the same way
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.customauth.exchange;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * What a stored TLS session saves the first exchange after a cold start.
+ *
+ * Every exchange opens a new HTTPS connection to the stand-in server, like the first exchange
+ * of a process does. With fullHandshake every connection gets a new client SSLContext, i.e. a
+ * process without stored sessions, which is how the apps started before they kept their TLS
+ * sessions in an SSLSessionCache on disk. With resumed all connections share one context, whose
+ * session cache plays the part of the one on disk, so the server resumes the session. The
+ * handshake counts of the server are printed at the end of each run.
+ *
+ * On loopback the difference is the CPU time of the key exchange. Over a mobile network the
+ * resumed handshake also saves a round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TlsResumptionBenchmark {
+
+    @Param({"fullHandshake", "resumed"})
+    public String session;
+
+    private StandInVerifyTokenServer mServer;
+    private URL mVerifyUrl;
+    private SSLContext mSharedContext;
+    private SSLSocketFactory mSocketFactory;
+    private byte[] mBody;
+
+    @Setup
+    public void setUp() throws Exception {
+        // Every exchange is the first one on its connection. JMH forks a JVM per parameter
+        // combination, so this doesn't leak into other benchmarks.
+        System.setProperty("http.keepAlive", "false");
+        mServer = new StandInVerifyTokenServer(BenchmarkTokens.customToken());
+        mVerifyUrl = new URL(mServer.start(StandInTls.serverContext()) + VerifyTokenCodec.PATH);
+        mSharedContext = StandInTls.clientContext();
+        mBody = VerifyTokenCodec.encodeRequest(BenchmarkTokens.accessToken(), false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        long full = mServer.getFullHandshakeCount();
+        long resumed = mServer.getResumedHandshakeCount();
+        System.out.println(session + ": " + full + " full and " + resumed + " resumed TLS handshakes, "
+                + resumed + " round trips saved");
+        mServer.stop();
+    }
+
+    @Setup(Level.Invocation)
+    public void startProcess() throws Exception {
+        mSocketFactory = "resumed".equals(session)
+                ? mSharedContext.getSocketFactory()
+                : StandInTls.clientContext().getSocketFactory();
+    }
+
+    @Benchmark
+    public String exchange() throws Exception {
+        HttpsURLConnection connection = (HttpsURLConnection) mVerifyUrl.openConnection();
+        // What HurlStack does with the SSLSocketFactory it is created with
+        connection.setSSLSocketFactory(mSocketFactory);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(mBody.length);
+        connection.setRequestProperty("Content-Type", VerifyTokenCodec.CONTENT_TYPE_JSON);
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(mBody);
+        } finally {
+            out.close();
+        }
+        byte[] response = UrlConnectionTransport.readFully(connection.getInputStream());
+        return VerifyTokenCodec.decodeResponse(response, connection.getContentType());
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * Cost of building the /verifyToken request body and reading the token out of the response.
+ *
+ * The jsonObject benchmarks are the baseline: they do what Volley's JsonObjectRequest does with
+ * org.json. The others use {@link VerifyTokenCodec}.
+ */
+@State(Scope.Benchmark)
+public class VerifyTokenCodecBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private String mAccessToken;
+    private byte[] mJsonResponse;
+    private byte[] mCborResponse;
+
+    @Setup
+    public void setUp() {
+        mAccessToken = BenchmarkTokens.accessToken();
+        mJsonResponse = BenchmarkTokens.responseBody().getBytes(UTF_8);
+        mCborResponse = BenchmarkTokens.cborResponseBody();
+    }
+
+    @Benchmark
+    public byte[] encodeRequestJsonObject() {
+        // new JSONObject(HashMap) followed by JsonObjectRequest.getBody()
+        HashMap<String, String> validationObject = new HashMap<>();
+        validationObject.put(VerifyTokenCodec.TOKEN_FIELD, mAccessToken);
+        return new JSONObject(validationObject).toString().getBytes(UTF_8);
+    }
+
+    @Benchmark
+    public String decodeResponseJsonObject() throws Exception {
+        // JsonObjectRequest.parseNetworkResponse() followed by response.getString()
+        JSONObject response = new JSONObject(new String(mJsonResponse, UTF_8));
+        return response.getString(VerifyTokenCodec.FIREBASE_TOKEN_FIELD);
+    }
+
+    @Benchmark
+    public byte[] encodeRequestJson() {
+        return VerifyTokenCodec.encodeRequestJson(mAccessToken);
+    }
+
+    @Benchmark
+    public String decodeResponseJson() throws Exception {
+        return VerifyTokenCodec.decodeResponseJson(mJsonResponse);
+    }
+
+    @Benchmark
+    public byte[] encodeRequestCbor() {
+        return VerifyTokenCodec.encodeRequestCbor(mAccessToken);
+    }
+
+    @Benchmark
+    public String decodeResponseCbor() throws Exception {
+        return VerifyTokenCodec.decodeResponseCbor(mCborResponse);
+    }
+}
@@ -0,0 +1,448 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import com.google.firebase.customauth.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives thousands of concurrent token exchanges against {@link StandInVerifyTokenServer}s and
+ * reports throughput, queueing delay and tail latency, so dispatcher counts and
+ * {@link ExchangePolicy}s can be compared without LINE, Kakao or Firebase:
+ *
+ * <pre>
+ * ./gradlew :exchange:loadTest -PloadTestArgs="exchanges=20000 dispatchers=8 errorRate=0.05"
+ * </pre>
+ *
+ * Retries, backoff and hedging are the apps' own: every exchange is an {@link ExchangeCall}
+ * with the same {@link ExchangePolicy} and {@link EndpointSelector}, run on a single "main"
+ * thread. Only its transport stands in for Volley, which only runs on Android. Requests wait
+ * in a FIFO queue for one of a fixed number of dispatcher threads, like requests added with
+ * AuthNetwork.add wait for Volley's NetworkDispatchers. Each dispatcher sends the request with
+ * {@link UrlConnectionTransport#perform}, the way HurlStack sends a VerifyTokenRequest.
+ *
+ * Options are name=value pairs, see {@link #DEFAULTS}.
+ */
+public class VerifyTokenLoadGenerator {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        // Exchanges to run, and how many of them are in progress at once
+        DEFAULTS.put("exchanges", "5000");
+        DEFAULTS.put("concurrency", "1000");
+        // Volley's default number of NetworkDispatcher threads
+        DEFAULTS.put("dispatchers", "4");
+        // Stand-in servers, each one behaving as configured below
+        DEFAULTS.put("servers", "1");
+        DEFAULTS.put("latencyMs", "50");
+        DEFAULTS.put("jitterMs", "50");
+        DEFAULTS.put("slowRate", "0.01");
+        DEFAULTS.put("slowMs", "1500");
+        DEFAULTS.put("errorRate", "0.02");
+        DEFAULTS.put("errorStatus", "503");
+        DEFAULTS.put("dropRate", "0.005");
+        // ExchangePolicy, hedgePercentile=0 disables hedging
+        DEFAULTS.put("deadlineMs", "10000");
+        DEFAULTS.put("attemptTimeoutMs", "2500");
+        DEFAULTS.put("maxAttempts", "3");
+        DEFAULTS.put("hedgePercentile", "0");
+    }
+
+    private final int mExchangeCount;
+    private final int mConcurrency;
+    private final int mDispatcherCount;
+    private final ExchangePolicy mPolicy;
+    private final List<StandInVerifyTokenServer> mServers = new ArrayList<>();
+    private EndpointSelector mEndpoints;
+
+    private final BlockingQueue<QueuedRequest> mQueue = new LinkedBlockingQueue<>();
+    private final List<Thread> mDispatchers = new ArrayList<>();
+    private final ScheduledExecutorService mMain = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "main");
+                }
+            });
+    private final ExchangeCall.Transport mTransport = new QueueTransport();
+    private final ExchangeCall.Scheduler mScheduler = new ExecutorScheduler(mMain);
+    private final Semaphore mPermits;
+    private final CountDownLatch mFinished;
+
+    // Same sharing as in TokenExchangeClient: one per process
+    private final LatencyHistogram mAttemptLatency = new LatencyHistogram();
+    private final String mAccessToken = BenchmarkTokens.accessToken();
+
+    private final Samples mQueueDelays = new Samples();
+    private final Samples mAttemptTimes = new Samples();
+    private final Samples mExchangeTimes = new Samples();
+    private final Map<FailureKind, AtomicLong> mFailures = new EnumMap<>(FailureKind.class);
+    private final AtomicLong mSucceeded = new AtomicLong();
+    private final AtomicLong mRequestsSent = new AtomicLong();
+    private final AtomicLong mHedgesSent = new AtomicLong();
+    private final AtomicLong mHedgeWins = new AtomicLong();
+    private final AtomicLong mSkipped = new AtomicLong();
+
+    VerifyTokenLoadGenerator(Map<String, String> options) {
+        mExchangeCount = Integer.parseInt(options.get("exchanges"));
+        mConcurrency = Integer.parseInt(options.get("concurrency"));
+        mDispatcherCount = Integer.parseInt(options.get("dispatchers"));
+        mPermits = new Semaphore(mConcurrency);
+        mFinished = new CountDownLatch(mExchangeCount);
+
+        ExchangePolicy.Builder policy = new ExchangePolicy.Builder()
+                .setDeadlineMs(Long.parseLong(options.get("deadlineMs")))
+                .setAttemptTimeoutMs(Long.parseLong(options.get("attemptTimeoutMs")))
+                .setMaxAttempts(Integer.parseInt(options.get("maxAttempts")));
+        double hedgePercentile = Double.parseDouble(options.get("hedgePercentile"));
+        if (hedgePercentile > 0) {
+            policy.setHedgePercentile(hedgePercentile);
+        }
+        mPolicy = policy.build();
+
+        StandInVerifyTokenServer.Behavior behavior = new StandInVerifyTokenServer.Behavior.Builder()
+                .setLatency(Long.parseLong(options.get("latencyMs")), Long.parseLong(options.get("jitterMs")))
+                .setSlowResponses(Double.parseDouble(options.get("slowRate")), Long.parseLong(options.get("slowMs")))
+                .setErrors(Double.parseDouble(options.get("errorRate")), Integer.parseInt(options.get("errorStatus")))
+                .setDropRate(Double.parseDouble(options.get("dropRate")))
+                .build();
+        int serverCount = Integer.parseInt(options.get("servers"));
+        for (int i = 0; i < serverCount; i++) {
+            mServers.add(new StandInVerifyTokenServer(BenchmarkTokens.customToken(), behavior));
+        }
+        for (FailureKind failure : FailureKind.values()) {
+            mFailures.put(failure, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new VerifyTokenLoadGenerator(parseOptions(args)).run();
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            String name = separator > 0 ? arg.substring(0, separator) : arg;
+            if (separator <= 0 || !DEFAULTS.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected name=value with "
+                        + "name one of " + DEFAULTS.keySet());
+            }
+            options.put(name, arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    void run() throws Exception {
+        List<String> urls = new ArrayList<>();
+        for (StandInVerifyTokenServer server : mServers) {
+            urls.add(server.start() + VerifyTokenCodec.PATH);
+        }
+        mEndpoints = new EndpointSelector(urls);
+        for (int i = 0; i < mDispatcherCount; i++) {
+            Thread dispatcher = new Thread(new Dispatcher(), "dispatcher-" + i);
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            mDispatchers.add(dispatcher);
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            for (int i = 0; i < mExchangeCount; i++) {
+                // Closed loop: a new exchange starts whenever one of the running ones finishes
+                mPermits.acquire();
+                mMain.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        new Exchange().start();
+                    }
+                });
+            }
+            mFinished.await();
+            long elapsedNanos = System.nanoTime() - startNanos;
+            report(elapsedNanos);
+        } finally {
+            for (Thread dispatcher : mDispatchers) {
+                dispatcher.interrupt();
+            }
+            mMain.shutdownNow();
+            for (StandInVerifyTokenServer server : mServers) {
+                server.stop();
+            }
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long served = 0;
+        for (StandInVerifyTokenServer server : mServers) {
+            served += server.getRequestCount();
+        }
+
+        System.out.println("Servers:   " + mServers.size() + " x " + getBehavior());
+        System.out.println("Client:    " + mDispatcherCount + " dispatchers, " + mConcurrency
+                + " exchanges in progress, deadline " + mPolicy.getDeadlineMs() + " ms, "
+                + mPolicy.getMaxAttempts() + " attempts of " + mPolicy.getAttemptTimeoutMs() + " ms, "
+                + (mPolicy.isHedgingEnabled() ? "hedging" : "no hedging"));
+        System.out.println(String.format("Exchanges: %d in %.2f s, %.1f/s, %d succeeded, failed: %s",
+                mExchangeCount, seconds, mExchangeCount / seconds, mSucceeded.get(), getFailureCounts()));
+        System.out.println(String.format("Requests:  %d sent (%.2f per exchange), %d hedged (%d answered first), "
+                        + "%d cancelled while queued, %d reached a server",
+                mRequestsSent.get(), (double) mRequestsSent.get() / mExchangeCount, mHedgesSent.get(),
+                mHedgeWins.get(), mSkipped.get(), served));
+        System.out.println();
+        System.out.println(String.format("%-14s %9s %9s %9s %9s %9s %9s", "ms",
+                "mean", "p50", "p90", "p99", "p99.9", "max"));
+        printRow("queue delay", mQueueDelays);
+        printRow("attempt", mAttemptTimes);
+        printRow("exchange", mExchangeTimes);
+    }
+
+    private String getBehavior() {
+        return mServers.isEmpty() ? "" : mServers.get(0).getBehavior().toString();
+    }
+
+    private String getFailureCounts() {
+        StringBuilder counts = new StringBuilder();
+        for (Map.Entry<FailureKind, AtomicLong> entry : mFailures.entrySet()) {
+            if (entry.getValue().get() > 0) {
+                counts.append(counts.length() > 0 ? ", " : "").append(entry.getKey()).append('=')
+                        .append(entry.getValue().get());
+            }
+        }
+        return counts.length() > 0 ? counts.toString() : "none";
+    }
+
+    private static void printRow(String name, Samples samples) {
+        long[] sorted = samples.sorted();
+        System.out.println(String.format("%-14s %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f", name,
+                samples.meanMs(), percentileMs(sorted, 50), percentileMs(sorted, 90),
+                percentileMs(sorted, 99), percentileMs(sorted, 99.9),
+                sorted.length > 0 ? sorted[sorted.length - 1] / 1e6 : 0));
+    }
+
+    private static double percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+
+    /**
+     * A request on its way through the queue, like a VerifyTokenRequest on the auth queue. It
+     * keeps the outcome until it is delivered on the main thread.
+     */
+    private static final class QueuedRequest implements ExchangeCall.Cancellable, ExchangeCall.Callback {
+        final String mUrl;
+        final String mAccessToken;
+        final boolean mCborBody;
+        final int mTimeoutMs;
+        final ExchangeCall.Callback mCallback;
+        final long mEnqueuedNanos = System.nanoTime();
+        // Like Request.cancel(): a queued request is skipped, a sent one is just not delivered
+        volatile boolean mCancelled;
+
+        // Outcome, written by the dispatcher before it is posted to the main thread
+        VerifyTokenResponse mResponse;
+        boolean mCborResponse;
+        Exception mError;
+        FailureKind mFailure;
+        int mStatusCode;
+
+        QueuedRequest(String url, String accessToken, boolean cborBody, int timeoutMs,
+                      ExchangeCall.Callback callback) {
+            mUrl = url;
+            mAccessToken = accessToken;
+            mCborBody = cborBody;
+            mTimeoutMs = timeoutMs;
+            mCallback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        @Override
+        public void onResponse(VerifyTokenResponse response, boolean cborResponse) {
+            mResponse = response;
+            mCborResponse = cborResponse;
+        }
+
+        @Override
+        public void onFailure(Exception error, FailureKind failure, int statusCode) {
+            mError = error;
+            mFailure = failure;
+            mStatusCode = statusCode;
+        }
+    }
+
+    /**
+     * Puts the requests of the {@link ExchangeCall}s on the queue, like VolleyExchangeTransport
+     * adds them to the auth queue.
+     */
+    private final class QueueTransport implements ExchangeCall.Transport {
+
+        @Override
+        public ExchangeCall.Cancellable send(String url, String accessToken, boolean cborBody,
+                                             int timeoutMs, ExchangeCall.Callback callback) {
+            QueuedRequest request = new QueuedRequest(url, accessToken, cborBody, timeoutMs, callback);
+            mRequestsSent.incrementAndGet();
+            mQueue.add(request);
+            return request;
+        }
+    }
+
+    /**
+     * Takes requests off the queue and sends them one at a time, like a NetworkDispatcher.
+     */
+    private final class Dispatcher implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                final QueuedRequest request;
+                try {
+                    request = mQueue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (request.mCancelled) {
+                    mSkipped.incrementAndGet();
+                    continue;
+                }
+
+                long sentNanos = System.nanoTime();
+                mQueueDelays.add(sentNanos - request.mEnqueuedNanos);
+                UrlConnectionTransport.perform(request.mUrl, request.mAccessToken, request.mCborBody,
+                        request.mTimeoutMs, request);
+                mAttemptTimes.add(System.nanoTime() - sentNanos);
+
+                // Volley delivers responses on the main thread, unless the request was cancelled
+                try {
+                    mMain.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (request.mCancelled) {
+                                return;
+                            }
+                            if (request.mFailure == null) {
+                                request.mCallback.onResponse(request.mResponse, request.mCborResponse);
+                            } else {
+                                request.mCallback.onFailure(request.mError, request.mFailure, request.mStatusCode);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Every exchange has finished, this was a cancelled hedge or attempt
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * One token exchange, run by the same {@link ExchangeCall} as in the apps.
+     */
+    private final class Exchange implements ExchangeCall.Listener {
+
+        private final long mStartNanos = System.nanoTime();
+        private final ExchangeCall mCall = new ExchangeCall(mTransport, mScheduler, mEndpoints,
+                mAccessToken, mPolicy, mAttemptLatency, this);
+
+        void start() {
+            mCall.start();
+        }
+
+        @Override
+        public void onAttemptFailed(String endpoint, boolean hedge, Exception error, FailureKind failure) {
+        }
+
+        @Override
+        public void onSuccess(VerifyTokenResponse response) {
+            if (mCall.isAnsweredByHedge()) {
+                mHedgeWins.incrementAndGet();
+            }
+            mSucceeded.incrementAndGet();
+            finish();
+        }
+
+        @Override
+        public void onFailure(Exception error, FailureKind failure) {
+            mFailures.get(failure).incrementAndGet();
+            finish();
+        }
+
+        private void finish() {
+            mHedgesSent.addAndGet(mCall.getHedgeCount());
+            mExchangeTimes.add(System.nanoTime() - mStartNanos);
+            mPermits.release();
+            mFinished.countDown();
+        }
+    }
+
+    /**
+     * Every recorded duration in nanoseconds, so tail percentiles are exact rather than
+     * rounded to the buckets of a {@link LatencyHistogram}.
+     */
+    private static final class Samples {
+        private long[] mValues = new long[1024];
+        private int mSize;
+
+        synchronized void add(long nanos) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = nanos;
+        }
+
+        synchronized long[] sorted() {
+            long[] sorted = Arrays.copyOf(mValues, mSize);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        synchronized double meanMs() {
+            if (mSize == 0) {
+                return 0;
+            }
+            double total = 0;
+            for (int i = 0; i < mSize; i++) {
+                total += mValues[i];
+            }
+            return total / mSize / 1e6;
+        }
+    }
+}
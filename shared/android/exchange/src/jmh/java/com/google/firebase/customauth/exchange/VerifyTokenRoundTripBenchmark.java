@@ -0,0 +1,94 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+/**
+ * Full /verifyToken exchange over HttpURLConnection, the stack Volley's HurlStack uses, against
+ * an in-process stand-in server. Connections are kept alive between invocations like they are
+ * in the apps.
+ *
+ * The jsonObject codec is the baseline doing what Volley's JsonObjectRequest does, json and cbor
+ * use {@link VerifyTokenCodec}.
+ */
+@State(Scope.Benchmark)
+public class VerifyTokenRoundTripBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Param({"jsonObject", "json", "cbor"})
+    public String codec;
+
+    private StandInVerifyTokenServer mServer;
+    private URL mUrl;
+    private String mAccessToken;
+
+    @Setup
+    public void setUp() throws Exception {
+        mServer = new StandInVerifyTokenServer(BenchmarkTokens.customToken());
+        mUrl = new URL(mServer.start() + VerifyTokenCodec.PATH);
+        mAccessToken = BenchmarkTokens.accessToken();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Benchmark
+    public String exchange() throws Exception {
+        boolean baseline = "jsonObject".equals(codec);
+        boolean cbor = "cbor".equals(codec);
+        byte[] body = baseline
+                ? new JSONObject().put(VerifyTokenCodec.TOKEN_FIELD, mAccessToken).toString().getBytes(UTF_8)
+                : VerifyTokenCodec.encodeRequest(mAccessToken, cbor);
+
+        HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type",
+                cbor ? VerifyTokenCodec.CONTENT_TYPE_CBOR : VerifyTokenCodec.CONTENT_TYPE_JSON);
+        if (cbor) {
+            connection.setRequestProperty("Accept", VerifyTokenCodec.ACCEPT);
+        }
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+
+        byte[] response = UrlConnectionTransport.readFully(connection.getInputStream());
+        if (baseline) {
+            return new JSONObject(new String(response, UTF_8)).getString(VerifyTokenCodec.FIREBASE_TOKEN_FIELD);
+        }
+        return VerifyTokenCodec.decodeResponse(response, connection.getContentType());
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Cost of {@link RequestTrace#record(int, int, int)}, alone and with the dispatcher threads of
+ * both queues recording at once. The GC profiler should report no allocation per operation.
+ */
+@State(Scope.Benchmark)
+public class RequestTraceBenchmark {
+
+    private RequestTrace mTrace;
+    private int mKind;
+
+    @Setup
+    public void setUp() {
+        mTrace = new RequestTrace(RequestTrace.DEFAULT_CAPACITY);
+        mKind = mTrace.registerKind("verifyToken");
+    }
+
+    @Benchmark
+    public void record() {
+        mTrace.record(41, mKind, RequestTrace.HTTP_COMPLETE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        mTrace.record(41, mKind, RequestTrace.HTTP_COMPLETE);
+    }
+}
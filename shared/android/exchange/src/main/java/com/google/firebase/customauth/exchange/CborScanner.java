@@ -0,0 +1,202 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import java.io.IOException;
+
+/**
+ * Pull scanner over a CBOR (RFC 7049) map. It reads just far enough to find one text field and
+ * skips every other item without decoding it. Indefinite-length items are not supported, the
+ * validation server never sends them. Use one scanner per field.
+ */
+final class CborScanner {
+
+    private static final int INDEFINITE_LENGTH = 31;
+    private static final int MAJOR_SIMPLE = 7;
+    private static final int SIMPLE_NULL = 22;
+    // Far deeper than any response, shallow enough that skipping can't overflow the stack
+    private static final int MAX_DEPTH = 32;
+
+    private final byte[] mData;
+    private int mPosition;
+
+    // Major type and argument of the item header read last
+    private int mMajorType;
+    private long mArgument;
+
+    CborScanner(byte[] data) {
+        mData = data;
+    }
+
+    /**
+     * @param key UTF-8 bytes of the top-level text key to look for
+     * @return Value of the field, which must be a text string
+     * @throws IOException if the input is malformed or the field is missing
+     */
+    String findText(byte[] key) throws IOException {
+        return findText(key, true);
+    }
+
+    /**
+     * @param key UTF-8 bytes of the top-level text key to look for
+     * @return Value of the field, or null if it is missing, null or not text
+     * @throws IOException if the input is malformed
+     */
+    String findOptionalText(byte[] key) throws IOException {
+        return findText(key, false);
+    }
+
+    private String findText(byte[] key, boolean required) throws IOException {
+        readHeader();
+        if (mMajorType != CborWriter.MAJOR_MAP) {
+            throw error("Expected a map");
+        }
+        long entries = mArgument;
+        for (long i = 0; i < entries; i++) {
+            readHeader();
+            boolean matches = mMajorType == CborWriter.MAJOR_TEXT && matchesPayload(key);
+            skipRest(1);
+            if (matches) {
+                readHeader();
+                if (mMajorType != CborWriter.MAJOR_TEXT) {
+                    if (required) {
+                        throw error("Expected a text string");
+                    }
+                    // Null, or a type a newer server might send, an optional field isn't worth
+                    // rejecting the token for
+                    skipRest(1);
+                    return null;
+                }
+                int length = payloadLength();
+                String value = new String(mData, mPosition, length, VerifyTokenCodec.UTF_8);
+                mPosition += length;
+                return value;
+            }
+            skipItem(1);
+        }
+        if (required) {
+            throw new IOException("Response has no " + new String(key, VerifyTokenCodec.UTF_8));
+        }
+        return null;
+    }
+
+    private boolean matchesPayload(byte[] expected) throws IOException {
+        int length = payloadLength();
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mData[mPosition + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skip the next complete item, including everything nested in it.
+     *
+     * @param depth Nesting depth of the item, 1 for the values of the top-level map
+     */
+    private void skipItem(int depth) throws IOException {
+        readHeader();
+        skipRest(depth);
+    }
+
+    /**
+     * Skip whatever follows the item header read last.
+     */
+    private void skipRest(int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw error("Nested deeper than " + MAX_DEPTH);
+        }
+        switch (mMajorType) {
+            case CborWriter.MAJOR_BYTES:
+            case CborWriter.MAJOR_TEXT:
+                mPosition += payloadLength();
+                break;
+            case CborWriter.MAJOR_ARRAY:
+                skipItems(mArgument, depth + 1);
+                break;
+            case CborWriter.MAJOR_MAP:
+                skipItems(mArgument * 2, depth + 1);
+                break;
+            case CborWriter.MAJOR_TAG:
+                skipItem(depth + 1);
+                break;
+            default:
+                // Integers, simple values and floats carry everything in their header
+                break;
+        }
+    }
+
+    private void skipItems(long count, int depth) throws IOException {
+        for (long i = 0; i < count; i++) {
+            skipItem(depth);
+        }
+    }
+
+    private int payloadLength() throws IOException {
+        if (mArgument > mData.length - mPosition) {
+            throw error("Unexpected end of input");
+        }
+        return (int) mArgument;
+    }
+
+    private void readHeader() throws IOException {
+        int initial = readByte();
+        mMajorType = initial >>> 5;
+        int additional = initial & 0x1f;
+        if (additional < 24) {
+            mArgument = additional;
+        } else if (additional == 24) {
+            mArgument = readUnsigned(1);
+        } else if (additional == 25) {
+            mArgument = readUnsigned(2);
+        } else if (additional == 26) {
+            mArgument = readUnsigned(4);
+        } else if (additional == 27) {
+            mArgument = readUnsigned(8);
+            if (mArgument < 0) {
+                throw error("Argument too large");
+            }
+        } else if (additional == INDEFINITE_LENGTH) {
+            throw error("Indefinite-length items are not supported");
+        } else {
+            throw error("Reserved additional information " + additional);
+        }
+    }
+
+    private long readUnsigned(int bytes) throws IOException {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    private int readByte() throws IOException {
+        if (mPosition >= mData.length) {
+            throw error("Unexpected end of input");
+        }
+        return mData[mPosition++] & 0xff;
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at offset " + mPosition);
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import java.util.Arrays;
+
+/**
+ * Writes the small subset of CBOR (RFC 7049) the /verifyToken request needs: definite-length
+ * maps and text strings.
+ */
+final class CborWriter {
+
+    static final int MAJOR_BYTES = 2;
+    static final int MAJOR_TEXT = 3;
+    static final int MAJOR_ARRAY = 4;
+    static final int MAJOR_MAP = 5;
+    static final int MAJOR_TAG = 6;
+
+    private byte[] mBuffer;
+    private int mSize;
+
+    CborWriter(int initialCapacity) {
+        mBuffer = new byte[initialCapacity];
+    }
+
+    void writeMapHeader(int entries) {
+        writeHeader(MAJOR_MAP, entries);
+    }
+
+    void writeText(byte[] utf8) {
+        writeHeader(MAJOR_TEXT, utf8.length);
+        ensureCapacity(utf8.length);
+        System.arraycopy(utf8, 0, mBuffer, mSize, utf8.length);
+        mSize += utf8.length;
+    }
+
+    byte[] toByteArray() {
+        return mSize == mBuffer.length ? mBuffer : Arrays.copyOf(mBuffer, mSize);
+    }
+
+    private void writeHeader(int majorType, int argument) {
+        ensureCapacity(5);
+        int type = majorType << 5;
+        if (argument < 24) {
+            mBuffer[mSize++] = (byte) (type | argument);
+        } else if (argument < 0x100) {
+            mBuffer[mSize++] = (byte) (type | 24);
+            mBuffer[mSize++] = (byte) argument;
+        } else if (argument < 0x10000) {
+            mBuffer[mSize++] = (byte) (type | 25);
+            mBuffer[mSize++] = (byte) (argument >> 8);
+            mBuffer[mSize++] = (byte) argument;
+        } else {
+            mBuffer[mSize++] = (byte) (type | 26);
+            mBuffer[mSize++] = (byte) (argument >> 24);
+            mBuffer[mSize++] = (byte) (argument >> 16);
+            mBuffer[mSize++] = (byte) (argument >> 8);
+            mBuffer[mSize++] = (byte) argument;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mSize + extra > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mSize + extra));
+        }
+    }
+}
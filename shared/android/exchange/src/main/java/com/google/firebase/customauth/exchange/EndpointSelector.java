@@ -0,0 +1,277 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picks which of several validation servers a /verifyToken attempt goes to.
+ *
+ * Every endpoint keeps an exponentially weighted moving average (EWMA) of its latency, and
+ * requests go to the healthy endpoint with the lowest average. A small share of requests goes to
+ * a random healthy endpoint instead, so the averages of the others don't go stale.
+ *
+ * Each endpoint also has a circuit breaker. After {@code failureThreshold} failures in a row
+ * the endpoint is ejected for {@code ejectionMs}. After that a single request is let through as
+ * a probe: if it succeeds the endpoint is back, if it fails it is ejected again. When every
+ * endpoint is ejected, the one that comes back soonest is used anyway, because failing fast is
+ * no better for a user who is waiting to log in.
+ *
+ * It also remembers which endpoints answer in CBOR, since servers behind the same selector can
+ * run different versions.
+ *
+ * Thread safe.
+ */
+public final class EndpointSelector {
+
+    public static final double DEFAULT_EWMA_WEIGHT = 0.3;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_EJECTION_MS = 30000;
+
+    private static final double EXPLORE_PROBABILITY = 0.05;
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final class Endpoint {
+        final String mUrl;
+        double mEwmaMs = -1;
+        int mConsecutiveFailures;
+        State mState = State.CLOSED;
+        long mOpenUntilMs;
+        boolean mProbeInFlight;
+        boolean mSupportsCbor;
+
+        Endpoint(String url) {
+            mUrl = url;
+        }
+    }
+
+    private final List<Endpoint> mEndpoints;
+    private final double mEwmaWeight;
+    private final int mFailureThreshold;
+    private final long mEjectionMs;
+    private final Random mRandom;
+
+    /**
+     * @param urls Endpoints in order of preference, used until their latency is known
+     */
+    public EndpointSelector(List<String> urls) {
+        this(urls, DEFAULT_EWMA_WEIGHT, DEFAULT_FAILURE_THRESHOLD, DEFAULT_EJECTION_MS);
+    }
+
+    /**
+     * @param ewmaWeight Weight of the newest sample in the latency average, between 0 and 1
+     * @param failureThreshold Failures in a row that eject an endpoint
+     * @param ejectionMs How long an ejected endpoint gets no traffic before it is probed
+     */
+    public EndpointSelector(List<String> urls, double ewmaWeight, int failureThreshold, long ejectionMs) {
+        this(urls, ewmaWeight, failureThreshold, ejectionMs, new Random());
+    }
+
+    /**
+     * @param random Decides which requests explore a random endpoint
+     */
+    EndpointSelector(List<String> urls, double ewmaWeight, int failureThreshold, long ejectionMs,
+            Random random) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        List<Endpoint> endpoints = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            endpoints.add(new Endpoint(url));
+        }
+        mEndpoints = Collections.unmodifiableList(endpoints);
+        mEwmaWeight = ewmaWeight;
+        mFailureThreshold = failureThreshold;
+        mEjectionMs = ejectionMs;
+        mRandom = random;
+    }
+
+    /**
+     * @param avoid Endpoint to skip if any other one is healthy, e.g. the one that just failed,
+     *              or null
+     * @return Endpoint for the next request, never null
+     */
+    public synchronized String select(String avoid) {
+        long now = nowMs();
+        List<Endpoint> healthy = new ArrayList<>(mEndpoints.size());
+        for (Endpoint endpoint : mEndpoints) {
+            if (endpoint.mState == State.OPEN && now >= endpoint.mOpenUntilMs) {
+                endpoint.mState = State.HALF_OPEN;
+            }
+            if (endpoint.mState == State.HALF_OPEN && !endpoint.mProbeInFlight
+                    && !endpoint.mUrl.equals(avoid)) {
+                endpoint.mProbeInFlight = true;
+                return endpoint.mUrl;
+            }
+            if (endpoint.mState == State.CLOSED && !endpoint.mUrl.equals(avoid)) {
+                healthy.add(endpoint);
+            }
+        }
+
+        if (healthy.isEmpty()) {
+            return fallback().mUrl;
+        }
+        if (healthy.size() > 1 && mRandom.nextDouble() < EXPLORE_PROBABILITY) {
+            return healthy.get(mRandom.nextInt(healthy.size())).mUrl;
+        }
+        Endpoint best = null;
+        for (Endpoint endpoint : healthy) {
+            if (best == null || isFaster(endpoint, best)) {
+                best = endpoint;
+            }
+        }
+        return best.mUrl;
+    }
+
+    /**
+     * @return The endpoint the next request would most likely go to, without counting as a
+     *         request, e.g. to warm up a connection to it
+     */
+    public synchronized String peek() {
+        Endpoint best = null;
+        for (Endpoint endpoint : mEndpoints) {
+            if (endpoint.mState == State.CLOSED && (best == null || isFaster(endpoint, best))) {
+                best = endpoint;
+            }
+        }
+        return best != null ? best.mUrl : fallback().mUrl;
+    }
+
+    public synchronized void onSuccess(String url, long latencyMs) {
+        Endpoint endpoint = find(url);
+        if (endpoint == null) {
+            return;
+        }
+        endpoint.mEwmaMs = endpoint.mEwmaMs < 0
+                ? latencyMs
+                : mEwmaWeight * latencyMs + (1 - mEwmaWeight) * endpoint.mEwmaMs;
+        endpoint.mConsecutiveFailures = 0;
+        endpoint.mProbeInFlight = false;
+        endpoint.mState = State.CLOSED;
+    }
+
+    /**
+     * Report a failure that says something about the endpoint's health, i.e. not a rejected
+     * provider token.
+     */
+    public synchronized void onFailure(String url) {
+        Endpoint endpoint = find(url);
+        if (endpoint == null) {
+            return;
+        }
+        endpoint.mConsecutiveFailures++;
+        endpoint.mProbeInFlight = false;
+        if (endpoint.mState == State.HALF_OPEN || endpoint.mConsecutiveFailures >= mFailureThreshold) {
+            endpoint.mState = State.OPEN;
+            endpoint.mOpenUntilMs = nowMs() + mEjectionMs;
+        }
+    }
+
+    /**
+     * Report that a request ended without telling anything about the endpoint, e.g. it was
+     * cancelled because a hedged twin answered first.
+     */
+    public synchronized void onAbandoned(String url) {
+        Endpoint endpoint = find(url);
+        if (endpoint != null) {
+            endpoint.mProbeInFlight = false;
+        }
+    }
+
+    /**
+     * @return Whether url has answered in CBOR, so a request to it can send CBOR too. False
+     *         until it has answered at all, older servers only parse JSON.
+     */
+    public synchronized boolean supportsCbor(String url) {
+        Endpoint endpoint = find(url);
+        return endpoint != null && endpoint.mSupportsCbor;
+    }
+
+    /**
+     * @param supportsCbor Whether url answered in CBOR, or false if it rejected a CBOR body
+     */
+    public synchronized void setSupportsCbor(String url, boolean supportsCbor) {
+        Endpoint endpoint = find(url);
+        if (endpoint != null) {
+            endpoint.mSupportsCbor = supportsCbor;
+        }
+    }
+
+    /**
+     * @return Latency average of url in ms, or -1 if it hasn't answered yet
+     */
+    public synchronized double getLatencyEwmaMs(String url) {
+        Endpoint endpoint = find(url);
+        return endpoint == null ? -1 : endpoint.mEwmaMs;
+    }
+
+    public synchronized boolean isEjected(String url) {
+        Endpoint endpoint = find(url);
+        return endpoint != null && endpoint.mState != State.CLOSED;
+    }
+
+    public List<String> getEndpoints() {
+        List<String> urls = new ArrayList<>(mEndpoints.size());
+        for (Endpoint endpoint : mEndpoints) {
+            urls.add(endpoint.mUrl);
+        }
+        return urls;
+    }
+
+    private static boolean isFaster(Endpoint candidate, Endpoint best) {
+        // Unmeasured endpoints keep their configured order behind measured ones
+        if (candidate.mEwmaMs < 0) {
+            return false;
+        }
+        return best.mEwmaMs < 0 || candidate.mEwmaMs < best.mEwmaMs;
+    }
+
+    /**
+     * @return The avoided endpoint if it is healthy, otherwise the one that comes back soonest
+     */
+    private Endpoint fallback() {
+        Endpoint soonest = null;
+        for (Endpoint endpoint : mEndpoints) {
+            if (endpoint.mState == State.CLOSED) {
+                return endpoint;
+            }
+            if (soonest == null || endpoint.mOpenUntilMs < soonest.mOpenUntilMs) {
+                soonest = endpoint;
+            }
+        }
+        return soonest;
+    }
+
+    private Endpoint find(String url) {
+        for (Endpoint endpoint : mEndpoints) {
+            if (endpoint.mUrl.equals(url)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import com.google.firebase.customauth.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A single token exchange, retried and hedged according to an {@link ExchangePolicy}. Each
+ * request goes to the endpoint the {@link EndpointSelector} picks, a retry preferably to another
+ * endpoint than the one that just failed, and each outcome is reported back to the selector.
+ *
+ * Requests send CBOR to endpoints that have answered in CBOR before, see
+ * {@link EndpointSelector#supportsCbor(String)}. If an endpoint rejects a CBOR body with 415 or
+ * 400, e.g. because it was rolled back to a version that only parses JSON, the request is sent
+ * to it again in JSON right away. That happens once per call and doesn't count as an attempt.
+ *
+ * How a request is sent and how time passes is up to a {@link Transport} and a
+ * {@link Scheduler}, so the same state machine runs on Volley in the apps and on
+ * HttpURLConnection in the load generator. The transport must not retry on its own, this class
+ * decides when to try again.
+ *
+ * Not thread safe: all state is only touched on the scheduler's thread. The transport calls
+ * back on it and the listener is called on it.
+ */
+public final class ExchangeCall {
+
+    private static final Random sRandom = new Random();
+
+    /**
+     * A request in flight or a scheduled task.
+     */
+    public interface Cancellable {
+        void cancel();
+    }
+
+    /**
+     * Sends a single POST to /verifyToken.
+     */
+    public interface Transport {
+        /**
+         * @param cborBody Send the body as CBOR, else as JSON
+         * @param timeoutMs Time the request may take
+         * @param callback Called once on the scheduler's thread, unless the request is cancelled
+         *                 before
+         */
+        Cancellable send(String url, String accessToken, boolean cborBody, int timeoutMs, Callback callback);
+    }
+
+    public interface Callback {
+        /**
+         * @param cborResponse Whether the server answered in CBOR
+         */
+        void onResponse(VerifyTokenResponse response, boolean cborResponse);
+
+        /**
+         * @param statusCode HTTP status of the response, or 0 if there was none
+         */
+        void onFailure(Exception error, FailureKind failure, int statusCode);
+    }
+
+    /**
+     * Runs the retries and hedges on the thread the transport calls back on.
+     */
+    public interface Scheduler {
+        /**
+         * @return Monotonic time in ms
+         */
+        long nowMs();
+
+        Cancellable schedule(Runnable task, long delayMs);
+    }
+
+    public interface Listener {
+        /**
+         * A request failed, the call may still retry or be answered by a hedged twin.
+         */
+        void onAttemptFailed(String endpoint, boolean hedge, Exception error, FailureKind failure);
+
+        void onSuccess(VerifyTokenResponse response);
+
+        /**
+         * @param error Error of the last attempt, or a {@link TimeoutException} if the deadline
+         *              passed
+         */
+        void onFailure(Exception error, FailureKind failure);
+    }
+
+    private final Transport mTransport;
+    private final Scheduler mScheduler;
+    private final EndpointSelector mEndpoints;
+    private final String mAccessToken;
+    private final ExchangePolicy mPolicy;
+    private final LatencyHistogram mAttemptLatency;
+    private final Listener mListener;
+
+    private final List<Attempt> mOutstanding = new ArrayList<>();
+    private long mDeadline;
+    private int mAttempts;
+    private int mHedges;
+    private boolean mAnsweredByHedge;
+    private String mLastFailedEndpoint;
+    private boolean mSentJsonFallback;
+    private Cancellable mPendingAttempt;
+    private Cancellable mPendingHedge;
+    private boolean mDone;
+
+    private final Runnable mSendAttempt = new Runnable() {
+        @Override
+        public void run() {
+            mPendingAttempt = null;
+            sendAttempt();
+        }
+    };
+
+    private final Runnable mSendHedge = new Runnable() {
+        @Override
+        public void run() {
+            mPendingHedge = null;
+            // Only hedge an attempt that is still the only one waiting for an answer
+            if (!mDone && mOutstanding.size() == 1) {
+                mHedges++;
+                send(true);
+            }
+        }
+    };
+
+    /**
+     * @param endpoints Shared across calls, with the health and the CBOR support of each endpoint
+     * @param attemptLatency Latency of successful attempts, read to pick the hedge delay and
+     *                       updated with this call's attempts
+     */
+    public ExchangeCall(Transport transport, Scheduler scheduler, EndpointSelector endpoints,
+                        String accessToken, ExchangePolicy policy,
+                        LatencyHistogram attemptLatency, Listener listener) {
+        mTransport = transport;
+        mScheduler = scheduler;
+        mEndpoints = endpoints;
+        mAccessToken = accessToken;
+        mPolicy = policy;
+        mAttemptLatency = attemptLatency;
+        mListener = listener;
+    }
+
+    /**
+     * Send the first attempt from the scheduler's thread. The listener hears about the outcome.
+     */
+    public void start() {
+        mDeadline = mScheduler.nowMs() + mPolicy.getDeadlineMs();
+        mPendingAttempt = mScheduler.schedule(mSendAttempt, 0);
+    }
+
+    /**
+     * @return Attempts sent so far, hedged requests not included
+     */
+    public int getAttemptCount() {
+        return mAttempts;
+    }
+
+    /**
+     * @return Hedged requests sent so far
+     */
+    public int getHedgeCount() {
+        return mHedges;
+    }
+
+    /**
+     * @return Whether the call succeeded with the answer to a hedged request
+     */
+    public boolean isAnsweredByHedge() {
+        return mAnsweredByHedge;
+    }
+
+    private void sendAttempt() {
+        cancelHedge();
+        mAttempts++;
+        int timeoutMs = send(false);
+        // A transport may call back right away, e.g. when it can't send at all
+        if (timeoutMs > 0 && !mDone && mPolicy.isHedgingEnabled()) {
+            long hedgeDelayMs = mPolicy.getHedgeDelayMs(mAttemptLatency);
+            if (hedgeDelayMs < timeoutMs) {
+                mPendingHedge = mScheduler.schedule(mSendHedge, hedgeDelayMs);
+            }
+        }
+    }
+
+    /**
+     * @return Timeout of the request that was sent, or 0 if the deadline has passed
+     */
+    private int send(boolean hedge) {
+        // A hedged request should not wait on the same slow server as the attempt it hedges
+        String avoid = hedge ? mOutstanding.get(0).mEndpoint : mLastFailedEndpoint;
+        return send(mEndpoints.select(avoid), hedge);
+    }
+
+    private int send(String endpoint, boolean hedge) {
+        long remainingMs = mDeadline - mScheduler.nowMs();
+        if (remainingMs <= 0) {
+            fail(new TimeoutException("Deadline of " + mPolicy.getDeadlineMs() + " ms passed"),
+                    FailureKind.TIMEOUT);
+            return 0;
+        }
+        int timeoutMs = (int) Math.min(mPolicy.getAttemptTimeoutMs(), remainingMs);
+
+        Attempt attempt = new Attempt(endpoint, hedge, mEndpoints.supportsCbor(endpoint));
+        mOutstanding.add(attempt);
+        attempt.mRequest = mTransport.send(attempt.mEndpoint, mAccessToken, attempt.mCborBody,
+                timeoutMs, attempt);
+        return timeoutMs;
+    }
+
+    private void onAttemptFailed(Exception error, FailureKind failure) {
+        if (!mOutstanding.isEmpty()) {
+            // The hedged twin of this attempt may still succeed
+            return;
+        }
+        cancelHedge();
+
+        if (!mPolicy.isRetryable(failure) || mAttempts >= mPolicy.getMaxAttempts()) {
+            fail(error, failure);
+            return;
+        }
+        long backoffMs = mPolicy.getBackoffMs(mAttempts, sRandom);
+        if (mScheduler.nowMs() + backoffMs >= mDeadline) {
+            fail(error, failure);
+            return;
+        }
+        mPendingAttempt = mScheduler.schedule(mSendAttempt, backoffMs);
+    }
+
+    private void succeed(VerifyTokenResponse response) {
+        finish();
+        mListener.onSuccess(response);
+    }
+
+    private void fail(Exception error, FailureKind failure) {
+        finish();
+        mListener.onFailure(error, failure);
+    }
+
+    private void finish() {
+        mDone = true;
+        if (mPendingAttempt != null) {
+            mPendingAttempt.cancel();
+            mPendingAttempt = null;
+        }
+        cancelHedge();
+        for (Attempt attempt : mOutstanding) {
+            if (attempt.mRequest != null) {
+                attempt.mRequest.cancel();
+            }
+            mEndpoints.onAbandoned(attempt.mEndpoint);
+        }
+        mOutstanding.clear();
+    }
+
+    private void cancelHedge() {
+        if (mPendingHedge != null) {
+            mPendingHedge.cancel();
+            mPendingHedge = null;
+        }
+    }
+
+    private class Attempt implements Callback {
+
+        private final long mSentAt = mScheduler.nowMs();
+        private final String mEndpoint;
+        private final boolean mHedge;
+        private final boolean mCborBody;
+        private Cancellable mRequest;
+
+        Attempt(String endpoint, boolean hedge, boolean cborBody) {
+            mEndpoint = endpoint;
+            mHedge = hedge;
+            mCborBody = cborBody;
+        }
+
+        @Override
+        public void onResponse(VerifyTokenResponse response, boolean cborResponse) {
+            if (!mOutstanding.remove(this) || mDone) {
+                return;
+            }
+            long latencyMs = mScheduler.nowMs() - mSentAt;
+            mAttemptLatency.record(latencyMs);
+            mEndpoints.onSuccess(mEndpoint, latencyMs);
+            mEndpoints.setSupportsCbor(mEndpoint, cborResponse);
+            mAnsweredByHedge = mHedge;
+            succeed(response);
+        }
+
+        @Override
+        public void onFailure(Exception error, FailureKind failure, int statusCode) {
+            if (!mOutstanding.remove(this) || mDone) {
+                return;
+            }
+            mListener.onAttemptFailed(mEndpoint, mHedge, error, failure);
+            if (mCborBody && (statusCode == 415 || statusCode == 400) && !mSentJsonFallback) {
+                // The endpoint doesn't parse CBOR (any more), which says nothing about the token
+                mSentJsonFallback = true;
+                mEndpoints.setSupportsCbor(mEndpoint, false);
+                mEndpoints.onAbandoned(mEndpoint);
+                send(mEndpoint, mHedge);
+                return;
+            }
+            if (failure == FailureKind.CLIENT_ERROR) {
+                // The server is fine, it just didn't accept the provider token
+                mEndpoints.onAbandoned(mEndpoint);
+            } else {
+                mEndpoints.onFailure(mEndpoint);
+            }
+            mLastFailedEndpoint = mEndpoint;
+            onAttemptFailed(error, failure);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import com.google.firebase.customauth.metrics.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * How hard the client tries to exchange a token before giving up.
+ *
+ * <ul>
+ *   <li>Every exchange has a total deadline. No attempt outlives it and no retry starts after it.</li>
+ *   <li>Failed attempts are retried with exponential backoff and full jitter, but only for the
+ *       {@link FailureKind}s listed in {@link Builder#setRetryOn(Set)}.</li>
+ *   <li>Optionally a hedged second request is sent when an attempt hasn't been answered by the
+ *       time most exchanges have, see {@link Builder#setHedgePercentile(double)}. Whichever
+ *       answers first wins and the other one is cancelled.</li>
+ * </ul>
+ *
+ * Policies are immutable, create them with {@link Builder}.
+ */
+public final class ExchangePolicy {
+
+    /** 10 s total, 2.5 s per attempt, 3 attempts, retries after ~250 ms and ~500 ms, no hedging. */
+    public static final ExchangePolicy DEFAULT = new Builder().build();
+
+    private final long mDeadlineMs;
+    private final long mAttemptTimeoutMs;
+    private final int mMaxAttempts;
+    private final long mInitialBackoffMs;
+    private final long mMaxBackoffMs;
+    private final double mBackoffMultiplier;
+    private final Set<FailureKind> mRetryOn;
+    private final double mHedgePercentile;
+    private final long mMinHedgeDelayMs;
+    private final long mMinHedgeSamples;
+
+    private ExchangePolicy(Builder builder) {
+        mDeadlineMs = builder.mDeadlineMs;
+        mAttemptTimeoutMs = builder.mAttemptTimeoutMs;
+        mMaxAttempts = builder.mMaxAttempts;
+        mInitialBackoffMs = builder.mInitialBackoffMs;
+        mMaxBackoffMs = builder.mMaxBackoffMs;
+        mBackoffMultiplier = builder.mBackoffMultiplier;
+        mRetryOn = Collections.unmodifiableSet(EnumSet.copyOf(builder.mRetryOn));
+        mHedgePercentile = builder.mHedgePercentile;
+        mMinHedgeDelayMs = builder.mMinHedgeDelayMs;
+        mMinHedgeSamples = builder.mMinHedgeSamples;
+    }
+
+    public long getDeadlineMs() {
+        return mDeadlineMs;
+    }
+
+    public long getAttemptTimeoutMs() {
+        return mAttemptTimeoutMs;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    public boolean isRetryable(FailureKind failure) {
+        return mRetryOn.contains(failure);
+    }
+
+    /**
+     * @param attempt Number of the attempt that just failed, starting at 1
+     * @return How long to wait before the next attempt, a random value between 0 and the
+     *         exponentially growing cap ("full jitter"), so clients that failed together don't
+     *         retry together
+     */
+    public long getBackoffMs(int attempt, Random random) {
+        double cap = mInitialBackoffMs * Math.pow(mBackoffMultiplier, Math.max(0, attempt - 1));
+        long capMs = (long) Math.min(cap, mMaxBackoffMs);
+        if (capMs <= 0) {
+            return 0;
+        }
+        return (long) (random.nextDouble() * capMs);
+    }
+
+    public boolean isHedgingEnabled() {
+        return mHedgePercentile > 0;
+    }
+
+    /**
+     * @param latency Latency of successful attempts so far
+     * @return How long to wait for an answer before sending a hedged request. Until enough
+     *         attempts have been seen this is the minimum hedge delay.
+     */
+    public long getHedgeDelayMs(LatencyHistogram latency) {
+        if (latency == null || latency.getCount() < mMinHedgeSamples) {
+            return mMinHedgeDelayMs;
+        }
+        return Math.max(mMinHedgeDelayMs, latency.getPercentileMs(mHedgePercentile));
+    }
+
+    public static final class Builder {
+
+        private long mDeadlineMs = 10000;
+        private long mAttemptTimeoutMs = 2500;
+        private int mMaxAttempts = 3;
+        private long mInitialBackoffMs = 250;
+        private long mMaxBackoffMs = 2000;
+        private double mBackoffMultiplier = 2;
+        private Set<FailureKind> mRetryOn = EnumSet.of(
+                FailureKind.TIMEOUT, FailureKind.CONNECTION, FailureKind.SERVER_UNAVAILABLE);
+        private double mHedgePercentile = 0;
+        private long mMinHedgeDelayMs = 500;
+        private long mMinHedgeSamples = 20;
+
+        /**
+         * @param deadlineMs Time the whole exchange may take, retries and backoff included
+         */
+        public Builder setDeadlineMs(long deadlineMs) {
+            mDeadlineMs = deadlineMs;
+            return this;
+        }
+
+        /**
+         * @param attemptTimeoutMs Time a single request may take, capped by what is left of the
+         *                         deadline
+         */
+        public Builder setAttemptTimeoutMs(long attemptTimeoutMs) {
+            mAttemptTimeoutMs = attemptTimeoutMs;
+            return this;
+        }
+
+        /**
+         * @param maxAttempts Attempts including the first one, 1 disables retries. Hedged
+         *                    requests don't count as attempts.
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1");
+            }
+            mMaxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param initialBackoffMs Upper bound of the wait before the first retry
+         * @param multiplier Growth of that bound per retry
+         * @param maxBackoffMs Upper bound of any wait
+         */
+        public Builder setBackoff(long initialBackoffMs, double multiplier, long maxBackoffMs) {
+            mInitialBackoffMs = initialBackoffMs;
+            mBackoffMultiplier = multiplier;
+            mMaxBackoffMs = maxBackoffMs;
+            return this;
+        }
+
+        /**
+         * @param retryOn Failures that are worth another attempt
+         */
+        public Builder setRetryOn(Set<FailureKind> retryOn) {
+            mRetryOn = EnumSet.noneOf(FailureKind.class);
+            mRetryOn.addAll(retryOn);
+            return this;
+        }
+
+        /**
+         * @param percentile Send a hedged request once an attempt has taken longer than this
+         *                   percentile of successful attempts, e.g. 95. 0 disables hedging.
+         */
+        public Builder setHedgePercentile(double percentile) {
+            if (percentile < 0 || percentile >= 100) {
+                throw new IllegalArgumentException("percentile must be in [0, 100)");
+            }
+            mHedgePercentile = percentile;
+            return this;
+        }
+
+        /**
+         * @param minHedgeDelayMs Never hedge earlier than this, and wait this long until
+         *                        minSamples attempts have succeeded
+         * @param minSamples Successful attempts needed before the percentile is trusted
+         */
+        public Builder setMinHedgeDelay(long minHedgeDelayMs, long minSamples) {
+            mMinHedgeDelayMs = minHedgeDelayMs;
+            mMinHedgeSamples = minSamples;
+            return this;
+        }
+
+        public ExchangePolicy build() {
+            return new ExchangePolicy(this);
+        }
+    }
+}
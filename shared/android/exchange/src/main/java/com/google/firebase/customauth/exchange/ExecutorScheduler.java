@@ -0,0 +1,53 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ExchangeCall.Scheduler} on a single-threaded executor standing in for the main
+ * thread, the JVM counterpart of the apps' MainThreadScheduler.
+ */
+public final class ExecutorScheduler implements ExchangeCall.Scheduler {
+
+    private final ScheduledExecutorService mThread;
+
+    /**
+     * @param thread Executor with a single thread, so calls never run concurrently
+     */
+    public ExecutorScheduler(ScheduledExecutorService thread) {
+        mThread = thread;
+    }
+
+    @Override
+    public long nowMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @Override
+    public ExchangeCall.Cancellable schedule(Runnable task, long delayMs) {
+        final ScheduledFuture<?> future = mThread.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        return new ExchangeCall.Cancellable() {
+            @Override
+            public void cancel() {
+                future.cancel(false);
+            }
+        };
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+/**
+ * Why a /verifyToken attempt failed, as far as retrying is concerned.
+ *
+ * Exchanging a token is idempotent: the server verifies the provider token and gets or creates
+ * the same Firebase user every time, so repeating a request that may or may not have reached
+ * the server is safe. What is not worth repeating is a request the server has already rejected.
+ */
+public enum FailureKind {
+    /** No answer within the attempt timeout. */
+    TIMEOUT,
+    /** DNS, connect, TLS or I/O error before a complete response arrived. */
+    CONNECTION,
+    /** 429, 502, 503 or 504: the server or a proxy in front of it asks to come back later. */
+    SERVER_UNAVAILABLE,
+    /** Any other 5xx. */
+    SERVER_ERROR,
+    /** 4xx, e.g. an invalid or expired provider token. Retrying gives the same answer. */
+    CLIENT_ERROR,
+    /** 2xx without a usable token. */
+    MALFORMED_RESPONSE;
+
+    /**
+     * @param statusCode HTTP status code of a failed response
+     */
+    public static FailureKind forStatus(int statusCode) {
+        if (statusCode == 429 || statusCode == 502 || statusCode == 503 || statusCode == 504) {
+            return SERVER_UNAVAILABLE;
+        }
+        if (statusCode >= 500) {
+            return SERVER_ERROR;
+        }
+        if (statusCode >= 400) {
+            return CLIENT_ERROR;
+        }
+        return MALFORMED_RESPONSE;
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import java.io.IOException;
+
+/**
+ * Minimal pull scanner over a UTF-8 JSON object. It reads just far enough to find one string
+ * field and skips every other value without materializing it. Use one scanner per field.
+ */
+final class JsonScanner {
+
+    private final byte[] mData;
+    private int mPosition;
+
+    JsonScanner(byte[] data) {
+        mData = data;
+    }
+
+    /**
+     * @param key UTF-8 bytes of the top-level field to look for
+     * @return Value of the field, which must be a string
+     * @throws IOException if the input is malformed or the field is missing
+     */
+    String findString(byte[] key) throws IOException {
+        return findString(key, true);
+    }
+
+    /**
+     * @param key UTF-8 bytes of the top-level field to look for
+     * @return Value of the field, or null if it is missing, null or not a string
+     * @throws IOException if the input is malformed
+     */
+    String findOptionalString(byte[] key) throws IOException {
+        return findString(key, false);
+    }
+
+    private String findString(byte[] key, boolean required) throws IOException {
+        expect('{');
+        if (peek() == '}') {
+            return missing(key, required);
+        }
+        while (true) {
+            boolean matches = readKeyMatching(key);
+            expect(':');
+            if (matches) {
+                if (!required && peek() != '"') {
+                    // Null, or a type a newer server might send, an optional field isn't worth
+                    // rejecting the token for
+                    skipValue();
+                    return null;
+                }
+                // Stop here, whatever follows the value doesn't matter
+                return readString();
+            }
+            skipValue();
+
+            byte separator = next();
+            if (separator == '}') {
+                return missing(key, required);
+            } else if (separator != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private static String missing(byte[] key, boolean required) throws IOException {
+        if (required) {
+            throw new IOException("Response has no " + new String(key, VerifyTokenCodec.UTF_8));
+        }
+        return null;
+    }
+
+    private boolean readKeyMatching(byte[] key) throws IOException {
+        expect('"');
+        int start = mPosition;
+        int end = findStringEnd();
+        if (hasEscapes(start, end)) {
+            mPosition = start - 1;
+            return new String(key, VerifyTokenCodec.UTF_8).equals(readString());
+        }
+        mPosition = end + 1;
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (mData[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        int start = mPosition;
+        int end = findStringEnd();
+        mPosition = end + 1;
+        if (!hasEscapes(start, end)) {
+            return new String(mData, start, end - start, VerifyTokenCodec.UTF_8);
+        }
+        return unescape(start, end);
+    }
+
+    private void skipValue() throws IOException {
+        byte first = peek();
+        if (first == '"') {
+            mPosition++;
+            mPosition = findStringEnd() + 1;
+        } else if (first == '{' || first == '[') {
+            skipContainer();
+        } else {
+            // Number, true, false or null
+            while (mPosition < mData.length) {
+                byte b = mData[mPosition];
+                if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                    break;
+                }
+                mPosition++;
+            }
+        }
+    }
+
+    private void skipContainer() throws IOException {
+        int depth = 0;
+        while (mPosition < mData.length) {
+            byte b = mData[mPosition++];
+            if (b == '"') {
+                mPosition = findStringEnd() + 1;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (--depth == 0) {
+                    return;
+                }
+            }
+        }
+        throw error("Unterminated object or array");
+    }
+
+    /**
+     * @return Index of the closing quote of the string starting at the current position
+     */
+    private int findStringEnd() throws IOException {
+        int i = mPosition;
+        while (i < mData.length) {
+            byte b = mData[i];
+            if (b == '\\') {
+                i += 2;
+            } else if (b == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private boolean hasEscapes(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (mData[i] == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String unescape(int start, int end) throws IOException {
+        StringBuilder builder = new StringBuilder(end - start);
+        int runStart = start;
+        int i = start;
+        while (i < end) {
+            if (mData[i] != '\\') {
+                i++;
+                continue;
+            }
+            builder.append(new String(mData, runStart, i - runStart, VerifyTokenCodec.UTF_8));
+            if (i + 1 >= end) {
+                throw error("Bad escape");
+            }
+            byte escaped = mData[i + 1];
+            i += 2;
+            switch (escaped) {
+                case '"': builder.append('"'); break;
+                case '\\': builder.append('\\'); break;
+                case '/': builder.append('/'); break;
+                case 'b': builder.append('\b'); break;
+                case 'f': builder.append('\f'); break;
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 't': builder.append('\t'); break;
+                case 'u':
+                    if (i + 4 > end) {
+                        throw error("Bad unicode escape");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(
+                                new String(mData, i, 4, VerifyTokenCodec.UTF_8), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Bad unicode escape");
+                    }
+                    i += 4;
+                    break;
+                default:
+                    throw error("Bad escape");
+            }
+            runStart = i;
+        }
+        builder.append(new String(mData, runStart, end - runStart, VerifyTokenCodec.UTF_8));
+        return builder.toString();
+    }
+
+    private void expect(char expected) throws IOException {
+        if (next() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    private byte next() throws IOException {
+        byte b = peek();
+        mPosition++;
+        return b;
+    }
+
+    private byte peek() throws IOException {
+        while (mPosition < mData.length && isWhitespace(mData[mPosition])) {
+            mPosition++;
+        }
+        if (mPosition >= mData.length) {
+            throw error("Unexpected end of input");
+        }
+        return mData[mPosition];
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at offset " + mPosition);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /**
+     * @return value escaped so it can be written between double quotes in JSON
+     */
+    static String escape(String value) {
+        StringBuilder builder = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c < 0x20) {
+                replacement = String.format("\\u%04x", (int) c);
+            } else {
+                if (builder != null) {
+                    builder.append(c);
+                }
+                continue;
+            }
+            if (builder == null) {
+                // Tokens normally need no escaping, only copy once something must change
+                builder = new StringBuilder(value.length() + 16);
+                builder.append(value, 0, i);
+            }
+            builder.append(replacement);
+        }
+        return builder == null ? value : builder.toString();
+    }
+}
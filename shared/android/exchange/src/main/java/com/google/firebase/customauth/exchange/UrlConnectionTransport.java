@@ -0,0 +1,202 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link ExchangeCall.Transport} over HttpURLConnection for the JVM, where Volley doesn't run:
+ * the load generator, the benchmarks and the tests use it to drive {@link ExchangeCall} against
+ * stand-in servers.
+ *
+ * Requests are sent the way Volley's HurlStack sends a VerifyTokenRequest, with the same
+ * headers, body and timeouts, on one of the dispatcher threads. The outcome is handed to the
+ * callback thread, like Volley delivers responses on the main thread, unless the request was
+ * cancelled in the meantime.
+ */
+public final class UrlConnectionTransport implements ExchangeCall.Transport {
+
+    private final Executor mDispatchers;
+    private final Executor mCallbackThread;
+
+    /**
+     * @param dispatchers Threads the requests block on, like Volley's NetworkDispatchers
+     * @param callbackThread The {@link ExchangeCall.Scheduler}'s thread
+     */
+    public UrlConnectionTransport(Executor dispatchers, Executor callbackThread) {
+        mDispatchers = dispatchers;
+        mCallbackThread = callbackThread;
+    }
+
+    @Override
+    public ExchangeCall.Cancellable send(String url, String accessToken, boolean cborBody, int timeoutMs,
+                                         ExchangeCall.Callback callback) {
+        PendingRequest request = new PendingRequest(url, accessToken, cborBody, timeoutMs, callback);
+        mDispatchers.execute(request);
+        return request;
+    }
+
+    /**
+     * Send a request on the calling thread and call back on it once it is done.
+     */
+    public static void perform(String url, String accessToken, boolean cborBody, int timeoutMs,
+                               ExchangeCall.Callback callback) {
+        byte[] body = VerifyTokenCodec.encodeRequest(accessToken, cborBody);
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            // HurlStack applies the request timeout to connecting and to every read
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setUseCaches(false);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Accept", VerifyTokenCodec.ACCEPT);
+            connection.setRequestProperty("Content-Type",
+                    cborBody ? VerifyTokenCodec.CONTENT_TYPE_CBOR : VerifyTokenCodec.CONTENT_TYPE_JSON);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+
+            int status = connection.getResponseCode();
+            if (status < 200 || status > 299) {
+                InputStream error = connection.getErrorStream();
+                if (error != null) {
+                    readFully(error);
+                }
+                callback.onFailure(new IOException("HTTP " + status), FailureKind.forStatus(status), status);
+                return;
+            }
+            byte[] response = readFully(connection.getInputStream());
+            if (connection.getContentLength() >= 0 && response.length != connection.getContentLength()) {
+                // OkHttp behind Android's HttpURLConnection fails a cut-off body with an
+                // IOException, the JDK's just returns what arrived
+                disconnect(connection);
+                callback.onFailure(new IOException("Response cut off"), FailureKind.CONNECTION, 0);
+                return;
+            }
+            String contentType = connection.getContentType();
+            VerifyTokenResponse decoded;
+            try {
+                decoded = VerifyTokenCodec.decodeResponseWithProfile(response, contentType);
+            } catch (IOException e) {
+                callback.onFailure(e, FailureKind.MALFORMED_RESPONSE, status);
+                return;
+            }
+            callback.onResponse(decoded, VerifyTokenCodec.isCbor(contentType));
+        } catch (SocketTimeoutException e) {
+            disconnect(connection);
+            callback.onFailure(e, FailureKind.TIMEOUT, 0);
+        } catch (IOException e) {
+            disconnect(connection);
+            callback.onFailure(e, FailureKind.CONNECTION, 0);
+        }
+    }
+
+    /**
+     * Read in to the end and close it, which hands its connection back to the keep-alive pool.
+     */
+    static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static void disconnect(HttpURLConnection connection) {
+        // Don't hand a connection in an unknown state back to the keep-alive pool
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * A request waiting for or running on a dispatcher. Like Request.cancel() in Volley, a
+     * cancelled request that is still queued is skipped and a sent one is just not delivered.
+     */
+    private final class PendingRequest implements Runnable, ExchangeCall.Cancellable, ExchangeCall.Callback {
+
+        private final String mUrl;
+        private final String mAccessToken;
+        private final boolean mCborBody;
+        private final int mTimeoutMs;
+        private final ExchangeCall.Callback mCallback;
+        private volatile boolean mCancelled;
+
+        PendingRequest(String url, String accessToken, boolean cborBody, int timeoutMs,
+                       ExchangeCall.Callback callback) {
+            mUrl = url;
+            mAccessToken = accessToken;
+            mCborBody = cborBody;
+            mTimeoutMs = timeoutMs;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (!mCancelled) {
+                perform(mUrl, mAccessToken, mCborBody, mTimeoutMs, this);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        @Override
+        public void onResponse(final VerifyTokenResponse response, final boolean cborResponse) {
+            mCallbackThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onResponse(response, cborResponse);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onFailure(final Exception error, final FailureKind failure, final int statusCode) {
+            mCallbackThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onFailure(error, failure, statusCode);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Request and response format of the validation server's /verifyToken endpoint.
+ *
+ * The client POSTs {"token": "<provider access token>"} and the server answers with
+ * {"firebase_token": "<Firebase Custom Auth token>"}, optionally followed by the "display_name"
+ * and "photo_url" of the Firebase user. Servers that support it may answer in CBOR
+ * instead of JSON when the client lists application/cbor in its Accept header, and then also
+ * accept CBOR request bodies.
+ *
+ * Bodies are written straight to bytes and responses are scanned only until the token has been
+ * found, without building a JSON tree either way.
+ */
+public final class VerifyTokenCodec {
+
+    public static final String PATH = "/verifyToken";
+    public static final String TOKEN_FIELD = "token";
+    public static final String FIREBASE_TOKEN_FIELD = "firebase_token";
+    public static final String DISPLAY_NAME_FIELD = "display_name";
+    public static final String PHOTO_URL_FIELD = "photo_url";
+
+    public static final String CONTENT_TYPE_JSON = "application/json; charset=utf-8";
+    public static final String CONTENT_TYPE_CBOR = "application/cbor";
+    /** Prefer CBOR, fall back to JSON for servers that don't know about it. */
+    public static final String ACCEPT = "application/cbor, application/json;q=0.9";
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] JSON_REQUEST_PREFIX = ("{\"" + TOKEN_FIELD + "\":\"").getBytes(UTF_8);
+    private static final byte[] JSON_REQUEST_SUFFIX = "\"}".getBytes(UTF_8);
+    private static final byte[] TOKEN_FIELD_BYTES = TOKEN_FIELD.getBytes(UTF_8);
+    static final byte[] FIREBASE_TOKEN_FIELD_BYTES = FIREBASE_TOKEN_FIELD.getBytes(UTF_8);
+    private static final byte[] DISPLAY_NAME_FIELD_BYTES = DISPLAY_NAME_FIELD.getBytes(UTF_8);
+    private static final byte[] PHOTO_URL_FIELD_BYTES = PHOTO_URL_FIELD.getBytes(UTF_8);
+
+    private VerifyTokenCodec() {
+    }
+
+    /**
+     * @param accessToken Access token issued by the identity provider
+     * @param cbor True to encode the body as CBOR, false for JSON
+     * @return Request body for /verifyToken
+     */
+    public static byte[] encodeRequest(String accessToken, boolean cbor) {
+        return cbor ? encodeRequestCbor(accessToken) : encodeRequestJson(accessToken);
+    }
+
+    /**
+     * @param body Response body of /verifyToken
+     * @param contentType Content-Type of the response, may be null
+     * @return The Firebase Custom Auth token
+     * @throws IOException if the response is malformed or doesn't contain a token
+     */
+    public static String decodeResponse(byte[] body, String contentType) throws IOException {
+        return isCbor(contentType) ? decodeResponseCbor(body) : decodeResponseJson(body);
+    }
+
+    /**
+     * Like {@link #decodeResponse(byte[], String)}, but also reads the profile fields. A profile
+     * field that is missing, null or not a string comes back as null.
+     *
+     * @throws IOException if the response is malformed or doesn't contain a token
+     */
+    public static VerifyTokenResponse decodeResponseWithProfile(byte[] body, String contentType)
+            throws IOException {
+        if (isCbor(contentType)) {
+            return new VerifyTokenResponse(decodeResponseCbor(body),
+                    new CborScanner(body).findOptionalText(DISPLAY_NAME_FIELD_BYTES),
+                    new CborScanner(body).findOptionalText(PHOTO_URL_FIELD_BYTES));
+        }
+        return new VerifyTokenResponse(decodeResponseJson(body),
+                new JsonScanner(body).findOptionalString(DISPLAY_NAME_FIELD_BYTES),
+                new JsonScanner(body).findOptionalString(PHOTO_URL_FIELD_BYTES));
+    }
+
+    public static boolean isCbor(String contentType) {
+        // Media types are case-insensitive ASCII, compare without toLowerCase() and its default
+        // locale, which e.g. lowercases "I" to a dotless i in Turkish
+        return contentType != null
+                && contentType.regionMatches(true, 0, CONTENT_TYPE_CBOR, 0, CONTENT_TYPE_CBOR.length());
+    }
+
+    public static byte[] encodeRequestJson(String accessToken) {
+        byte[] token = JsonScanner.escape(accessToken).getBytes(UTF_8);
+        byte[] body = new byte[JSON_REQUEST_PREFIX.length + token.length + JSON_REQUEST_SUFFIX.length];
+        System.arraycopy(JSON_REQUEST_PREFIX, 0, body, 0, JSON_REQUEST_PREFIX.length);
+        System.arraycopy(token, 0, body, JSON_REQUEST_PREFIX.length, token.length);
+        System.arraycopy(JSON_REQUEST_SUFFIX, 0, body, JSON_REQUEST_PREFIX.length + token.length,
+                JSON_REQUEST_SUFFIX.length);
+        return body;
+    }
+
+    public static String decodeResponseJson(byte[] body) throws IOException {
+        return new JsonScanner(body).findString(FIREBASE_TOKEN_FIELD_BYTES);
+    }
+
+    public static byte[] encodeRequestCbor(String accessToken) {
+        byte[] token = accessToken.getBytes(UTF_8);
+        CborWriter writer = new CborWriter(16 + TOKEN_FIELD_BYTES.length + token.length);
+        writer.writeMapHeader(1);
+        writer.writeText(TOKEN_FIELD_BYTES);
+        writer.writeText(token);
+        return writer.toByteArray();
+    }
+
+    public static String decodeResponseCbor(byte[] body) throws IOException {
+        return new CborScanner(body).findText(FIREBASE_TOKEN_FIELD_BYTES);
+    }
+}
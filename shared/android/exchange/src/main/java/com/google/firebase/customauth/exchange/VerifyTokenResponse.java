@@ -0,0 +1,53 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+/**
+ * What /verifyToken answers: the Firebase Custom Auth token, plus the display name and photo
+ * of the Firebase user it signs in when the server includes them. Knowing the profile before
+ * the Firebase sign-in has finished lets the app fetch the photo and fill in the UI meanwhile.
+ */
+public final class VerifyTokenResponse {
+
+    private final String mFirebaseToken;
+    private final String mDisplayName;
+    private final String mPhotoUrl;
+
+    public VerifyTokenResponse(String firebaseToken, String displayName, String photoUrl) {
+        mFirebaseToken = firebaseToken;
+        mDisplayName = displayName;
+        mPhotoUrl = photoUrl;
+    }
+
+    public String getFirebaseToken() {
+        return mFirebaseToken;
+    }
+
+    /**
+     * @return Display name of the user, or null if the server didn't send it
+     */
+    public String getDisplayName() {
+        return mDisplayName;
+    }
+
+    /**
+     * @return URL of the user's photo, or null if the user has none or the server didn't send it
+     */
+    public String getPhotoUrl() {
+        return mPhotoUrl;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects the duration and outcome of every login stage into latency histograms, one per
+ * provider, stage and outcome, and forwards each stage to the registered
+ * {@link LoginMetricsListener}s.
+ *
+ * Usage:
+ * <pre>
+ *   StageTimer timer = LoginMetrics.getInstance().start("line", LoginStage.TOKEN_EXCHANGE);
+ *   ...
+ *   timer.success(); // or timer.failure(error)
+ * </pre>
+ */
+public final class LoginMetrics {
+
+    private static final LoginMetrics sInstance = new LoginMetrics();
+
+    private final CopyOnWriteArrayList<LoginMetricsListener> mListeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> mHistograms = new ConcurrentHashMap<>();
+
+    LoginMetrics() {
+    }
+
+    public static LoginMetrics getInstance() {
+        return sInstance;
+    }
+
+    public void addListener(LoginMetricsListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(LoginMetricsListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Start measuring a stage. Complete the returned timer when the stage succeeds or fails.
+     */
+    public StageTimer start(String provider, LoginStage stage) {
+        return new StageTimer(this, provider, stage);
+    }
+
+    void record(StageEvent event) {
+        String key = key(event.getProvider(), event.getStage(), event.getOutcome());
+        LatencyHistogram histogram = mHistograms.get(key);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = mHistograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(event.getDurationMs());
+
+        for (LoginMetricsListener listener : mListeners) {
+            listener.onStageCompleted(event);
+        }
+    }
+
+    /**
+     * @param outcome {@link StageEvent#OUTCOME_SUCCESS} or the simple class name of an error
+     * @return The histogram, or null if no such stage was recorded yet
+     */
+    public LatencyHistogram getHistogram(String provider, LoginStage stage, String outcome) {
+        return mHistograms.get(key(provider, stage, outcome));
+    }
+
+    /**
+     * @return Every histogram recorded so far, keyed by "provider/STAGE/outcome"
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableMap(new TreeMap<>(mHistograms));
+    }
+
+    /**
+     * Forget everything recorded so far. Listeners stay registered.
+     */
+    public void reset() {
+        mHistograms.clear();
+    }
+
+    private static String key(String provider, LoginStage stage, String outcome) {
+        return provider + "/" + stage + "/" + outcome;
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.metrics;
+
+/**
+ * The steps every custom auth login goes through.
+ */
+public enum LoginStage {
+    /** The user logs in with the identity provider's SDK and we get their access token. */
+    PROVIDER_LOGIN,
+    /** The provider access token is exchanged for a Firebase Custom Auth token. */
+    TOKEN_EXCHANGE,
+    /** The Firebase Custom Auth token is used to sign in to Firebase. */
+    FIREBASE_SIGN_IN
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring buffer of timestamped request lifecycle events, cheap enough to leave on in
+ * production builds.
+ *
+ * The buffer is allocated once. Recording an event packs a timestamp, the request id, the kind
+ * of request and the event into one slot of a preallocated array and allocates nothing. Once the buffer is
+ * full the oldest events are overwritten. {@link #dump()} turns what is left into a compact
+ * timeline per request, e.g. from a debug screen, dumpsys or a test:
+ *
+ * <pre>
+ *   #41 verifyToken @-1520.3 ms: queued 0.0, network-take 0.2, send 0.2, http-done 118.9,
+ *       parsed 119.3, posted 119.4, delivered 131.0
+ * </pre>
+ *
+ * Times of a request are in ms since its first event, and the @ offset is that first event's
+ * time relative to when the dump was taken.
+ *
+ * Each event is packed into a single long, written and read atomically, so writers never block
+ * each other or a dump and a dump never sees a torn event. A dump that races with writers may
+ * still show an event that is just being overwritten. Packing limits times to microseconds
+ * that wrap around after about 9.5 hours, request ids to their low 20 bits and the trace to 32
+ * kinds of request, which is plenty for a window of the last few seconds of traffic.
+ */
+public final class RequestTrace {
+
+    public static final int QUEUED = 0;
+    public static final int CACHE_TAKE = 1;
+    public static final int CACHE_HIT = 2;
+    public static final int CACHE_MISS = 3;
+    public static final int NETWORK_TAKE = 4;
+    public static final int SEND = 5;
+    public static final int HTTP_COMPLETE = 6;
+    public static final int PARSED = 7;
+    public static final int CACHE_WRITTEN = 8;
+    public static final int POSTED = 9;
+    public static final int ERROR_POSTED = 10;
+    public static final int CANCELLED = 11;
+    public static final int DELIVERED = 12;
+
+    private static final String[] EVENT_NAMES = {
+            "queued", "cache-take", "cache-hit", "cache-miss", "network-take", "send", "http-done",
+            "parsed", "cache-written", "posted", "error-posted", "cancelled",
+            "delivered"
+    };
+
+    /** Events kept by {@link #getInstance()}, 8 KB. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // Layout of a packed event, from the low bits up: event + 1 (0 marks an empty slot), kind,
+    // request id, microseconds since the trace was created
+    private static final int EVENT_BITS = 4;
+    private static final int KIND_BITS = 5;
+    private static final int ID_BITS = 20;
+    private static final int TIME_BITS = 64 - EVENT_BITS - KIND_BITS - ID_BITS;
+    private static final int KIND_SHIFT = EVENT_BITS;
+    private static final int ID_SHIFT = KIND_SHIFT + KIND_BITS;
+    private static final int TIME_SHIFT = ID_SHIFT + ID_BITS;
+    private static final long EVENT_MASK = (1L << EVENT_BITS) - 1;
+    private static final long KIND_MASK = (1L << KIND_BITS) - 1;
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+    private static final RequestTrace sInstance = new RequestTrace(DEFAULT_CAPACITY);
+
+    private final int mMask;
+    private final long mStartNanos = System.nanoTime();
+    private final AtomicLongArray mSlots;
+    private final AtomicLong mNextIndex = new AtomicLong();
+    private final AtomicInteger mNextRequestId = new AtomicInteger();
+    private final List<String> mKindNames = new CopyOnWriteArrayList<>();
+    private volatile boolean mEnabled = true;
+
+    /**
+     * @param capacity Events kept, a power of 2
+     */
+    public RequestTrace(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2");
+        }
+        mMask = capacity - 1;
+        mSlots = new AtomicLongArray(capacity);
+    }
+
+    public static RequestTrace getInstance() {
+        return sInstance;
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * @param name Shown in the dump for requests of this kind, e.g. "verifyToken"
+     * @return Kind to pass to {@link #record(int, int, int)}, the same for the same name
+     */
+    public synchronized int registerKind(String name) {
+        int kind = mKindNames.indexOf(name);
+        if (kind >= 0) {
+            return kind;
+        }
+        if (mKindNames.size() > KIND_MASK) {
+            throw new IllegalStateException("Too many request kinds");
+        }
+        mKindNames.add(name);
+        return mKindNames.size() - 1;
+    }
+
+    /**
+     * @return Id for a new request. The trace keeps its low 20 bits, unique for the last million
+     *     requests.
+     */
+    public int newRequestId() {
+        return mNextRequestId.incrementAndGet();
+    }
+
+    /**
+     * Record that request went through event now. Doesn't allocate.
+     */
+    public void record(int requestId, int kind, int event) {
+        if (!mEnabled) {
+            return;
+        }
+        long micros = (System.nanoTime() - mStartNanos) / 1000;
+        long packed = (micros & TIME_MASK) << TIME_SHIFT
+                | (requestId & ID_MASK) << ID_SHIFT
+                | (kind & KIND_MASK) << KIND_SHIFT
+                | (event + 1) & EVENT_MASK;
+        int slot = (int) (mNextIndex.getAndIncrement() & mMask);
+        mSlots.lazySet(slot, packed);
+    }
+
+    /**
+     * @return Timeline of every request with events still in the buffer, oldest request first
+     */
+    public String dump() {
+        long now = (System.nanoTime() - mStartNanos) / 1000;
+        long end = mNextIndex.get();
+        long start = Math.max(0, end - mSlots.length());
+
+        // Request id -> its events, in the order the requests were first seen
+        Map<Integer, StringBuilder> timelines = new LinkedHashMap<>();
+        Map<Integer, Long> firstTimes = new LinkedHashMap<>();
+        for (long index = start; index < end; index++) {
+            long packed = mSlots.get((int) (index & mMask));
+            if (packed == 0) {
+                continue;
+            }
+            long time = getTime(packed);
+            int requestId = getRequestId(packed);
+            int event = getEvent(packed);
+
+            StringBuilder timeline = timelines.get(requestId);
+            if (timeline == null) {
+                timeline = new StringBuilder();
+                timeline.append('#').append(requestId).append(' ')
+                        .append(getKindName(getKind(packed)))
+                        .append(" @-").append(formatMs(elapsedMicros(time, now))).append(" ms:");
+                timelines.put(requestId, timeline);
+                firstTimes.put(requestId, time);
+            } else {
+                timeline.append(',');
+            }
+            timeline.append(' ').append(getEventName(event)).append(' ')
+                    .append(formatMs(elapsedMicros(firstTimes.get(requestId), time)));
+        }
+
+        StringBuilder dump = new StringBuilder();
+        for (StringBuilder timeline : timelines.values()) {
+            dump.append(timeline).append('\n');
+        }
+        return dump.toString();
+    }
+
+    /**
+     * @return Events of requestId that are still in the buffer, oldest first. Meant for tests.
+     */
+    public List<Integer> getEvents(int requestId) {
+        List<Integer> events = new ArrayList<>();
+        long end = mNextIndex.get();
+        for (long index = Math.max(0, end - mSlots.length()); index < end; index++) {
+            long packed = mSlots.get((int) (index & mMask));
+            if (packed != 0 && getRequestId(packed) == (requestId & ID_MASK)) {
+                events.add(getEvent(packed));
+            }
+        }
+        return events;
+    }
+
+    public static String getEventName(int event) {
+        return event >= 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : String.valueOf(event);
+    }
+
+    private String getKindName(int kind) {
+        return kind >= 0 && kind < mKindNames.size() ? mKindNames.get(kind) : "?";
+    }
+
+    private static long getTime(long packed) {
+        return packed >>> TIME_SHIFT;
+    }
+
+    private static int getRequestId(long packed) {
+        return (int) (packed >>> ID_SHIFT & ID_MASK);
+    }
+
+    private static int getKind(long packed) {
+        return (int) (packed >>> KIND_SHIFT & KIND_MASK);
+    }
+
+    private static int getEvent(long packed) {
+        return (int) (packed & EVENT_MASK) - 1;
+    }
+
+    /**
+     * @return Microseconds from one packed time to a later one, across a wrap-around
+     */
+    private static long elapsedMicros(long from, long to) {
+        return (to - from) & TIME_MASK;
+    }
+
+    private static String formatMs(long micros) {
+        return String.format(Locale.US, "%.1f", micros / 1e3);
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.metrics;
+
+/**
+ * Outcome of one {@link LoginStage} of one login.
+ */
+public final class StageEvent {
+
+    /** Outcome of stages that completed successfully. */
+    public static final String OUTCOME_SUCCESS = "success";
+
+    private final String mProvider;
+    private final LoginStage mStage;
+    private final long mDurationMs;
+    private final String mOutcome;
+
+    StageEvent(String provider, LoginStage stage, long durationMs, String outcome) {
+        mProvider = provider;
+        mStage = stage;
+        mDurationMs = durationMs;
+        mOutcome = outcome;
+    }
+
+    public String getProvider() {
+        return mProvider;
+    }
+
+    public LoginStage getStage() {
+        return mStage;
+    }
+
+    public long getDurationMs() {
+        return mDurationMs;
+    }
+
+    public boolean isSuccessful() {
+        return OUTCOME_SUCCESS.equals(mOutcome);
+    }
+
+    /**
+     * @return {@link #OUTCOME_SUCCESS}, or the simple class name of the error the stage failed with
+     */
+    public String getOutcome() {
+        return mOutcome;
+    }
+
+    @Override
+    public String toString() {
+        return mProvider + "/" + mStage + " " + mOutcome + " in " + mDurationMs + " ms";
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.metrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures one stage of one login, from {@link LoginMetrics#start(String, LoginStage)} until
+ * {@link #success()} or {@link #failure(Throwable)}. Only the first outcome is recorded.
+ */
+public final class StageTimer {
+
+    private final LoginMetrics mMetrics;
+    private final String mProvider;
+    private final LoginStage mStage;
+    private final long mStartNanos;
+    private final AtomicBoolean mDone = new AtomicBoolean();
+
+    StageTimer(LoginMetrics metrics, String provider, LoginStage stage) {
+        mMetrics = metrics;
+        mProvider = provider;
+        mStage = stage;
+        mStartNanos = System.nanoTime();
+    }
+
+    public void success() {
+        finish(StageEvent.OUTCOME_SUCCESS);
+    }
+
+    /**
+     * @param error What the stage failed with, may be null if unknown
+     */
+    public void failure(Throwable error) {
+        finish(error == null ? "Unknown" : error.getClass().getSimpleName());
+    }
+
+    private void finish(String outcome) {
+        if (mDone.compareAndSet(false, true)) {
+            long durationMs = (System.nanoTime() - mStartNanos) / 1000000;
+            mMetrics.record(new StageEvent(mProvider, mStage, durationMs, outcome));
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.profile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The profile of the signed in user as it was last shown, kept on disk so the next cold start
+ * can show it before Firebase and the photo download are done.
+ *
+ * The file is a small binary record that is read by memory-mapping it:
+ * <pre>
+ *   magic     int      "PSN1"
+ *   uid       string
+ *   name      string   display name, may be null
+ *   photoUrl  string   may be null
+ *   width     ushort   thumbnail width, 0 if there is no thumbnail
+ *   height    ushort   thumbnail height
+ *   pixels    width * height * 2 bytes, RGB_565 in the device's native layout
+ * </pre>
+ * Strings are a ushort byte length, 0xFFFF for null, followed by UTF-8. The thumbnail pixels
+ * are exposed as a slice of the mapped file, so they can be copied straight into a bitmap
+ * without decoding anything.
+ */
+public final class ProfileSnapshot {
+
+    private static final int MAGIC = 0x50534E31;
+    private static final int NULL_LENGTH = 0xFFFF;
+    private static final int MAX_LENGTH = NULL_LENGTH - 1;
+    private static final int BYTES_PER_PIXEL = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mUid;
+    private final String mDisplayName;
+    private final String mPhotoUrl;
+    private final int mThumbnailWidth;
+    private final int mThumbnailHeight;
+    private final ByteBuffer mThumbnailPixels;
+
+    /**
+     * @param thumbnailPixels RGB_565 pixels of the photo, or null if there is no thumbnail
+     */
+    public ProfileSnapshot(String uid, String displayName, String photoUrl,
+                           int thumbnailWidth, int thumbnailHeight, ByteBuffer thumbnailPixels) {
+        if (uid == null) {
+            throw new IllegalArgumentException("uid is required");
+        }
+        if (thumbnailPixels != null
+                && thumbnailPixels.remaining() != thumbnailWidth * thumbnailHeight * BYTES_PER_PIXEL) {
+            throw new IllegalArgumentException("Thumbnail is not " + thumbnailWidth + "x"
+                    + thumbnailHeight + " RGB_565");
+        }
+        mUid = uid;
+        mDisplayName = displayName;
+        mPhotoUrl = photoUrl;
+        mThumbnailWidth = thumbnailPixels != null ? thumbnailWidth : 0;
+        mThumbnailHeight = thumbnailPixels != null ? thumbnailHeight : 0;
+        mThumbnailPixels = thumbnailPixels != null ? thumbnailPixels.slice().asReadOnlyBuffer() : null;
+    }
+
+    public String getUid() {
+        return mUid;
+    }
+
+    public String getDisplayName() {
+        return mDisplayName;
+    }
+
+    public String getPhotoUrl() {
+        return mPhotoUrl;
+    }
+
+    public boolean hasThumbnail() {
+        return mThumbnailPixels != null;
+    }
+
+    public int getThumbnailWidth() {
+        return mThumbnailWidth;
+    }
+
+    public int getThumbnailHeight() {
+        return mThumbnailHeight;
+    }
+
+    /**
+     * @return RGB_565 pixels of the thumbnail, positioned at the first pixel, or null if there
+     *         is none. Each call returns a new view, so callers may move its position.
+     */
+    public ByteBuffer getThumbnailPixels() {
+        return mThumbnailPixels != null ? mThumbnailPixels.duplicate() : null;
+    }
+
+    /**
+     * @return True if this snapshot shows the given profile, photo included if it has one
+     */
+    public boolean matches(String uid, String displayName, String photoUrl) {
+        return mUid.equals(uid)
+                && equal(mDisplayName, displayName)
+                && equal(mPhotoUrl, photoUrl)
+                && (photoUrl == null || hasThumbnail());
+    }
+
+    /**
+     * @return The snapshot stored in file, or null if there is none or it can't be read
+     */
+    public static ProfileSnapshot read(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the channel is closed
+            FileChannel channel = randomAccessFile.getChannel();
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return The snapshot in buffer, or null if buffer doesn't hold a valid one
+     */
+    public static ProfileSnapshot decode(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                return null;
+            }
+            String uid = readString(buffer);
+            String displayName = readString(buffer);
+            String photoUrl = readString(buffer);
+            int width = buffer.getShort() & 0xFFFF;
+            int height = buffer.getShort() & 0xFFFF;
+            if (uid == null || buffer.remaining() != width * height * BYTES_PER_PIXEL) {
+                return null;
+            }
+            ByteBuffer pixels = width > 0 && height > 0 ? buffer.slice() : null;
+            return new ProfileSnapshot(uid, displayName, photoUrl, width, height, pixels);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    public ByteBuffer encode() {
+        byte[] uid = toBytes(mUid);
+        byte[] displayName = toBytes(mDisplayName);
+        byte[] photoUrl = toBytes(mPhotoUrl);
+        int pixelBytes = mThumbnailPixels != null ? mThumbnailPixels.remaining() : 0;
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + stringSize(uid) + stringSize(displayName)
+                + stringSize(photoUrl) + 4 + pixelBytes);
+        buffer.putInt(MAGIC);
+        writeString(buffer, uid);
+        writeString(buffer, displayName);
+        writeString(buffer, photoUrl);
+        buffer.putShort((short) mThumbnailWidth);
+        buffer.putShort((short) mThumbnailHeight);
+        if (mThumbnailPixels != null) {
+            buffer.put(mThumbnailPixels.duplicate());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Replace file with this snapshot. The snapshot is written next to it first and then
+     * renamed over it, so a reader never sees a partly written file.
+     */
+    public void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            ByteBuffer buffer = encode();
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) NULL_LENGTH);
+            return;
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static byte[] toBytes(String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        if (bytes.length > MAX_LENGTH) {
+            throw new IllegalArgumentException("String too long for a profile snapshot");
+        }
+        return bytes;
+    }
+
+    private static int stringSize(byte[] bytes) {
+        return 2 + (bytes != null ? bytes.length : 0);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exchanges after the first one reuse its keep-alive connection and so skip the connect
+ * latency, which {@link ConnectLatencyProxy} charges to every new connection.
+ */
+public class ConnectionReuseTest {
+
+    private static final long CONNECT_DELAY_MS = 50;
+    private static final int WARM_EXCHANGES = 10;
+    private static final int TIMEOUT_MS = 5000;
+
+    private StandInVerifyTokenServer mServer;
+    private ConnectLatencyProxy mProxy;
+    private String mServerUrl;
+    private String mProxiedUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StandInVerifyTokenServer(BenchmarkTokens.customToken());
+        mServerUrl = mServer.start() + VerifyTokenCodec.PATH;
+        mProxy = new ConnectLatencyProxy(new URL(mServerUrl).getPort(), CONNECT_DELAY_MS);
+        mProxiedUrl = "http://127.0.0.1:" + mProxy.start() + VerifyTokenCodec.PATH;
+    }
+
+    @After
+    public void tearDown() {
+        mProxy.stop();
+        mServer.stop();
+    }
+
+    @Test
+    public void reusedConnectionSkipsConnectLatency() {
+        // Load and compile the request path against the server itself, so the first exchange
+        // through the proxy only differs from the later ones in the new connection
+        for (int i = 0; i < 200; i++) {
+            exchange(mServerUrl);
+        }
+
+        long coldNanos = exchange(mProxiedUrl);
+        long[] warmNanos = new long[WARM_EXCHANGES];
+        for (int i = 0; i < WARM_EXCHANGES; i++) {
+            warmNanos[i] = exchange(mProxiedUrl);
+        }
+        Arrays.sort(warmNanos);
+        long warmMedianNanos = warmNanos[WARM_EXCHANGES / 2];
+
+        System.out.printf("Cold exchange %.1f ms, warm median %.1f ms, reuse saves %.1f ms%n",
+                coldNanos / 1e6, warmMedianNanos / 1e6, (coldNanos - warmMedianNanos) / 1e6);
+        assertEquals("Warm exchanges opened connections", 1, mProxy.getConnectionCount());
+        assertTrue("Reuse saved less than half the connect latency",
+                coldNanos - warmMedianNanos >= CONNECT_DELAY_MS * 1000000 / 2);
+    }
+
+    /**
+     * @return Nanoseconds the exchange took
+     */
+    private static long exchange(String url) {
+        Outcome outcome = new Outcome();
+        long start = System.nanoTime();
+        UrlConnectionTransport.perform(url, BenchmarkTokens.accessToken(), false, TIMEOUT_MS, outcome);
+        long elapsed = System.nanoTime() - start;
+        assertNotNull("Exchange failed: " + outcome.mError, outcome.mResponse);
+        return elapsed;
+    }
+
+    private static final class Outcome implements ExchangeCall.Callback {
+
+        private VerifyTokenResponse mResponse;
+        private Exception mError;
+
+        @Override
+        public void onResponse(VerifyTokenResponse response, boolean cborResponse) {
+            mResponse = response;
+        }
+
+        @Override
+        public void onFailure(Exception error, FailureKind failure, int statusCode) {
+            mError = error;
+        }
+    }
+}
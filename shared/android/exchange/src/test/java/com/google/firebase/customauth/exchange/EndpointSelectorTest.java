@@ -0,0 +1,275 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import com.google.firebase.customauth.exchange.ExchangeHarness.Outcome;
+import com.google.firebase.customauth.exchange.MockVerifyTokenServer.Action;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link EndpointSelector} on its own, and routing {@link ExchangeCall}s between two local
+ * /verifyToken servers.
+ */
+public class EndpointSelectorTest {
+
+    private static final String FIREBASE_TOKEN = "header.payload.signature";
+    private static final int FAILURE_THRESHOLD = 2;
+    private static final long EJECTION_MS = 200;
+
+    private static final ExchangePolicy POLICY = new ExchangePolicy.Builder()
+            .setDeadlineMs(3000)
+            .setAttemptTimeoutMs(1000)
+            .setBackoff(20, 2, 100)
+            .build();
+
+    private MockVerifyTokenServer mServerA;
+    private MockVerifyTokenServer mServerB;
+    private String mUrlA;
+    private String mUrlB;
+    private EndpointSelector mEndpoints;
+    private ExchangeHarness mHarness;
+
+    @Before
+    public void setUp() throws Exception {
+        mServerA = new MockVerifyTokenServer(FIREBASE_TOKEN);
+        mServerB = new MockVerifyTokenServer(FIREBASE_TOKEN);
+        mUrlA = mServerA.start();
+        mUrlB = mServerB.start();
+        mEndpoints = newSelector(new NeverExplore());
+        mHarness = new ExchangeHarness();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServerA.stop();
+        mServerB.stop();
+        mHarness.shutdown();
+    }
+
+    @Test
+    public void routesToTheFasterEndpoint() {
+        mEndpoints.onSuccess(mUrlA, 100);
+        mEndpoints.onSuccess(mUrlB, 10);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(mUrlB, mEndpoints.select(null));
+        }
+        assertEquals(mUrlA, mEndpoints.select(mUrlB));
+    }
+
+    @Test
+    public void keepsConfiguredOrderUntilMeasured() {
+        assertEquals(mUrlA, mEndpoints.select(null));
+        mEndpoints.onSuccess(mUrlB, 100);
+        // A measured endpoint goes before one that hasn't answered yet
+        assertEquals(mUrlB, mEndpoints.select(null));
+    }
+
+    @Test
+    public void exploresTheSlowerEndpointNowAndThen() {
+        EndpointSelector endpoints = newSelector(new Random(1));
+        endpoints.onSuccess(mUrlA, 100);
+        endpoints.onSuccess(mUrlB, 10);
+
+        int toA = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (mUrlA.equals(endpoints.select(null))) {
+                toA++;
+            }
+        }
+        // Half of the 5% that explore pick A, so it gets measured again if it speeds up
+        assertTrue("A got " + toA + " of 2000", toA > 10 && toA < 150);
+    }
+
+    @Test
+    public void latencyAverageFollowsChanges() {
+        mEndpoints.onSuccess(mUrlA, 10);
+        mEndpoints.onSuccess(mUrlB, 50);
+        for (int i = 0; i < 5; i++) {
+            mEndpoints.onSuccess(mUrlA, 200);
+        }
+
+        // 10 ms weighs 0.7^5 after five samples of 200 ms
+        assertEquals(200 - 190 * Math.pow(0.7, 5), mEndpoints.getLatencyEwmaMs(mUrlA), 1e-9);
+        assertEquals(mUrlB, mEndpoints.peek());
+    }
+
+    @Test
+    public void breakerOpensAfterRepeatedFailures() {
+        mEndpoints.onFailure(mUrlA);
+        assertFalse(mEndpoints.isEjected(mUrlA));
+        mEndpoints.onFailure(mUrlA);
+        assertTrue(mEndpoints.isEjected(mUrlA));
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(mUrlB, mEndpoints.select(null));
+        }
+    }
+
+    @Test
+    public void successResetsTheFailureCount() {
+        mEndpoints.onFailure(mUrlA);
+        mEndpoints.onSuccess(mUrlA, 10);
+        mEndpoints.onFailure(mUrlA);
+
+        assertFalse(mEndpoints.isEjected(mUrlA));
+    }
+
+    @Test
+    public void letsASingleProbeThroughAfterTheEjection() throws Exception {
+        eject(mUrlA);
+        Thread.sleep(EJECTION_MS + 50);
+
+        assertEquals(mUrlA, mEndpoints.select(null));
+        // Only one request at a time finds out whether the endpoint is back
+        for (int i = 0; i < 100; i++) {
+            assertEquals(mUrlB, mEndpoints.select(null));
+        }
+        assertTrue(mEndpoints.isEjected(mUrlA));
+    }
+
+    @Test
+    public void recoversWhenTheProbeSucceeds() throws Exception {
+        mEndpoints.onSuccess(mUrlB, 50);
+        eject(mUrlA);
+        Thread.sleep(EJECTION_MS + 50);
+        assertEquals(mUrlA, mEndpoints.select(null));
+
+        mEndpoints.onSuccess(mUrlA, 10);
+
+        assertFalse(mEndpoints.isEjected(mUrlA));
+        assertEquals(mUrlA, mEndpoints.peek());
+    }
+
+    @Test
+    public void failedProbeEjectsAgain() throws Exception {
+        eject(mUrlA);
+        Thread.sleep(EJECTION_MS + 50);
+        assertEquals(mUrlA, mEndpoints.select(null));
+
+        // One failure is enough for an endpoint on probation
+        mEndpoints.onFailure(mUrlA);
+
+        assertTrue(mEndpoints.isEjected(mUrlA));
+        assertEquals(mUrlB, mEndpoints.select(null));
+    }
+
+    @Test
+    public void abandonedProbeLetsAnotherOneThrough() throws Exception {
+        eject(mUrlA);
+        Thread.sleep(EJECTION_MS + 50);
+        assertEquals(mUrlA, mEndpoints.select(null));
+
+        mEndpoints.onAbandoned(mUrlA);
+
+        assertEquals(mUrlA, mEndpoints.select(null));
+    }
+
+    @Test
+    public void usesTheEndpointThatComesBackSoonestWhenAllAreEjected() throws Exception {
+        eject(mUrlA);
+        Thread.sleep(10);
+        eject(mUrlB);
+
+        assertEquals(mUrlA, mEndpoints.select(null));
+        assertEquals(mUrlA, mEndpoints.select(mUrlB));
+    }
+
+    @Test
+    public void exchangeFailsOverToTheOtherEndpoint() throws Exception {
+        mServerA.script(Action.fail(503));
+
+        Outcome outcome = mHarness.exchange(mEndpoints, POLICY);
+
+        assertNotNull(outcome.mResponse);
+        assertEquals(Collections.singletonList(mUrlA), outcome.mFailedEndpoints);
+        assertEquals(1, mServerA.getRequestCount());
+        assertEquals(1, mServerB.getRequestCount());
+    }
+
+    @Test
+    public void exchangesMoveToTheFasterEndpoint() throws Exception {
+        // A is first in line but slow. The first exchange hedges to B, even on a cold JVM, and measures it
+        mServerA.script(Action.respond(1000));
+        ExchangePolicy hedged = new ExchangePolicy.Builder()
+                .setHedgePercentile(95)
+                .setMinHedgeDelay(30, 1000)
+                .build();
+        assertTrue(mHarness.exchange(mEndpoints, hedged).mAnsweredByHedge);
+
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(mHarness.exchange(mEndpoints, POLICY).mResponse);
+        }
+
+        assertEquals(21, mServerB.getRequestCount());
+        assertEquals(1, mServerA.getRequestCount());
+    }
+
+    @Test
+    public void cborFallbackIsPerEndpoint() throws Exception {
+        mEndpoints.setSupportsCbor(mUrlA, true);
+        mEndpoints.setSupportsCbor(mUrlB, true);
+        mServerA.script(Action.fail(415));
+
+        assertNotNull(mHarness.exchange(mEndpoints, POLICY).mResponse);
+
+        assertEquals(Arrays.asList(VerifyTokenCodec.CONTENT_TYPE_CBOR, VerifyTokenCodec.CONTENT_TYPE_JSON),
+                mServerA.getContentTypes());
+        assertFalse(mEndpoints.supportsCbor(mUrlA));
+        assertTrue(mEndpoints.supportsCbor(mUrlB));
+
+        // B still gets CBOR bodies
+        eject(mUrlA);
+        assertNotNull(mHarness.exchange(mEndpoints, POLICY).mResponse);
+        assertEquals(Collections.singletonList(VerifyTokenCodec.CONTENT_TYPE_CBOR), mServerB.getContentTypes());
+    }
+
+    private EndpointSelector newSelector(Random random) {
+        return new EndpointSelector(Arrays.asList(mUrlA, mUrlB), EndpointSelector.DEFAULT_EWMA_WEIGHT,
+                FAILURE_THRESHOLD, EJECTION_MS, random);
+    }
+
+    private void eject(String url) {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            mEndpoints.onFailure(url);
+        }
+        assertTrue(mEndpoints.isEjected(url));
+    }
+
+    /**
+     * Keeps routing deterministic, every request goes to the endpoint the selector ranks first.
+     */
+    private static final class NeverExplore extends Random {
+
+        @Override
+        public double nextDouble() {
+            return 1;
+        }
+    }
+}
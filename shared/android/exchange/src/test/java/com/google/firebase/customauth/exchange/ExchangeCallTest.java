@@ -0,0 +1,210 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import com.google.firebase.customauth.exchange.ExchangeHarness.Outcome;
+import com.google.firebase.customauth.exchange.MockVerifyTokenServer.Action;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ExchangeCall} against a local /verifyToken server that delays, drops and fails
+ * responses as scripted, over HttpURLConnection on real threads.
+ */
+public class ExchangeCallTest {
+
+    private static final String FIREBASE_TOKEN = "header.payload.signature";
+
+    // Short enough to keep the tests fast, long enough for loopback to never time out by itself
+    private static final ExchangePolicy.Builder POLICY = new ExchangePolicy.Builder()
+            .setDeadlineMs(3000)
+            .setAttemptTimeoutMs(400)
+            .setMaxAttempts(3)
+            .setBackoff(20, 2, 100);
+
+    private MockVerifyTokenServer mServer;
+    private String mUrl;
+    private ExchangeHarness mHarness;
+    private EndpointSelector mEndpoints;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockVerifyTokenServer(FIREBASE_TOKEN);
+        mUrl = mServer.start();
+        mHarness = new ExchangeHarness();
+        mEndpoints = new EndpointSelector(Collections.singletonList(mUrl));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // Requests still out, e.g. the attempt a hedge answered for, fail once the server is gone
+        mServer.stop();
+        mHarness.shutdown();
+    }
+
+    @Test
+    public void succeedsRightAway() throws Exception {
+        Outcome outcome = exchange(POLICY.build());
+
+        assertEquals(FIREBASE_TOKEN, outcome.mResponse.getFirebaseToken());
+        assertEquals(1, outcome.mAttempts);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void retriesDroppedResponse() throws Exception {
+        mServer.script(Action.drop());
+
+        Outcome outcome = exchange(POLICY.build());
+
+        assertNotNull(outcome.mResponse);
+        assertEquals(2, outcome.mAttempts);
+        assertEquals(Collections.singletonList(FailureKind.CONNECTION), outcome.mAttemptFailures);
+    }
+
+    @Test
+    public void retriesUnavailableServer() throws Exception {
+        mServer.script(Action.fail(503), Action.fail(503));
+
+        Outcome outcome = exchange(POLICY.build());
+
+        assertNotNull(outcome.mResponse);
+        assertEquals(3, outcome.mAttempts);
+        assertEquals(Arrays.asList(FailureKind.SERVER_UNAVAILABLE, FailureKind.SERVER_UNAVAILABLE),
+                outcome.mAttemptFailures);
+    }
+
+    @Test
+    public void retriesSlowAttemptAfterItsTimeout() throws Exception {
+        mServer.script(Action.respond(1500));
+
+        Outcome outcome = exchange(POLICY.build());
+
+        assertNotNull(outcome.mResponse);
+        assertEquals(2, outcome.mAttempts);
+        assertEquals(Collections.singletonList(FailureKind.TIMEOUT), outcome.mAttemptFailures);
+        // The slow attempt is given up after its 400 ms, not waited out
+        assertTrue("took " + outcome.mElapsedMs + " ms", outcome.mElapsedMs < 1200);
+    }
+
+    @Test
+    public void doesNotRetryRejectedToken() throws Exception {
+        mServer.script(Action.fail(403));
+
+        Outcome outcome = exchange(POLICY.build());
+
+        assertNull(outcome.mResponse);
+        assertEquals(FailureKind.CLIENT_ERROR, outcome.mFailure);
+        assertEquals(1, outcome.mAttempts);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        mServer.script(Action.drop(), Action.drop(), Action.drop(), Action.drop());
+
+        Outcome outcome = exchange(POLICY.build());
+
+        assertEquals(FailureKind.CONNECTION, outcome.mFailure);
+        assertEquals(3, outcome.mAttempts);
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void failsAtTheDeadline() throws Exception {
+        mServer.script(Action.respond(2000), Action.respond(2000), Action.respond(2000));
+        ExchangePolicy policy = new ExchangePolicy.Builder()
+                .setDeadlineMs(600)
+                .setAttemptTimeoutMs(400)
+                .setMaxAttempts(5)
+                .setBackoff(20, 2, 100)
+                .build();
+
+        Outcome outcome = exchange(policy);
+
+        assertEquals(FailureKind.TIMEOUT, outcome.mFailure);
+        // The second attempt only gets what is left of the deadline, so the call ends on time
+        assertTrue(outcome.mAttempts >= 2);
+        assertTrue("took " + outcome.mElapsedMs + " ms", outcome.mElapsedMs < 900);
+    }
+
+    @Test
+    public void hedgeAnswersSlowAttempt() throws Exception {
+        mServer.script(Action.respond(1000));
+        ExchangePolicy policy = new ExchangePolicy.Builder()
+                .setDeadlineMs(3000)
+                .setAttemptTimeoutMs(2000)
+                .setHedgePercentile(95)
+                // Too few samples for the percentile, so the hedge goes out after 100 ms
+                .setMinHedgeDelay(100, 1000)
+                .build();
+
+        Outcome outcome = exchange(policy);
+
+        assertNotNull(outcome.mResponse);
+        assertTrue(outcome.mAnsweredByHedge);
+        assertEquals(1, outcome.mAttempts);
+        assertEquals(1, outcome.mHedges);
+        assertTrue("took " + outcome.mElapsedMs + " ms", outcome.mElapsedMs < 800);
+    }
+
+    @Test
+    public void noHedgeWhenAttemptIsFast() throws Exception {
+        ExchangePolicy policy = new ExchangePolicy.Builder()
+                .setHedgePercentile(95)
+                // Well above loopback latency, even for the first request of a cold JVM
+                .setMinHedgeDelay(1000, 1000)
+                .build();
+
+        Outcome outcome = exchange(policy);
+
+        assertNotNull(outcome.mResponse);
+        assertEquals(0, outcome.mHedges);
+        assertFalse(outcome.mAnsweredByHedge);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void resendsRejectedCborBodyAsJson() throws Exception {
+        mEndpoints.setSupportsCbor(mUrl, true);
+        mServer.script(Action.fail(415));
+
+        Outcome outcome = exchange(POLICY.build());
+
+        assertNotNull(outcome.mResponse);
+        // The JSON resend is not another attempt
+        assertEquals(1, outcome.mAttempts);
+        assertEquals(Arrays.asList(VerifyTokenCodec.CONTENT_TYPE_CBOR, VerifyTokenCodec.CONTENT_TYPE_JSON),
+                mServer.getContentTypes());
+        assertFalse(mEndpoints.supportsCbor(mUrl));
+    }
+
+    private Outcome exchange(ExchangePolicy policy) throws InterruptedException {
+        return mHarness.exchange(mEndpoints, policy);
+    }
+}
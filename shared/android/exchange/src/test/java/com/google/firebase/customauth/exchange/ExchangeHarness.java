@@ -0,0 +1,115 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import com.google.firebase.customauth.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link ExchangeCall}s the way the apps do: started and called back on a single main
+ * thread, with the requests blocking on a pool of dispatcher threads.
+ */
+class ExchangeHarness {
+
+    private final ScheduledExecutorService mMainThread = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService mDispatchers = Executors.newCachedThreadPool();
+    private final LatencyHistogram mAttemptLatency = new LatencyHistogram();
+
+    /**
+     * Run an exchange on the main thread and wait for its outcome.
+     */
+    Outcome exchange(final EndpointSelector endpoints, final ExchangePolicy policy) throws InterruptedException {
+        final Outcome outcome = new Outcome();
+        final ExchangeCall.Transport transport = new UrlConnectionTransport(mDispatchers, mMainThread);
+        final ExchangeCall.Scheduler scheduler = new ExecutorScheduler(mMainThread);
+        mMainThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                outcome.mCall = new ExchangeCall(transport, scheduler, endpoints, "access-token",
+                        policy, mAttemptLatency, outcome);
+                outcome.mCall.start();
+            }
+        });
+        assertTrue("No outcome", outcome.await());
+        return outcome;
+    }
+
+    /**
+     * Wait for requests that are still out to hand their outcome to the main thread, then stop
+     * both. Stop the servers first, so those requests fail right away.
+     */
+    void shutdown() throws InterruptedException {
+        mDispatchers.shutdown();
+        assertTrue(mDispatchers.awaitTermination(5, TimeUnit.SECONDS));
+        mMainThread.shutdownNow();
+    }
+
+    static final class Outcome implements ExchangeCall.Listener {
+
+        private final long mStartNanos = System.nanoTime();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        final List<String> mFailedEndpoints = new ArrayList<>();
+        final List<FailureKind> mAttemptFailures = new ArrayList<>();
+        ExchangeCall mCall;
+        VerifyTokenResponse mResponse;
+        FailureKind mFailure;
+        int mAttempts;
+        int mHedges;
+        boolean mAnsweredByHedge;
+        long mElapsedMs;
+
+        @Override
+        public void onAttemptFailed(String endpoint, boolean hedge, Exception error, FailureKind failure) {
+            mFailedEndpoints.add(endpoint);
+            mAttemptFailures.add(failure);
+        }
+
+        @Override
+        public void onSuccess(VerifyTokenResponse response) {
+            mResponse = response;
+            finish();
+        }
+
+        @Override
+        public void onFailure(Exception error, FailureKind failure) {
+            mFailure = failure;
+            finish();
+        }
+
+        private void finish() {
+            mAttempts = mCall.getAttemptCount();
+            mHedges = mCall.getHedgeCount();
+            mAnsweredByHedge = mCall.isAnsweredByHedge();
+            mElapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos);
+            mDone.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            // The latch publishes the fields written on the main thread
+            return mDone.await(10, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * /verifyToken server for tests that answers each request as scripted, e.g. drop the first
+ * response, delay the second one and answer the third one right away. Unlike
+ * {@link StandInVerifyTokenServer} it never rolls dice, so a test knows what every attempt of
+ * an {@link ExchangeCall} runs into.
+ */
+class MockVerifyTokenServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * What the server does with one request.
+     */
+    static final class Action {
+        final long mDelayMs;
+        final int mStatus;
+        final boolean mDrop;
+
+        private Action(long delayMs, int status, boolean drop) {
+            mDelayMs = delayMs;
+            mStatus = status;
+            mDrop = drop;
+        }
+
+        /** Answer with a token after delayMs. */
+        static Action respond(long delayMs) {
+            return new Action(delayMs, 200, false);
+        }
+
+        /** Answer with status and an error body. */
+        static Action fail(int status) {
+            return new Action(0, status, false);
+        }
+
+        /** Announce a full response but close the connection halfway through it. */
+        static Action drop() {
+            return new Action(0, 200, true);
+        }
+    }
+
+    private final String mFirebaseToken;
+    private final Queue<Action> mScript = new LinkedList<>();
+    private final List<String> mContentTypes = new ArrayList<>();
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    MockVerifyTokenServer(String firebaseToken) {
+        mFirebaseToken = firebaseToken;
+    }
+
+    /**
+     * Queue what to do with the next requests. Requests beyond the script are answered right
+     * away.
+     */
+    synchronized MockVerifyTokenServer script(Action... actions) {
+        for (Action action : actions) {
+            mScript.add(action);
+        }
+        return this;
+    }
+
+    /**
+     * @return URL of /verifyToken on the server
+     */
+    String start() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        // A thread per request, so a delayed response doesn't hold up a hedged one
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.createContext(VerifyTokenCodec.PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                UrlConnectionTransport.readFully(exchange.getRequestBody());
+                handleRequest(exchange);
+            }
+        });
+        mServer.start();
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + VerifyTokenCodec.PATH;
+    }
+
+    void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @return Content-Type of every request received so far, in order
+     */
+    synchronized List<String> getContentTypes() {
+        return new ArrayList<>(mContentTypes);
+    }
+
+    synchronized int getRequestCount() {
+        return mContentTypes.size();
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        Action action;
+        synchronized (this) {
+            mContentTypes.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+            action = mScript.isEmpty() ? Action.respond(0) : mScript.remove();
+        }
+        if (action.mDelayMs > 0) {
+            try {
+                Thread.sleep(action.mDelayMs);
+            } catch (InterruptedException e) {
+                exchange.close();
+                return;
+            }
+        }
+
+        byte[] body = action.mStatus == 200
+                ? ("{\"" + VerifyTokenCodec.FIREBASE_TOKEN_FIELD + "\":\"" + mFirebaseToken + "\"}").getBytes(UTF_8)
+                : "{\"error_message\":\"Scripted failure\"}".getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", VerifyTokenCodec.CONTENT_TYPE_JSON);
+        try {
+            exchange.sendResponseHeaders(action.mStatus, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body, 0, action.mDrop ? body.length / 2 : body.length);
+            out.flush();
+        } catch (IOException e) {
+            // The client gave up on the request already
+        } finally {
+            exchange.close();
+        }
+    }
+}
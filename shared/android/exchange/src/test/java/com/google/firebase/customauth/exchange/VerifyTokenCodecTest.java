@@ -0,0 +1,321 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.exchange;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The hand-written JSON and CBOR scanners and writers behind {@link VerifyTokenCodec}.
+ */
+public class VerifyTokenCodecTest {
+
+    private static final String JSON = VerifyTokenCodec.CONTENT_TYPE_JSON;
+    private static final String CBOR = VerifyTokenCodec.CONTENT_TYPE_CBOR;
+
+    private static final int SIMPLE_NULL = 0xf6;
+    private static final int ARRAY_OF_ONE = 0x81;
+
+    @Test
+    public void jsonFieldsInAnyOrder() throws IOException {
+        VerifyTokenResponse response = decodeJson(
+                "{\"photo_url\":\"https://a/b.png\", \"firebase_token\" : \"t\",\"display_name\":\"Name\"}");
+
+        assertEquals("t", response.getFirebaseToken());
+        assertEquals("Name", response.getDisplayName());
+        assertEquals("https://a/b.png", response.getPhotoUrl());
+    }
+
+    @Test
+    public void jsonSkipsNestedDecoys() throws IOException {
+        String body = "{\"user\":{\"firebase_token\":\"decoy\",\"list\":[{\"firebase_token\":\"x\"},\"}\"]},"
+                + "\"note\":\"\\\"firebase_token\\\":\\\"decoy\\\"\","
+                + "\"count\":3,\"ok\":true,\"none\":null,"
+                + "\"firebase_token\":\"real\"}";
+
+        assertEquals("real", VerifyTokenCodec.decodeResponse(utf8(body), JSON));
+    }
+
+    @Test
+    public void jsonEscapesInKeysAndValues() throws IOException {
+        String body = "{\"firebase\\u005ftoken\":\"a\\\"b\\\\c\\/\\u00e9\\n\","
+                + "\"display_\\\"name\":\"decoy\",\"display_name\":\"Z\\u00fcrich\"}";
+        VerifyTokenResponse response = decodeJson(body);
+
+        assertEquals("a\"b\\c/\u00e9\n", response.getFirebaseToken());
+        assertEquals("Z\u00fcrich", response.getDisplayName());
+    }
+
+    @Test
+    public void jsonNullAndMissingOptionalFields() throws IOException {
+        VerifyTokenResponse response = decodeJson("{\"firebase_token\":\"t\",\"display_name\":null}");
+
+        assertEquals("t", response.getFirebaseToken());
+        assertNull(response.getDisplayName());
+        assertNull(response.getPhotoUrl());
+    }
+
+    @Test
+    public void jsonOptionalFieldsOfAnotherTypeAreIgnored() throws IOException {
+        VerifyTokenResponse response = decodeJson(
+                "{\"firebase_token\":\"abc\",\"display_name\":5,\"photo_url\":{\"url\":\"x\"}}");
+
+        assertEquals("abc", response.getFirebaseToken());
+        assertNull(response.getDisplayName());
+        assertNull(response.getPhotoUrl());
+    }
+
+    @Test
+    public void jsonRejectsMissingOrNonStringToken() {
+        assertMalformed(utf8("{}"), JSON);
+        assertMalformed(utf8("{\"display_name\":\"Name\"}"), JSON);
+        assertMalformed(utf8("{\"firebase_token\":null}"), JSON);
+        assertMalformed(utf8("{\"firebase_token\":42}"), JSON);
+        assertMalformed(utf8("[\"firebase_token\"]"), JSON);
+        assertMalformed(utf8(""), JSON);
+        assertMalformed(utf8("{\"firebase_token\":\"bad \\q escape\"}"), JSON);
+    }
+
+    @Test
+    public void jsonTruncatedInput() {
+        byte[] body = utf8("{\"user\":{\"a\":[1,2]},\"firebase_token\":\"complete\",\"display_name\":\"N\"}");
+        assertTruncationsFail(body, JSON, "complete");
+    }
+
+    @Test
+    public void jsonDeepNestingIsSkipped() throws IOException {
+        StringBuilder body = new StringBuilder("{\"padding\":");
+        for (int i = 0; i < 100000; i++) {
+            body.append('[');
+        }
+        for (int i = 0; i < 100000; i++) {
+            body.append(']');
+        }
+        body.append(",\"firebase_token\":\"t\"}");
+
+        assertEquals("t", VerifyTokenCodec.decodeResponse(utf8(body.toString()), JSON));
+    }
+
+    @Test
+    public void jsonRequestEscapesToken() throws IOException {
+        String token = "a\"b\\c\n\u0001\u00e9";
+        byte[] body = VerifyTokenCodec.encodeRequestJson(token);
+
+        assertEquals("{\"token\":\"a\\\"b\\\\c\\u000a\\u0001\u00e9\"}", new String(body, VerifyTokenCodec.UTF_8));
+        assertEquals(token, new JsonScanner(body).findString(utf8(VerifyTokenCodec.TOKEN_FIELD)));
+    }
+
+    @Test
+    public void escapeReturnsPlainTokensAsTheyAre() {
+        String token = "ya29.plain-token_123";
+        assertSame(token, JsonScanner.escape(token));
+        assertEquals("\\\"\\\\\\u001f", JsonScanner.escape("\"\\\u001f"));
+    }
+
+    @Test
+    public void cborRequestRoundTrip() throws IOException {
+        for (int length : new int[] {0, 23, 24, 255, 256, 65535, 65536}) {
+            char[] chars = new char[length];
+            Arrays.fill(chars, 'x');
+            String token = new String(chars);
+            byte[] body = VerifyTokenCodec.encodeRequest(token, true);
+
+            assertEquals(token, new CborScanner(body).findText(utf8(VerifyTokenCodec.TOKEN_FIELD)));
+        }
+        // The same body a CBOR library would write for {"token": "ab"}
+        assertArrayEquals(new byte[] {(byte) 0xa1, 0x65, 't', 'o', 'k', 'e', 'n', 0x62, 'a', 'b'},
+                VerifyTokenCodec.encodeRequestCbor("ab"));
+    }
+
+    @Test
+    public void cborFieldsInAnyOrderWithNestedDecoys() throws IOException {
+        CborWriter writer = new CborWriter(64);
+        writer.writeMapHeader(4);
+        writer.writeText(utf8("display_name"));
+        writer.writeText(utf8("N\u00e4me"));
+        writer.writeText(utf8("user"));
+        writer.writeMapHeader(1);
+        writer.writeText(utf8("firebase_token"));
+        writer.writeText(utf8("decoy"));
+        writer.writeText(utf8("photo_url"));
+        writer.writeText(utf8("https://a/b.png"));
+        writer.writeText(utf8("firebase_token"));
+        writer.writeText(utf8("real"));
+
+        VerifyTokenResponse response = VerifyTokenCodec.decodeResponseWithProfile(writer.toByteArray(), CBOR);
+
+        assertEquals("real", response.getFirebaseToken());
+        assertEquals("N\u00e4me", response.getDisplayName());
+        assertEquals("https://a/b.png", response.getPhotoUrl());
+    }
+
+    @Test
+    public void cborSkipsOtherItemTypes() throws IOException {
+        byte[] body = concat(
+                bytes(0xa4),
+                text("bytes"), bytes(0x43, 1, 2, 3),
+                text("array"), bytes(0x83, 0x01, 0x38, 0x63, 0xf5),
+                text("tagged"), bytes(0xc1, 0x1a, 0x5a, 0x00, 0x00, 0x00),
+                text("firebase_token"), text("t"));
+
+        assertEquals("t", VerifyTokenCodec.decodeResponse(body, CBOR));
+    }
+
+    @Test
+    public void cborNullMissingAndOtherTypeOptionalFields() throws IOException {
+        byte[] body = concat(
+                bytes(0xa3),
+                text("firebase_token"), text("t"),
+                text("display_name"), bytes(SIMPLE_NULL),
+                text("photo_url"), bytes(0x05));
+        VerifyTokenResponse response = VerifyTokenCodec.decodeResponseWithProfile(body, CBOR);
+
+        assertEquals("t", response.getFirebaseToken());
+        assertNull(response.getDisplayName());
+        assertNull(response.getPhotoUrl());
+
+        response = VerifyTokenCodec.decodeResponseWithProfile(concat(bytes(0xa1), text("firebase_token"), text("t")), CBOR);
+        assertNull(response.getDisplayName());
+    }
+
+    @Test
+    public void cborRejectsMissingOrNonTextToken() {
+        assertMalformed(bytes(0xa0), CBOR);
+        assertMalformed(concat(bytes(0xa1), text("firebase_token"), bytes(SIMPLE_NULL)), CBOR);
+        assertMalformed(concat(bytes(0x81), text("firebase_token")), CBOR);
+        // Indefinite-length map
+        assertMalformed(concat(bytes(0xbf), text("firebase_token"), text("t"), bytes(0xff)), CBOR);
+        assertMalformed(new byte[0], CBOR);
+    }
+
+    @Test
+    public void cborTruncatedInput() {
+        byte[] body = concat(
+                bytes(0xa3),
+                text("user"), bytes(0x82, 0x01, 0x02),
+                text("firebase_token"), text("complete"),
+                text("display_name"), text("N"));
+        assertTruncationsFail(body, CBOR, "complete");
+        // A length running past the end of the input
+        assertMalformed(concat(bytes(0xa1), text("firebase_token"), bytes(0x7a, 0x7f, 0xff, 0xff, 0xff)), CBOR);
+    }
+
+    @Test
+    public void cborDeepNestingFailsWithIOException() {
+        // 200 KB of one-element arrays, each nested in the one before
+        byte[] nested = new byte[200 * 1024];
+        Arrays.fill(nested, (byte) ARRAY_OF_ONE);
+        byte[] body = concat(bytes(0xa2), text("padding"), nested, bytes(0x00), text("firebase_token"), text("t"));
+
+        assertMalformed(body, CBOR);
+    }
+
+    @Test
+    public void cborModerateNestingIsSkipped() throws IOException {
+        byte[] nested = new byte[16];
+        Arrays.fill(nested, (byte) ARRAY_OF_ONE);
+        byte[] body = concat(bytes(0xa2), text("padding"), nested, bytes(0x00), text("firebase_token"), text("t"));
+
+        assertEquals("t", VerifyTokenCodec.decodeResponse(body, CBOR));
+    }
+
+    @Test
+    public void isCborIgnoresCaseAndParameters() {
+        assertTrue(VerifyTokenCodec.isCbor("application/cbor"));
+        assertTrue(VerifyTokenCodec.isCbor("Application/CBOR; charset=binary"));
+        assertFalse(VerifyTokenCodec.isCbor(VerifyTokenCodec.CONTENT_TYPE_JSON));
+        assertFalse(VerifyTokenCodec.isCbor("application/cb"));
+        assertFalse(VerifyTokenCodec.isCbor(null));
+    }
+
+    @Test
+    public void isCborDoesNotDependOnTheDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            // Turkish lowercases "I" to a dotless i
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertTrue(VerifyTokenCodec.isCbor("APPLICATION/CBOR"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    private static VerifyTokenResponse decodeJson(String body) throws IOException {
+        return VerifyTokenCodec.decodeResponseWithProfile(utf8(body), JSON);
+    }
+
+    /**
+     * Every prefix of body must either fail with an IOException or, once the token is complete,
+     * return all of it.
+     */
+    private static void assertTruncationsFail(byte[] body, String contentType, String token) {
+        for (int length = 0; length < body.length; length++) {
+            byte[] truncated = Arrays.copyOf(body, length);
+            try {
+                assertEquals("Prefix of " + length + " bytes", token,
+                        VerifyTokenCodec.decodeResponse(truncated, contentType));
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    private static void assertMalformed(byte[] body, String contentType) {
+        try {
+            VerifyTokenCodec.decodeResponseWithProfile(body, contentType);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(VerifyTokenCodec.UTF_8);
+    }
+
+    private static byte[] text(String value) {
+        CborWriter writer = new CborWriter(8);
+        writer.writeText(utf8(value));
+        return writer.toByteArray();
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
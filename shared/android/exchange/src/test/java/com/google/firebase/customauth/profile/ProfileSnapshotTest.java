@@ -0,0 +1,222 @@
+/**
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.customauth.profile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The binary record of {@link ProfileSnapshot}, in memory and on disk.
+ */
+public class ProfileSnapshotTest {
+
+    private static final String UID = "line:U4af4980629";
+    // Non-ASCII, so lengths are UTF-8 bytes and not chars
+    private static final String NAME = "Bj\u00f6rn \uc7a5";
+    private static final String PHOTO_URL = "https://profile.example.com/photo.jpg";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsWithThumbnail() {
+        ProfileSnapshot snapshot = ProfileSnapshot.decode(withThumbnail(3, 2).encode());
+
+        assertNotNull(snapshot);
+        assertEquals(UID, snapshot.getUid());
+        assertEquals(NAME, snapshot.getDisplayName());
+        assertEquals(PHOTO_URL, snapshot.getPhotoUrl());
+        assertTrue(snapshot.hasThumbnail());
+        assertEquals(3, snapshot.getThumbnailWidth());
+        assertEquals(2, snapshot.getThumbnailHeight());
+        assertEquals(pixels(3, 2), snapshot.getThumbnailPixels());
+    }
+
+    @Test
+    public void roundTripsWithoutThumbnail() {
+        ProfileSnapshot snapshot = ProfileSnapshot.decode(
+                new ProfileSnapshot(UID, NAME, PHOTO_URL, 0, 0, null).encode());
+
+        assertNotNull(snapshot);
+        assertEquals(PHOTO_URL, snapshot.getPhotoUrl());
+        assertFalse(snapshot.hasThumbnail());
+        assertEquals(0, snapshot.getThumbnailWidth());
+        assertEquals(0, snapshot.getThumbnailHeight());
+        assertNull(snapshot.getThumbnailPixels());
+    }
+
+    @Test
+    public void roundTripsNullStrings() {
+        ProfileSnapshot snapshot = ProfileSnapshot.decode(
+                new ProfileSnapshot(UID, null, null, 0, 0, null).encode());
+
+        assertNotNull(snapshot);
+        assertNull(snapshot.getDisplayName());
+        assertNull(snapshot.getPhotoUrl());
+    }
+
+    @Test
+    public void keepsEmptyStringApartFromNull() {
+        ProfileSnapshot snapshot = ProfileSnapshot.decode(
+                new ProfileSnapshot(UID, "", null, 0, 0, null).encode());
+
+        assertEquals("", snapshot.getDisplayName());
+    }
+
+    @Test
+    public void thumbnailViewsAreIndependent() {
+        ProfileSnapshot snapshot = withThumbnail(2, 2);
+        ByteBuffer pixels = snapshot.getThumbnailPixels();
+        pixels.position(pixels.limit());
+
+        assertEquals(8, snapshot.getThumbnailPixels().remaining());
+        assertTrue(pixels.isReadOnly());
+    }
+
+    @Test
+    public void roundTripsThroughFile() throws Exception {
+        File file = new File(mFolder.getRoot(), "profile.snapshot");
+        withThumbnail(4, 4).write(file);
+        new ProfileSnapshot(UID, NAME, PHOTO_URL, 0, 0, null).write(file);
+
+        ProfileSnapshot snapshot = ProfileSnapshot.read(file);
+
+        assertNotNull(snapshot);
+        assertEquals(NAME, snapshot.getDisplayName());
+        assertFalse(snapshot.hasThumbnail());
+        // Written next to the file first, then renamed over it
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void readsMissingFileAsNone() throws Exception {
+        assertNull(ProfileSnapshot.read(new File(mFolder.getRoot(), "missing")));
+    }
+
+    @Test
+    public void rejectsWrongMagic() {
+        ByteBuffer encoded = withThumbnail(2, 2).encode();
+        encoded.put(3, (byte) '0');
+
+        assertNull(ProfileSnapshot.decode(encoded));
+    }
+
+    @Test
+    public void rejectsFileWithWrongMagic() throws Exception {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write("PNG\n not a snapshot".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        assertNull(ProfileSnapshot.read(file));
+    }
+
+    @Test
+    public void rejectsEveryTruncation() {
+        ByteBuffer encoded = withThumbnail(3, 2).encode();
+        for (int length = 0; length < encoded.limit(); length++) {
+            ByteBuffer truncated = encoded.duplicate();
+            truncated.limit(length);
+            assertNull("Accepted " + length + " of " + encoded.limit() + " bytes",
+                    ProfileSnapshot.decode(truncated));
+        }
+    }
+
+    @Test
+    public void rejectsTrailingBytes() {
+        ByteBuffer encoded = withThumbnail(3, 2).encode();
+        ByteBuffer longer = ByteBuffer.allocate(encoded.remaining() + 1);
+        longer.put(encoded).put((byte) 0).flip();
+
+        assertNull(ProfileSnapshot.decode(longer));
+    }
+
+    @Test
+    public void rejectsEmptyFile() throws Exception {
+        assertNull(ProfileSnapshot.read(mFolder.newFile()));
+    }
+
+    @Test
+    public void rejectsThumbnailOfWrongSize() {
+        try {
+            new ProfileSnapshot(UID, NAME, PHOTO_URL, 3, 3, pixels(3, 2));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsStringsTooLongForTheRecord() {
+        StringBuilder name = new StringBuilder();
+        while (name.length() < 0xFFFF) {
+            name.append('a');
+        }
+        ProfileSnapshot snapshot = new ProfileSnapshot(UID, name.toString(), null, 0, 0, null);
+        try {
+            snapshot.encode();
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void matchesTheSameProfile() {
+        ProfileSnapshot snapshot = withThumbnail(2, 2);
+
+        assertTrue(snapshot.matches(UID, NAME, PHOTO_URL));
+        assertFalse(snapshot.matches("line:other", NAME, PHOTO_URL));
+        assertFalse(snapshot.matches(UID, "Other", PHOTO_URL));
+        assertFalse(snapshot.matches(UID, NAME, null));
+        assertTrue(new ProfileSnapshot(UID, null, null, 0, 0, null).matches(UID, null, null));
+    }
+
+    @Test
+    public void doesNotMatchWhileThePhotoIsMissing() {
+        // Stored after the photo failed to load, so the next update tries again
+        ProfileSnapshot snapshot = new ProfileSnapshot(UID, NAME, PHOTO_URL, 0, 0, null);
+
+        assertFalse(snapshot.matches(UID, NAME, PHOTO_URL));
+    }
+
+    private static ProfileSnapshot withThumbnail(int width, int height) {
+        return new ProfileSnapshot(UID, NAME, PHOTO_URL, width, height, pixels(width, height));
+    }
+
+    private static ByteBuffer pixels(int width, int height) {
+        ByteBuffer pixels = ByteBuffer.allocate(width * height * 2);
+        for (int i = 0; i < pixels.capacity(); i++) {
+            pixels.put((byte) (i * 37));
+        }
+        pixels.flip();
+        return pixels;
+    }
+}